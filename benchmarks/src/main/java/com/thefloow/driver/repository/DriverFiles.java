@@ -0,0 +1,79 @@
+package com.thefloow.driver.repository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Generates repository files of a given number of drivers for the benchmarks. Creation dates are spread
+ * evenly over {@link #CREATION_DAYS} days, so the share of drivers created after a date is known up front.
+ * Files are kept in the temporary folder and reused by later runs.
+ */
+final class DriverFiles {
+
+    static final LocalDate FIRST_CREATION_DATE = LocalDate.parse("2010-01-01");
+    static final int CREATION_DAYS = 3650;
+
+    private static final String[] FIRST_NAMES = {"Jaime", "Jane", "John", "María", "Oliver", "Amelia", "Noah", "Ava"};
+    private static final String[] LAST_NAMES = {"Bergas", "Doe", "Smith", "García", "Jones", "Brown", "Taylor"};
+    private static final Path FOLDER = Paths.get(System.getProperty("java.io.tmpdir"), "driver-benchmarks");
+
+    private DriverFiles() {
+    }
+
+    /**
+     * @return repository file of the given number of drivers, generated the first time it is requested
+     */
+    static Path repositoryFile(int rows) throws IOException {
+        Path repositoryFile = FOLDER.resolve("drivers-" + rows + ".txt");
+        if (Files.notExists(repositoryFile)) {
+            Files.createDirectories(FOLDER);
+            Path tempFile = Files.createTempFile(FOLDER, "drivers-" + rows, ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                Random random = new Random(rows);
+                for (int id = 1; id <= rows; id++) {
+                    writer.write(record(id, random));
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, repositoryFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return repositoryFile;
+    }
+
+    /**
+     * @return a copy of the repository file of the given number of drivers, which may be written to
+     */
+    static Path writableCopy(int rows) throws IOException {
+        Path copy = Files.createTempFile(FOLDER, "drivers-" + rows + "-copy", ".txt");
+        Files.copy(repositoryFile(rows), copy, StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    /**
+     * @return date after which the given share of the drivers of a generated file were created
+     */
+    static LocalDate createdAfterDate(double selectivity) {
+        return FIRST_CREATION_DATE.plusDays(Math.round(CREATION_DAYS * (1 - selectivity)) - 1);
+    }
+
+    static String record(int id, Random random) {
+        return id + ";"
+                + FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + ";"
+                + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + ";"
+                + LocalDate.parse("1950-01-01").plusDays(random.nextInt(20000)) + ";"
+                + FIRST_CREATION_DATE.plusDays(random.nextInt(CREATION_DAYS));
+    }
+
+    static void delete(Path repositoryFile) throws IOException {
+        Files.deleteIfExists(repositoryFile);
+        Files.deleteIfExists(repositoryFile.resolveSibling(repositoryFile.getFileName() + ".idx"));
+        Files.deleteIfExists(repositoryFile.resolveSibling(repositoryFile.getFileName() + ".months"));
+    }
+}
@@ -0,0 +1,97 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of {@link FileDriverRepository} over generated repository files, in every scan mode. Reads run on
+ * the benchmark thread so the measure does not include the hand-off to the read executor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class FileDriverRepositoryReadBenchmark {
+
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 60000;
+    private static final String SEARCHED_NAME = "ja";
+    private static final int SEARCH_LIMIT = 20;
+
+    @State(Scope.Benchmark)
+    public static class Repository {
+
+        @Param({"1000", "100000", "10000000"})
+        int rows;
+
+        @Param({"INDEX", "COLUMNAR", "LINES", "MAPPED"})
+        ScanMode scanMode;
+
+        FileDriverRepository repository;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            repository = new FileDriverRepository(DriverFiles.repositoryFile(rows),
+                    WriterSettings.defaults(),
+                    scanMode,
+                    Runnable::run,
+                    RepositoryMetrics.noop(),
+                    CHECKPOINT_INTERVAL_MILLIS,
+                    CacheSettings.disabled());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            repository.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Selectivity {
+
+        /**
+         * Share of the drivers created after the searched date.
+         */
+        @Param({"0.001", "0.1", "0.5"})
+        double selectivity;
+
+        LocalDate creationDate;
+
+        @Setup(Level.Trial)
+        public void computeCreationDate() {
+            creationDate = DriverFiles.createdAfterDate(selectivity);
+        }
+    }
+
+    @Benchmark
+    public List<Driver> findAll(Repository repository) {
+        return repository.repository.findAll().join();
+    }
+
+    @Benchmark
+    public List<Driver> findCreatedAfter(Repository repository, Selectivity selectivity) {
+        return repository.repository.findCreatedAfter(selectivity.creationDate).join();
+    }
+
+    @Benchmark
+    public List<Driver> findByName(Repository repository) {
+        return repository.repository.findByName(SEARCHED_NAME, SEARCH_LIMIT).join();
+    }
+}
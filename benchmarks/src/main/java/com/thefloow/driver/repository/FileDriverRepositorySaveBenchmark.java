@@ -0,0 +1,81 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves to {@link FileDriverRepository}, from one thread and from many threads sharing the writer, which
+ * shows how much group commit amortises the write and the force of each batch.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileDriverRepositorySaveBenchmark {
+
+    private static final LocalDate DATE_OF_BIRTH = LocalDate.parse("1990-12-12");
+    private static final LocalDate CREATION_DATE = LocalDate.parse("2020-03-01");
+
+    @State(Scope.Benchmark)
+    public static class Repository {
+
+        @Param({"1000", "100000", "10000000"})
+        int rows;
+
+        @Param({"true", "false"})
+        boolean fsync;
+
+        Path repositoryFile;
+        FileDriverRepository repository;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            repositoryFile = DriverFiles.writableCopy(rows);
+            WriterSettings defaults = WriterSettings.defaults();
+            repository = new FileDriverRepository(repositoryFile,
+                    new WriterSettings(defaults.getBatchSize(), 0, defaults.getQueueCapacity(), fsync),
+                    ScanMode.LINES);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            repository.close();
+            DriverFiles.delete(repositoryFile);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Driver save(Repository repository) {
+        return repository.repository.save(newDriver()).join();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Driver saveConcurrent(Repository repository) {
+        return repository.repository.save(newDriver()).join();
+    }
+
+    private static Driver newDriver() {
+        return new Driver(null, "New", "Driver", DATE_OF_BIRTH, CREATION_DATE);
+    }
+}
@@ -0,0 +1,96 @@
+package com.thefloow.driver.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time a full garbage collection takes to go through the drivers kept in memory by the in-memory scan modes,
+ * which bounds the pauses of the collections of the old generation. The heap and the direct memory retained by
+ * loading the repository are printed at the start of every trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class InMemoryScanModeHeapBenchmark {
+
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 60000;
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class Repository {
+
+        @Param({"1000000", "10000000"})
+        int rows;
+
+        @Param({"INDEX", "COLUMNAR"})
+        ScanMode scanMode;
+
+        FileDriverRepository repository;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            Path repositoryFile = DriverFiles.repositoryFile(rows);
+            long heapBefore = heapUsedAfterGc();
+            long directBefore = directMemoryUsed();
+            repository = new FileDriverRepository(repositoryFile,
+                    WriterSettings.defaults(),
+                    scanMode,
+                    Runnable::run,
+                    RepositoryMetrics.noop(),
+                    CHECKPOINT_INTERVAL_MILLIS,
+                    CacheSettings.disabled());
+            System.out.printf("%n%d rows retained by %s: %d MB of heap, %d MB of direct memory%n",
+                    rows, scanMode, (heapUsedAfterGc() - heapBefore) / MEGABYTE,
+                    (directMemoryUsed() - directBefore) / MEGABYTE);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            repository.close();
+        }
+
+        /**
+         * @return heap used right after a full collection, by the pools as they were left by the collection, as
+         * the current usage of the young generation may already count new allocations
+         */
+        private static long heapUsedAfterGc() {
+            System.gc();
+            return ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null)
+                    .mapToLong(pool -> pool.getCollectionUsage().getUsed())
+                    .sum();
+        }
+
+        private static long directMemoryUsed() {
+            return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                    .filter(pool -> pool.getName().equals("direct"))
+                    .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                    .sum();
+        }
+    }
+
+    @Benchmark
+    public void fullGc(Repository repository) {
+        System.gc();
+    }
+}
@@ -0,0 +1,49 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of one repository file record with {@link FileDriverRepository#mapToDriver(String)}, apart from
+ * any file access.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MapToDriverBenchmark {
+
+    private static final int RECORDS = 1024;
+
+    private final String[] records = new String[RECORDS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void generateRecords() {
+        Random random = new Random(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            records[i] = DriverFiles.record(i + 1, random);
+        }
+    }
+
+    @Benchmark
+    public Driver mapToDriver() {
+        next = (next + 1) & (RECORDS - 1);
+        return FileDriverRepository.mapToDriver(records[next]);
+    }
+}
@@ -0,0 +1,85 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans of the whole repository file by {@link FileDriverRepository} split between a growing number of scan
+ * threads, which show how the scan time goes down with the threads until it is bound by the disk or by the
+ * memory bandwidth. Reads run on the benchmark thread, which waits for the scan threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class ParallelScanBenchmark {
+
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 60000;
+    private static final double SELECTIVITY = 0.1;
+
+    @State(Scope.Benchmark)
+    public static class Repository {
+
+        @Param({"1000000", "10000000"})
+        int rows;
+
+        @Param({"LINES", "MAPPED"})
+        ScanMode scanMode;
+
+        @Param({"1", "2", "4", "8", "16"})
+        int parallelism;
+
+        ForkJoinPool scanPool;
+        FileDriverRepository repository;
+        LocalDate creationDate;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            scanPool = new ForkJoinPool(parallelism);
+            repository = new FileDriverRepository(DriverFiles.repositoryFile(rows),
+                    WriterSettings.defaults(),
+                    scanMode,
+                    Runnable::run,
+                    RepositoryMetrics.noop(),
+                    CHECKPOINT_INTERVAL_MILLIS,
+                    CacheSettings.disabled(),
+                    scanPool);
+            creationDate = DriverFiles.createdAfterDate(SELECTIVITY);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            repository.close();
+            scanPool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<Driver> findAll(Repository repository) {
+        return repository.repository.findAll().join();
+    }
+
+    @Benchmark
+    public List<Driver> findCreatedAfter(Repository repository) {
+        return repository.repository.findCreatedAfter(repository.creationDate).join();
+    }
+}
@@ -0,0 +1,104 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.config.VirtualThreadExecutor;
+import com.thefloow.driver.model.Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many concurrent callers waiting for reads of {@link FileDriverRepository} run on the read executor, either
+ * the bounded pool of platform threads or one virtual thread per read, as requests do. The throughput and
+ * the sampled latency percentiles, p99 included, compare both executors. The virtual executor needs Java 21
+ * or later to run.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(256)
+public class ReadExecutorBenchmark {
+
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 60000;
+    private static final int PAGE_SIZE = 100;
+
+    @State(Scope.Benchmark)
+    public static class Repository {
+
+        @Param({"100000"})
+        int rows;
+
+        @Param({"PLATFORM", "VIRTUAL"})
+        String executor;
+
+        /**
+         * Number of platform threads of the pool, as in the service configuration.
+         */
+        @Param({"16"})
+        int poolSize;
+
+        ExecutorService threadPool;
+        FileDriverRepository repository;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            Executor readExecutor;
+            if (executor.equals("VIRTUAL")) {
+                readExecutor = new VirtualThreadExecutor("benchmark-read-");
+            } else {
+                threadPool = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>());
+                readExecutor = threadPool;
+            }
+            repository = new FileDriverRepository(DriverFiles.repositoryFile(rows),
+                    WriterSettings.defaults(),
+                    ScanMode.LINES,
+                    readExecutor,
+                    RepositoryMetrics.noop(),
+                    CHECKPOINT_INTERVAL_MILLIS,
+                    CacheSettings.disabled());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            repository.close();
+            if (threadPool != null) {
+                threadPool.shutdown();
+            }
+        }
+    }
+
+    @Benchmark
+    public Optional<Driver> findById(Repository repository) {
+        int driverId = ThreadLocalRandom.current().nextInt(repository.rows) + 1;
+        return repository.repository.findById(driverId).join();
+    }
+
+    @Benchmark
+    public List<Driver> findPage(Repository repository) {
+        int afterId = ThreadLocalRandom.current().nextInt(repository.rows - PAGE_SIZE);
+        return repository.repository.findAll(afterId, PAGE_SIZE).join();
+    }
+}
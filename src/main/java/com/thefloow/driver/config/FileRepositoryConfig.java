@@ -1,11 +1,21 @@
 package com.thefloow.driver.config;
 
+import com.thefloow.driver.repository.BinaryDriverRepository;
+import com.thefloow.driver.repository.CacheSettings;
+import com.thefloow.driver.repository.IdempotencyKeys;
+import com.thefloow.driver.repository.RepositoryMetrics;
+import com.thefloow.driver.repository.WriterSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.Executor;
 
 @Configuration
 public class FileRepositoryConfig {
@@ -15,4 +25,49 @@ public class FileRepositoryConfig {
                            @Value("${repository.filename}") String repositoryFilename) {
         return Paths.get(repositoryFolderPath, repositoryFilename);
     }
+
+    @Bean
+    WriterSettings getWriterSettings(@Value("${repository.writer.batch-size}") int batchSize,
+                                     @Value("${repository.writer.max-linger-ms}") long maxLingerMillis,
+                                     @Value("${repository.writer.queue-capacity}") int queueCapacity,
+                                     @Value("${repository.writer.fsync}") boolean fsync) {
+        return new WriterSettings(batchSize, maxLingerMillis, queueCapacity, fsync);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "repository.engine", havingValue = "BINARY")
+    BinaryDriverRepository getBinaryDriverRepository(Path repositoryPath,
+                                                     WriterSettings writerSettings,
+                                                     @Value("${repository.binary-filename}") String binaryFilename,
+                                                     @Qualifier("repositoryReadExecutor") Executor readExecutor,
+                                                     RepositoryMetrics repositoryMetrics,
+                                                     CacheSettings cacheSettings) {
+        return new BinaryDriverRepository(repositoryPath.resolveSibling(binaryFilename),
+                repositoryPath,
+                writerSettings,
+                readExecutor,
+                repositoryMetrics,
+                cacheSettings);
+    }
+
+    @Bean
+    CacheSettings getCacheSettings(@Value("${repository.cache.max-entries}") int maxEntries,
+                                   @Value("${repository.cache.ttl-ms}") long ttlMillis) {
+        return new CacheSettings(maxEntries, ttlMillis);
+    }
+
+    @Bean(destroyMethod = "close")
+    IdempotencyKeys getIdempotencyKeys(Path repositoryPath,
+                                       @Value("${repository.idempotency.max-entries}") int maxEntries,
+                                       @Value("${repository.idempotency.window-ms}") long windowMillis)
+            throws IOException {
+        return new IdempotencyKeys(repositoryPath.resolveSibling(repositoryPath.getFileName() + ".keys"),
+                maxEntries,
+                windowMillis);
+    }
+
+    @Bean
+    RepositoryMetrics getRepositoryMetrics(MeterRegistry meterRegistry) {
+        return new RepositoryMetrics(meterRegistry);
+    }
 }
@@ -0,0 +1,114 @@
+package com.thefloow.driver.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Thread pool running the blocking reads of the repository file, kept apart from the common ForkJoinPool.
+ * Its queue is bounded and a read submitted while it is full is rejected, which is answered with a 503.
+ * Writes are run by the single thread and bounded queue of the repository writer.
+ * <p>
+ * With virtual threads enabled, every read runs on its own virtual thread instead, and a read is rejected
+ * while as many reads as the pool and its queue can hold are running.
+ * <p>
+ * Reads of the whole repository file are split between the threads of a separate fork/join pool, which has
+ * as many threads as there are processors unless its parallelism is set.
+ * <p>
+ * The idempotency keys of the stored drivers are journaled by a single thread of their own, with a bounded
+ * queue too, or on virtual threads as many at once as that queue holds.
+ */
+@Configuration
+public class RepositoryExecutorConfig {
+
+    private static final String THREAD_NAME_PREFIX = "repository-read-";
+    private static final String SCAN_THREAD_NAME_PREFIX = "repository-scan-";
+    private static final String KEY_WRITE_THREAD_NAME_PREFIX = "idempotency-key-writer-";
+
+    private final ThreadPoolTaskExecutor readThreadPool;
+    private final VirtualThreadExecutor readVirtualThreads;
+    private final AsyncTaskExecutor repositoryReadExecutor;
+    private final AsyncTaskExecutor idempotencyKeyWriteExecutor;
+    private final int scanParallelism;
+
+    /**
+     * @param scanParallelism       threads of the pool scanning the repository file, or 0 for one per processor
+     * @param keyWriteQueueCapacity idempotency keys waiting to be journaled before new ones are rejected
+     */
+    public RepositoryExecutorConfig(@Value("${repository.executor.read.pool-size}") int poolSize,
+                                    @Value("${repository.executor.read.queue-capacity}") int queueCapacity,
+                                    @Value("${spring.threads.virtual.enabled}") boolean virtualThreads,
+                                    @Value("${repository.executor.scan.parallelism}") int scanParallelism,
+                                    @Value("${repository.executor.idempotency-keys.queue-capacity}")
+                                            int keyWriteQueueCapacity) {
+        this.scanParallelism = scanParallelism > 0 ? scanParallelism : Runtime.getRuntime().availableProcessors();
+        if (virtualThreads) {
+            this.readThreadPool = null;
+            this.readVirtualThreads = new VirtualThreadExecutor(THREAD_NAME_PREFIX, poolSize + queueCapacity);
+            this.repositoryReadExecutor = new ConcurrentTaskExecutor(readVirtualThreads);
+            this.idempotencyKeyWriteExecutor = new ConcurrentTaskExecutor(
+                    new VirtualThreadExecutor(KEY_WRITE_THREAD_NAME_PREFIX, 1 + keyWriteQueueCapacity));
+        } else {
+            this.readThreadPool = new ThreadPoolTaskExecutor();
+            this.readThreadPool.setCorePoolSize(poolSize);
+            this.readThreadPool.setMaxPoolSize(poolSize);
+            this.readThreadPool.setQueueCapacity(queueCapacity);
+            this.readThreadPool.setThreadNamePrefix(THREAD_NAME_PREFIX);
+            this.readVirtualThreads = null;
+            this.repositoryReadExecutor = readThreadPool;
+            ThreadPoolTaskExecutor keyWriteThread = new ThreadPoolTaskExecutor();
+            keyWriteThread.setCorePoolSize(1);
+            keyWriteThread.setMaxPoolSize(1);
+            keyWriteThread.setQueueCapacity(keyWriteQueueCapacity);
+            keyWriteThread.setThreadNamePrefix(KEY_WRITE_THREAD_NAME_PREFIX);
+            this.idempotencyKeyWriteExecutor = keyWriteThread;
+        }
+    }
+
+    @Bean
+    AsyncTaskExecutor repositoryReadExecutor() {
+        return repositoryReadExecutor;
+    }
+
+    @Bean
+    AsyncTaskExecutor idempotencyKeyWriteExecutor() {
+        return idempotencyKeyWriteExecutor;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    ForkJoinPool repositoryScanPool() {
+        return new ForkJoinPool(scanParallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(SCAN_THREAD_NAME_PREFIX + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    @Bean
+    MeterBinder repositoryReadExecutorMetrics() {
+        return registry -> {
+            Gauge.builder("repository.executor.queue.size", this, RepositoryExecutorConfig::queueSize)
+                    .description("Repository reads waiting for a thread")
+                    .register(registry);
+            Gauge.builder("repository.executor.active", this, RepositoryExecutorConfig::activeCount)
+                    .description("Repository reads running")
+                    .register(registry);
+        };
+    }
+
+    private int queueSize() {
+        return readThreadPool == null ? 0 : readThreadPool.getThreadPoolExecutor().getQueue().size();
+    }
+
+    private int activeCount() {
+        return readThreadPool == null ? readVirtualThreads.getActiveCount() : readThreadPool.getActiveCount();
+    }
+}
@@ -8,10 +8,12 @@ import springfox.documentation.service.ApiInfo;
 import springfox.documentation.service.Tag;
 import springfox.documentation.spi.DocumentationType;
 import springfox.documentation.spring.web.plugins.Docket;
+import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
 import java.util.concurrent.CompletableFuture;
 
 @Configuration
+@EnableSwagger2
 public class SwaggerConfig {
 
     @Bean
@@ -20,7 +22,7 @@ public class SwaggerConfig {
                 .apiInfo(createApiInfo())
                 .useDefaultResponseMessages(false)
                 .select()
-                .paths(PathSelectors.regex("/drivers.*|/driver/create"))
+                .paths(PathSelectors.regex("/drivers.*|/driver/.*"))
                 .build()
                 .tags(
                         new Tag("drivers", "")
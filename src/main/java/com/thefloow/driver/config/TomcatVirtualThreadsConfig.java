@@ -0,0 +1,24 @@
+package com.thefloow.driver.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Handles the requests on virtual threads instead of the Tomcat thread pool, so a request waiting for the
+ * repository does not hold a platform thread. It is enabled by the same property as in Spring Boot 3.2.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class TomcatVirtualThreadsConfig {
+
+    private static final String THREAD_NAME_PREFIX = "tomcat-handler-";
+
+    @Bean
+    WebServerFactoryCustomizer<TomcatServletWebServerFactory> tomcatVirtualThreadsCustomizer() {
+        return factory -> factory.addProtocolHandlerCustomizers(protocolHandler ->
+                protocolHandler.setExecutor(new VirtualThreadExecutor(THREAD_NAME_PREFIX)));
+    }
+}
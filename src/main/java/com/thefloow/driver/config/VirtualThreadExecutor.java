@@ -0,0 +1,84 @@
+package com.thefloow.driver.config;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs every task on a new virtual thread, rejecting a task submitted while the maximum number of tasks
+ * are running. Virtual threads are created by reflection, so the service still builds for Java 8 and only
+ * needs Java 21 or later to run with them.
+ */
+public class VirtualThreadExecutor implements Executor {
+
+    private final ThreadFactory threadFactory;
+    private final int maxTasks;
+    private final Semaphore permits;
+
+    /**
+     * @param threadNamePrefix prefix of the names of the threads, followed by their number
+     */
+    public VirtualThreadExecutor(String threadNamePrefix) {
+        this(threadNamePrefix, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param threadNamePrefix prefix of the names of the threads, followed by their number
+     * @param maxTasks         maximum number of tasks running at once
+     */
+    public VirtualThreadExecutor(String threadNamePrefix, int maxTasks) {
+        this.threadFactory = virtualThreadFactory(threadNamePrefix);
+        this.maxTasks = maxTasks;
+        this.permits = new Semaphore(maxTasks);
+    }
+
+    /**
+     * @return whether the running Java version provides virtual threads
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Maximum number of running tasks reached");
+        }
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            }).start();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of tasks running
+     */
+    public int getActiveCount() {
+        return maxTasks - permits.availablePermits();
+    }
+
+    private static ThreadFactory virtualThreadFactory(String threadNamePrefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later", e);
+        }
+    }
+}
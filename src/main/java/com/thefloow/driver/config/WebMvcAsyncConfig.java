@@ -0,0 +1,26 @@
+package com.thefloow.driver.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Streamed responses read the repository file while they are written, so they run on the executor of the
+ * repository reads.
+ */
+@Configuration
+public class WebMvcAsyncConfig implements WebMvcConfigurer {
+
+    private final AsyncTaskExecutor repositoryReadExecutor;
+
+    public WebMvcAsyncConfig(@Qualifier("repositoryReadExecutor") AsyncTaskExecutor repositoryReadExecutor) {
+        this.repositoryReadExecutor = repositoryReadExecutor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(repositoryReadExecutor);
+    }
+}
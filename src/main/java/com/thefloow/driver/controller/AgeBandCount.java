@@ -0,0 +1,33 @@
+package com.thefloow.driver.controller;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Number of drivers whose age is from the minimum age, inclusive, to the maximum age, exclusive. The youngest
+ * band has no minimum age and the oldest no maximum age.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AgeBandCount {
+
+    private final Integer minAge;
+    private final Integer maxAge;
+    private final long count;
+
+    public AgeBandCount(Integer minAge, Integer maxAge, long count) {
+        this.minAge = minAge;
+        this.maxAge = maxAge;
+        this.count = count;
+    }
+
+    public Integer getMinAge() {
+        return minAge;
+    }
+
+    public Integer getMaxAge() {
+        return maxAge;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,65 @@
+package com.thefloow.driver.controller;
+
+import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.DriverRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Stores the valid drivers of a bulk import at once and reports the result of each driver of the import. A driver
+ * the repository cannot store, such as one whose names do not fit its records, is reported as invalid as well.
+ */
+@Component
+public class DriverBatchImporter {
+
+    private final DriverRepository driverRepository;
+    private final Validator validator;
+
+    @Autowired
+    public DriverBatchImporter(DriverRepository driverRepository, Validator validator) {
+        this.driverRepository = driverRepository;
+        this.validator = validator;
+    }
+
+    /**
+     * @return future completed with the result of each driver, in the order given, once the valid ones are stored
+     */
+    public CompletableFuture<List<DriverImportResult>> importDrivers(List<Driver> drivers) {
+        DriverImportResult[] results = new DriverImportResult[drivers.size()];
+        List<Integer> validIndexes = new ArrayList<>();
+        List<Driver> validDrivers = new ArrayList<>();
+        for (int i = 0; i < drivers.size(); i++) {
+            Set<ConstraintViolation<Driver>> violations = validator.validate(drivers.get(i));
+            if (!violations.isEmpty()) {
+                results[i] = DriverImportResult.invalid(i, violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining(", ")));
+                continue;
+            }
+            Optional<String> unstorable = driverRepository.checkStorable(drivers.get(i));
+            if (unstorable.isPresent()) {
+                results[i] = DriverImportResult.invalid(i, unstorable.get());
+            } else {
+                validIndexes.add(i);
+                validDrivers.add(drivers.get(i));
+            }
+        }
+        return driverRepository.saveAll(validDrivers).thenApply(stored -> {
+            for (int i = 0; i < stored.size(); i++) {
+                results[validIndexes.get(i)] = DriverImportResult.created(validIndexes.get(i), stored.get(i));
+            }
+            return Arrays.asList(results);
+        });
+    }
+}
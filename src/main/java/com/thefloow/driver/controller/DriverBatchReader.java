@@ -0,0 +1,54 @@
+package com.thefloow.driver.controller;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the drivers of a bulk import one at a time from the request body, which holds either a JSON array
+ * of drivers or one JSON driver per line.
+ */
+@Component
+public class DriverBatchReader {
+
+    public static final int MAX_BATCH_SIZE = 10000;
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public DriverBatchReader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return drivers of the request body, in the order they are found
+     * @throws ServiceException if the body is malformed or holds more than {@link #MAX_BATCH_SIZE} drivers
+     */
+    public List<Driver> read(InputStream body) {
+        List<Driver> drivers = new ArrayList<>();
+        try (MappingIterator<Driver> iterator = objectMapper.readerFor(Driver.class).readValues(body)) {
+            while (drivers.size() <= MAX_BATCH_SIZE && iterator.hasNextValue()) {
+                drivers.add(iterator.nextValue());
+            }
+        } catch (IOException e) {
+            throw invalidInput();
+        }
+        if (drivers.size() > MAX_BATCH_SIZE) {
+            throw invalidInput();
+        }
+        return drivers;
+    }
+
+    private static ServiceException invalidInput() {
+        return new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+    }
+}
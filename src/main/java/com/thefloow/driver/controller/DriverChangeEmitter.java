@@ -0,0 +1,226 @@
+package com.thefloow.driver.controller;
+
+import com.thefloow.driver.config.VirtualThreadExecutor;
+import com.thefloow.driver.controller.DriverChangeFeed.DriverChange;
+import com.thefloow.driver.controller.DriverChangeFeed.Subscription;
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.DriverRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.thefloow.driver.controller.DriverListResponses.APPLICATION_NDJSON;
+
+/**
+ * Writes the change feed to the servlet responses following it from a small pool of threads shared by all of
+ * them, rather than a thread per response. The feed and the heartbeats only signal that a response may be
+ * written to, and a single drain at a time per response runs on the pool: it replays the drivers stored after
+ * the id the client resumes from, then writes the changes pending at once. A client too slow to keep up reads
+ * the drivers it missed from the repository once it lags behind the feed.
+ * <p>
+ * A drain writing to a client whose connection is full holds its thread until the write goes through, so the
+ * pool has a few threads. With virtual threads enabled, drains run on virtual threads instead.
+ */
+@Component
+public class DriverChangeEmitter implements DisposableBean {
+
+    private static final String THREAD_NAME_PREFIX = "driver-changes-";
+    private static final int REPLAY_PAGE_SIZE = 1000;
+    private static final int MAX_CHANGES_PER_WRITE = 64;
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final DriverRepository driverRepository;
+    private final DriverChangeFeed changeFeed;
+    private final long timeoutMillis;
+    private final long heartbeatMillis;
+    private final ScheduledExecutorService threadPool;
+    private final Executor executor;
+
+    @Autowired
+    public DriverChangeEmitter(DriverRepository driverRepository,
+                               DriverChangeFeed changeFeed,
+                               @Value("${controller.changes.timeout-ms}") long timeoutMillis,
+                               @Value("${controller.changes.heartbeat-ms}") long heartbeatMillis,
+                               @Value("${controller.changes.threads}") int threads,
+                               @Value("${spring.threads.virtual.enabled}") boolean virtualThreads) {
+        this.driverRepository = driverRepository;
+        this.changeFeed = changeFeed;
+        this.timeoutMillis = timeoutMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.threadPool = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor = virtualThreads ? new VirtualThreadExecutor(THREAD_NAME_PREFIX) : threadPool;
+    }
+
+    /**
+     * @param afterId id of the last driver the client received, or {@link DriverChangeFeed#LIVE_ONLY}
+     * @param ndjson  whether the drivers are written as NDJSON rather than as server-sent events
+     * @return emitter writing the drivers stored after the given one, then every driver stored from now on
+     */
+    public ResponseBodyEmitter follow(int afterId, boolean ndjson) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeoutMillis);
+        FollowedChanges followed = new FollowedChanges(emitter, afterId, ndjson);
+        followed.subscription = changeFeed.subscribe(followed::signal);
+        emitter.onCompletion(followed::close);
+        emitter.onTimeout(followed::close);
+        emitter.onError(failure -> followed.close());
+        try {
+            followed.start();
+        } catch (RejectedExecutionException e) {
+            followed.close();
+            throw new ServiceException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "service.unavailable",
+                    "Too many change feed subscribers");
+        }
+        return emitter;
+    }
+
+    @Override
+    public void destroy() {
+        threadPool.shutdownNow();
+    }
+
+    /**
+     * Writes the stored drivers after the given id one page at a time, up to the last one stored, which the
+     * changes pending in the subscription are skipped up to.
+     */
+    private void replay(ResponseBodyEmitter emitter, Subscription subscription, int afterId, boolean ndjson)
+            throws IOException {
+        subscription.skipTo(afterId);
+        List<Driver> page;
+        do {
+            page = driverRepository.findAll(subscription.getLastId(), REPLAY_PAGE_SIZE).join();
+            if (page.isEmpty() || subscription.isClosed()) {
+                return;
+            }
+            ByteArrayOutputStream drivers = new ByteArrayOutputStream();
+            for (Driver driver : page) {
+                write(drivers, changeFeed.encode(driver), ndjson);
+            }
+            send(emitter, drivers.toByteArray(), ndjson);
+            subscription.skipTo(page.get(page.size() - 1).getId());
+        } while (page.size() == REPLAY_PAGE_SIZE);
+    }
+
+    private static void write(ByteArrayOutputStream target, DriverChange change, boolean ndjson) {
+        byte[] bytes = ndjson ? change.getNdjson() : change.getEvent();
+        target.write(bytes, 0, bytes.length);
+    }
+
+    private static void send(ResponseBodyEmitter emitter, byte[] bytes, boolean ndjson) throws IOException {
+        emitter.send(bytes, ndjson ? APPLICATION_NDJSON : MediaType.TEXT_EVENT_STREAM);
+    }
+
+    /**
+     * Changes followed by one response, written by a single drain at a time on the shared threads.
+     */
+    private class FollowedChanges {
+        private final ResponseBodyEmitter emitter;
+        private final boolean ndjson;
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private volatile Subscription subscription;
+        private volatile ScheduledFuture<?> heartbeats;
+        private volatile boolean heartbeatDue;
+        private int replayAfterId;
+
+        private FollowedChanges(ResponseBodyEmitter emitter, int afterId, boolean ndjson) {
+            this.emitter = emitter;
+            this.replayAfterId = afterId;
+            this.ndjson = ndjson;
+        }
+
+        private void start() {
+            if (!ndjson) {
+                heartbeats = threadPool.scheduleAtFixedRate(() -> {
+                    heartbeatDue = true;
+                    signal();
+                }, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+            }
+            signal();
+        }
+
+        private void signal() {
+            if (pendingSignals.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                // the feed may signal before the subscription it returns is set, which is drained once set
+                if (subscription != null && !subscription.isClosed()) {
+                    try {
+                        emit();
+                    } catch (IOException | RuntimeException e) {
+                        close();
+                        emitter.completeWithError(e);
+                    }
+                }
+                missed = pendingSignals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() throws IOException {
+            if (replayAfterId != DriverChangeFeed.LIVE_ONLY) {
+                replay(emitter, subscription, replayAfterId, ndjson);
+                replayAfterId = DriverChangeFeed.LIVE_ONLY;
+            }
+            boolean sent = false;
+            while (!subscription.isClosed()) {
+                boolean lagging = subscription.isLagging();
+                DriverChange change = subscription.poll();
+                if (change == null) {
+                    if (!lagging) {
+                        break;
+                    }
+                    subscription.resume();
+                    replay(emitter, subscription, subscription.getLastId(), ndjson);
+                    continue;
+                }
+                ByteArrayOutputStream pending = new ByteArrayOutputStream();
+                int written = 0;
+                do {
+                    write(pending, change, ndjson);
+                    written++;
+                } while (written < MAX_CHANGES_PER_WRITE && (change = subscription.poll()) != null);
+                send(emitter, pending.toByteArray(), ndjson);
+                sent = true;
+            }
+            if (heartbeatDue) {
+                heartbeatDue = false;
+                if (!sent) {
+                    send(emitter, HEARTBEAT, false);
+                }
+            }
+        }
+
+        private void close() {
+            subscription.close();
+            if (heartbeats != null) {
+                heartbeats.cancel(false);
+            }
+        }
+    }
+}
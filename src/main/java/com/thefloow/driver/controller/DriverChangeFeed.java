@@ -0,0 +1,285 @@
+package com.thefloow.driver.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.DriverRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feed of the drivers created, pushed to its subscribers as soon as they are stored. Every driver is encoded
+ * once whatever the number of subscribers, and handed to each of them through a bounded queue, so storing
+ * drivers never waits for a subscriber. A subscriber whose queue is full has fallen too far behind: it stops
+ * getting changes, reads the drivers it missed from the repository at its own pace, and resumes the feed
+ * once it has caught up.
+ */
+@Component
+public class DriverChangeFeed {
+
+    /**
+     * Id to resume after when the subscriber only follows the drivers created from now on.
+     */
+    static final int LIVE_ONLY = -1;
+
+    private final ObjectMapper objectMapper;
+    private final int maxSubscribers;
+    private final int subscriberBuffer;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public DriverChangeFeed(DriverRepository driverRepository,
+                            ObjectMapper objectMapper,
+                            @Value("${controller.changes.max-subscribers}") int maxSubscribers,
+                            @Value("${controller.changes.subscriber-buffer}") int subscriberBuffer) {
+        this.objectMapper = objectMapper;
+        this.maxSubscribers = maxSubscribers;
+        this.subscriberBuffer = subscriberBuffer;
+        driverRepository.addSaveListener(this::publish);
+    }
+
+    /**
+     * @param afterId     id given in the query to resume after, if any
+     * @param lastEventId id of the last event received, sent back by a reconnecting event source, if any,
+     *                    which takes precedence over the query
+     * @return id of the last driver already received, or {@link #LIVE_ONLY} to only follow new drivers
+     */
+    static int resumeAfterId(Integer afterId, String lastEventId) {
+        try {
+            int resumeId = lastEventId != null ? Integer.parseInt(lastEventId.trim())
+                    : afterId != null ? afterId
+                    : LIVE_ONLY;
+            if (resumeId >= LIVE_ONLY) {
+                return resumeId;
+            }
+        } catch (NumberFormatException e) {
+            // reported below as any other invalid id
+        }
+        throw new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+    }
+
+    /**
+     * Subscribes to the drivers created from now on. Drivers stored before are read from the repository.
+     *
+     * @param listener called whenever changes are added to the subscription or it is dropped, on the thread
+     *                 storing the drivers, so it must not block
+     */
+    public Subscription subscribe(Runnable listener) {
+        Subscription subscription = new Subscription(subscriberBuffer, listener);
+        synchronized (subscriptions) {
+            if (subscriptions.size() >= maxSubscribers) {
+                throw new ServiceException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "service.unavailable",
+                        "Too many change feed subscribers");
+            }
+            subscriptions.add(subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * @return number of subscribers following the feed
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Encodes a driver read from the repository as a change, to replay it to a resuming subscriber.
+     */
+    public DriverChange encode(Driver driver) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(driver);
+        } catch (JsonProcessingException e) {
+            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error writing drivers");
+        }
+        return new DriverChange(driver.getId(), json);
+    }
+
+    /**
+     * Hands the stored drivers to every subscriber which is not lagging behind.
+     */
+    void publish(List<Driver> drivers) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        List<DriverChange> changes = new ArrayList<>(drivers.size());
+        for (Driver driver : drivers) {
+            changes.add(encode(driver));
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(changes);
+            try {
+                subscription.listener.run();
+            } catch (RuntimeException e) {
+                // the subscriber reads the changes on its next poll, a failing listener must not stop the others
+            }
+        }
+    }
+
+    /**
+     * Driver created, encoded once in every format of the feed.
+     */
+    public static class DriverChange {
+        private final int id;
+        private final byte[] event;
+        private final byte[] ndjson;
+
+        private DriverChange(int id, byte[] json) {
+            this.id = id;
+            this.event = concat(("id: " + id + "\nevent: driver\ndata: ").getBytes(StandardCharsets.UTF_8), json,
+                    "\n\n".getBytes(StandardCharsets.UTF_8));
+            this.ndjson = concat(json, "\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return the driver as a server-sent event, identified by the id of the driver
+         */
+        public byte[] getEvent() {
+            return event;
+        }
+
+        /**
+         * @return the driver as one line of NDJSON
+         */
+        public byte[] getNdjson() {
+            return ndjson;
+        }
+
+        private static byte[] concat(byte[]... parts) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (byte[] part : parts) {
+                bytes.write(part, 0, part.length);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Changes pending for one subscriber, read by a single thread at a time.
+     * <p>
+     * Changes published while the subscriber lags behind are left out. Once it has read the pending ones, it
+     * resumes the subscription, then reads the drivers stored after {@link #getLastId()} from the repository,
+     * which hold the ones left out, and skips their changes.
+     */
+    public class Subscription implements AutoCloseable {
+        private final BlockingQueue<DriverChange> changes;
+        private final Runnable listener;
+        private volatile boolean lagging;
+        private volatile boolean closed;
+        private int lastId = LIVE_ONLY;
+
+        private Subscription(int capacity, Runnable listener) {
+            this.changes = new ArrayBlockingQueue<>(capacity);
+            this.listener = listener;
+        }
+
+        /**
+         * Skips the changes of the drivers up to the given id, which were read from the repository.
+         */
+        public void skipTo(int driverId) {
+            lastId = Math.max(lastId, driverId);
+        }
+
+        /**
+         * @return id of the last driver polled or skipped, or {@link #LIVE_ONLY} if there is none
+         */
+        public int getLastId() {
+            return lastId;
+        }
+
+        /**
+         * @return next change, or null if there is none yet
+         */
+        public DriverChange poll() {
+            DriverChange change;
+            do {
+                change = changes.poll();
+            } while (change != null && change.id <= lastId);
+            return next(change);
+        }
+
+        /**
+         * @return next change, or null if there is none within the given time
+         */
+        public DriverChange poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            DriverChange change;
+            do {
+                change = changes.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } while (change != null && change.id <= lastId);
+            return next(change);
+        }
+
+        /**
+         * @return whether changes were left out as the queue of the subscriber was full, in which case the
+         * changes still pending are followed by none until it is resumed
+         */
+        public boolean isLagging() {
+            return lagging;
+        }
+
+        /**
+         * Gets the changes published from now on again, once the pending ones are read.
+         */
+        public void resume() {
+            lagging = false;
+        }
+
+        /**
+         * @return whether the subscriber stopped following the feed
+         */
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+        }
+
+        private DriverChange next(DriverChange change) {
+            if (change != null) {
+                lastId = change.id;
+            }
+            return change;
+        }
+
+        /**
+         * Adds the published changes that fit in the queue, the subscriber lagging behind if some do not. The
+         * queue is then never empty when it starts lagging, so a subscriber waiting for changes wakes up.
+         */
+        private void offer(List<DriverChange> published) {
+            if (lagging) {
+                return;
+            }
+            for (DriverChange change : published) {
+                if (!changes.offer(change)) {
+                    lagging = true;
+                    return;
+                }
+            }
+        }
+    }
+}
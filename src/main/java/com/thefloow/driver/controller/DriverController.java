@@ -1,17 +1,33 @@
 package com.thefloow.driver.controller;
 
+import com.thefloow.driver.controller.error.ServiceException;
 import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.CreationPeriod;
 import com.thefloow.driver.repository.DriverRepository;
 import io.swagger.annotations.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.validation.Valid;
+import java.io.InputStream;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static com.thefloow.driver.controller.DriverListResponses.APPLICATION_NDJSON;
+import static com.thefloow.driver.controller.DriverListResponses.APPLICATION_NDJSON_VALUE;
 
 @RestController
 @RequestMapping(produces = MediaType.APPLICATION_JSON_VALUE)
@@ -19,38 +35,238 @@ import java.util.concurrent.CompletableFuture;
 public class DriverController {
 
     private final DriverRepository driverRepository;
+    private final DriverJsonStreamer driverJsonStreamer;
+    private final DriverBatchReader driverBatchReader;
+    private final DriverBatchImporter driverBatchImporter;
+    private final DriverResponseCache responseCache;
+    private final DriverChangeEmitter changeEmitter;
+    private final IdempotentDriverSaver idempotentSaver;
 
     @Autowired
-    public DriverController(DriverRepository driverRepository) {
+    public DriverController(DriverRepository driverRepository,
+                            DriverJsonStreamer driverJsonStreamer,
+                            DriverBatchReader driverBatchReader,
+                            DriverBatchImporter driverBatchImporter,
+                            DriverResponseCache responseCache,
+                            DriverChangeEmitter changeEmitter,
+                            IdempotentDriverSaver idempotentSaver) {
         this.driverRepository = driverRepository;
+        this.driverJsonStreamer = driverJsonStreamer;
+        this.driverBatchReader = driverBatchReader;
+        this.driverBatchImporter = driverBatchImporter;
+        this.responseCache = responseCache;
+        this.changeEmitter = changeEmitter;
+        this.idempotentSaver = idempotentSaver;
+    }
+
+    @GetMapping(value = "/drivers", produces = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    @ApiOperation("Provides a list of all existing drivers, streamed as a JSON array or as NDJSON")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Success", response = Driver.class, responseContainer = "List"),
+            @ApiResponse(code = 304, message = "Drivers not modified since the given ETag")
+    })
+    public ResponseEntity<StreamingResponseBody> findAll(@RequestHeader(value = HttpHeaders.ACCEPT, required = false)
+                                                                 String accept,
+                                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                                 required = false) String ifNoneMatch) {
+        return streamDrivers("/drivers", driverRepository::streamAll, accept, ifNoneMatch);
+    }
+
+    @GetMapping(value = "/drivers/byDate", produces = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    @ApiOperation("Provides a list of all existing drivers created after certain date, streamed as a JSON array or as NDJSON")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Success", response = Driver.class, responseContainer = "List"),
+            @ApiResponse(code = 304, message = "Drivers not modified since the given ETag")
+    })
+    public ResponseEntity<StreamingResponseBody> findDriversCreatedAfterDate(@RequestParam("date")
+                                                      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                                      @RequestHeader(value = HttpHeaders.ACCEPT, required = false)
+                                                              String accept,
+                                                      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                              required = false) String ifNoneMatch) {
+        return streamDrivers("/drivers/byDate?date=" + date, () -> driverRepository.streamCreatedAfter(date),
+                accept, ifNoneMatch);
+    }
+
+    @GetMapping(value = "/drivers/changes", produces = {MediaType.TEXT_EVENT_STREAM_VALUE, APPLICATION_NDJSON_VALUE})
+    @ApiOperation("Follows the drivers created, pushed as server-sent events or as NDJSON as soon as they are stored, "
+            + "after replaying the ones stored after the given id or the last event received")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Success", response = Driver.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Invalid id to resume after"),
+            @ApiResponse(code = 503, message = "Too many change feed subscribers")
+    })
+    public ResponseEntity<ResponseBodyEmitter> followChanges(@RequestParam(value = "afterId", required = false)
+                                                                     Integer afterId,
+                                                             @RequestHeader(value = "Last-Event-ID",
+                                                                     required = false) String lastEventId,
+                                                             @RequestHeader(value = HttpHeaders.ACCEPT,
+                                                                     required = false) String accept) {
+        int resumeAfterId = DriverChangeFeed.resumeAfterId(afterId, lastEventId);
+        boolean ndjson = DriverListResponses.acceptsNdjson(accept, MediaType.TEXT_EVENT_STREAM);
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .contentType(ndjson ? APPLICATION_NDJSON : MediaType.TEXT_EVENT_STREAM)
+                .body(changeEmitter.follow(resumeAfterId, ndjson));
+    }
+
+    @GetMapping("/driver/{id}")
+    @ApiOperation("Provides the driver of the given id")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Success", response = Driver.class),
+            @ApiResponse(code = 404, message = "Driver not found")
+    })
+    public CompletableFuture<Driver> findById(@PathVariable("id") int id) {
+        return driverRepository.findById(id)
+                .thenApply(driver -> driver.orElseThrow(() ->
+                        new ServiceException(HttpStatus.NOT_FOUND, "not.found", "Driver not found")));
     }
 
-    @GetMapping("/drivers")
-    @ApiOperation("Provides a list of all existing drivers")
+    @GetMapping("/drivers/search")
+    @ApiOperation("Finds the drivers whose first or last name starts with the given name, regardless of case and accents")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Success", response = Driver.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Missing name or limit out of 1 to 100")
+    })
+    public CompletableFuture<List<Driver>> findByName(@RequestParam(value = "name", required = false) String name,
+                                                      @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        return driverRepository.findByName(DriverListResponses.validSearchName(name),
+                DriverListResponses.validSearchLimit(limit));
+    }
+
+    @GetMapping("/drivers/count")
+    @ApiOperation("Counts the drivers created after certain date, or all the drivers without date")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Success", response = DriverCount.class)
+    })
+    public CompletableFuture<DriverCount> countCreatedAfterDate(@RequestParam(value = "createdAfter", required = false)
+                                                                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                                                                        LocalDate createdAfter) {
+        return driverRepository.countCreatedAfter(createdAfter != null ? createdAfter : LocalDate.MIN)
+                .thenApply(DriverCount::new);
+    }
+
+    @GetMapping("/drivers/count/byCreation")
+    @ApiOperation("Counts the drivers created in every day or month after certain date, or in all of them without date")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Success", response = PeriodCount.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Period neither DAY nor MONTH")
+    })
+    public CompletableFuture<List<PeriodCount>> countByCreationPeriod(@RequestParam(value = "period",
+                                                                              defaultValue = "DAY") String period,
+                                                                      @RequestParam(value = "createdAfter",
+                                                                              required = false)
+                                                                      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                                                                              LocalDate createdAfter) {
+        CreationPeriod creationPeriod = DriverCountResponses.validPeriod(period);
+        return driverRepository.countCreatedByPeriod(createdAfter != null ? createdAfter : LocalDate.MIN,
+                creationPeriod).thenApply(counts -> DriverCountResponses.periodCounts(counts, creationPeriod));
+    }
+
+    @GetMapping("/drivers/count/byAge")
+    @ApiOperation("Counts the drivers of every age band today, bands starting at the given increasing ages")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Success", response = AgeBandCount.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Ages not increasing from 0 to 150")
+    })
+    public CompletableFuture<List<AgeBandCount>> countByAge(@RequestParam(value = "bands",
+            defaultValue = DriverCountResponses.DEFAULT_AGE_BANDS) int[] bands) {
+        int[] ageBoundaries = DriverCountResponses.validAgeBoundaries(bands);
+        return driverRepository.countByAge(LocalDate.now(), ageBoundaries)
+                .thenApply(counts -> DriverCountResponses.ageBandCounts(ageBoundaries, counts));
+    }
+
+    @GetMapping(value = "/drivers", params = "limit")
+    @ApiOperation("Provides one page of existing drivers ordered by id, with a Link header to the next page")
     @ApiResponses({
             @ApiResponse(code = 200, message = "Success", response = Driver.class, responseContainer = "List")
     })
-    public CompletableFuture<List<Driver>> findAll() {
-        return driverRepository.findAll();
+    public CompletableFuture<ResponseEntity<List<Driver>>> findPage(@RequestParam("limit") int limit,
+                                                                    @RequestParam(value = "after", required = false)
+                                                                            String after) {
+        int afterId = DriverCursor.decode(after);
+        UriComponentsBuilder nextPageUri = ServletUriComponentsBuilder.fromCurrentRequest();
+        return driverRepository.findAll(afterId, DriverListResponses.validPageLimit(limit))
+                .thenApply(drivers -> DriverListResponses.page(drivers, limit, nextPageUri));
     }
 
-    @GetMapping("/drivers/byDate")
-    @ApiOperation("Provides a list of all existing drivers created after certain date")
+    @GetMapping(value = "/drivers/byDate", params = "limit")
+    @ApiOperation("Provides one page of drivers created after certain date ordered by id, with a Link header to the next page")
     @ApiResponses({
             @ApiResponse(code = 200, message = "Success", response = Driver.class, responseContainer = "List")
     })
-    public CompletableFuture<List<Driver>> findDriversCreatedAfterDate(@RequestParam("date")
-                                                      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
-        return driverRepository.findCreatedAfter(date);
+    public CompletableFuture<ResponseEntity<List<Driver>>> findPageCreatedAfterDate(@RequestParam("date")
+                                                      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                                      @RequestParam("limit") int limit,
+                                                      @RequestParam(value = "after", required = false) String after) {
+        int afterId = DriverCursor.decode(after);
+        UriComponentsBuilder nextPageUri = ServletUriComponentsBuilder.fromCurrentRequest();
+        return driverRepository.findCreatedAfter(date, afterId, DriverListResponses.validPageLimit(limit))
+                .thenApply(drivers -> DriverListResponses.page(drivers, limit, nextPageUri));
     }
 
     @PostMapping("/driver/create")
-    @ApiOperation("Creates and stores a new driver")
+    @ApiOperation("Creates and stores a new driver, or provides the driver already created with the same idempotency key")
     @ApiResponses({
-            @ApiResponse(code = 200, message = "Success", response = Driver.class)
+            @ApiResponse(code = 200, message = "Success", response = Driver.class),
+            @ApiResponse(code = 400, message = "Invalid driver or idempotency key")
     })
-    public CompletableFuture<Driver> createDriver(@Valid @RequestBody Driver driver) {
+    public CompletableFuture<Driver> createDriver(@Valid @RequestBody Driver driver,
+                                                  @RequestHeader(value = "Idempotency-Key", required = false)
+                                                          String idempotencyKey) {
+
+        return idempotentSaver.save(driver, idempotencyKey).whenComplete((stored, failure) -> responseCache.clear());
+    }
+
+    @PostMapping(value = "/drivers/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    @ApiOperation("Creates and stores the drivers of a JSON array or of NDJSON, reporting the result of each of them")
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Success", response = DriverImportResult.class, responseContainer = "List")
+    })
+    public CompletableFuture<List<DriverImportResult>> importDrivers(InputStream body) {
+        List<Driver> drivers = driverBatchReader.read(body);
+        return driverBatchImporter.importDrivers(drivers).thenApply(results -> {
+            responseCache.clear();
+            return results;
+        });
+    }
 
-        return driverRepository.save(driver);
+    /**
+     * Builds a list response tagged with the version of the repository. A request whose If-None-Match header
+     * holds the current tag gets a 304 response, and a body cached for the query at the current version is
+     * written again, both without reading the repository.
+     *
+     * @param query   identifies the drivers listed, to cache their body
+     * @param drivers opens the stream of the drivers listed, only when the body is not cached
+     */
+    private ResponseEntity<StreamingResponseBody> streamDrivers(String query,
+                                                                Supplier<Stream<Driver>> drivers,
+                                                                String accept,
+                                                                String ifNoneMatch) {
+        boolean ndjson = DriverListResponses.acceptsNdjson(accept, MediaType.APPLICATION_JSON);
+        MediaType contentType = ndjson ? APPLICATION_NDJSON : MediaType.APPLICATION_JSON;
+        long version = driverRepository.getVersion();
+        String eTag = DriverListResponses.eTag(version, contentType);
+        if (DriverListResponses.matchesETag(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
+        String cacheKey = contentType + " " + query;
+        byte[] cached = responseCache.get(cacheKey, version);
+        StreamingResponseBody body;
+        if (cached != null) {
+            body = outputStream -> outputStream.write(cached);
+        } else {
+            body = responseCache.caching(cacheKey, version, ndjson
+                    ? driverJsonStreamer.ndjson(drivers.get())
+                    : driverJsonStreamer.jsonArray(drivers.get()));
+        }
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .varyBy(HttpHeaders.ACCEPT)
+                .contentType(contentType)
+                .body(body);
     }
 }
\ No newline at end of file
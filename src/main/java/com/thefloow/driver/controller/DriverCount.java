@@ -0,0 +1,17 @@
+package com.thefloow.driver.controller;
+
+/**
+ * Number of drivers matching a count request.
+ */
+public class DriverCount {
+
+    private final long count;
+
+    public DriverCount(long count) {
+        this.count = count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
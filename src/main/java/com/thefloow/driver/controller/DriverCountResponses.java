@@ -0,0 +1,71 @@
+package com.thefloow.driver.controller;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.repository.CreationPeriod;
+import org.springframework.http.HttpStatus;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * Builds the driver count responses shared by the servlet and the reactive controllers.
+ */
+final class DriverCountResponses {
+
+    static final String DEFAULT_AGE_BANDS = "18,25,35,45,55,65";
+
+    private static final int MAX_AGE_BANDS = 20;
+    private static final int MAX_AGE = 150;
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    private DriverCountResponses() {
+    }
+
+    /**
+     * @return the period named in the request, in any case
+     */
+    static CreationPeriod validPeriod(String period) {
+        for (CreationPeriod candidate : CreationPeriod.values()) {
+            if (candidate.name().equalsIgnoreCase(period)) {
+                return candidate;
+            }
+        }
+        throw new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+    }
+
+    /**
+     * @return the age band boundaries, which have to be increasing ages
+     */
+    static int[] validAgeBoundaries(int[] ageBoundaries) {
+        if (ageBoundaries.length == 0 || ageBoundaries.length > MAX_AGE_BANDS) {
+            throw new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+        }
+        for (int i = 0; i < ageBoundaries.length; i++) {
+            int minAge = i > 0 ? ageBoundaries[i - 1] + 1 : 0;
+            if (ageBoundaries[i] < minAge || ageBoundaries[i] > MAX_AGE) {
+                throw new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+            }
+        }
+        return ageBoundaries;
+    }
+
+    static List<PeriodCount> periodCounts(SortedMap<LocalDate, Long> counts, CreationPeriod period) {
+        List<PeriodCount> periodCounts = new ArrayList<>(counts.size());
+        counts.forEach((start, count) -> periodCounts.add(new PeriodCount(
+                period == CreationPeriod.MONTH ? MONTH_FORMAT.format(start) : start.toString(), count)));
+        return periodCounts;
+    }
+
+    static List<AgeBandCount> ageBandCounts(int[] ageBoundaries, long[] counts) {
+        List<AgeBandCount> ageBandCounts = new ArrayList<>(counts.length);
+        for (int band = 0; band < counts.length; band++) {
+            ageBandCounts.add(new AgeBandCount(band > 0 ? ageBoundaries[band - 1] : null,
+                    band < ageBoundaries.length ? ageBoundaries[band] : null,
+                    counts[band]));
+        }
+        return ageBandCounts;
+    }
+}
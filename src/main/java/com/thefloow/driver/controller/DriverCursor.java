@@ -0,0 +1,44 @@
+package com.thefloow.driver.controller;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import org.springframework.http.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque pagination cursor handed to clients, pointing at the last driver of a page.
+ */
+public final class DriverCursor {
+
+    private static final String PREFIX = "id:";
+
+    private DriverCursor() {
+    }
+
+    public static String encode(int driverId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + driverId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return id of the driver the cursor points at, or 0 if there is no cursor
+     */
+    public static int decode(String cursor) {
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (decoded.startsWith(PREFIX)) {
+                int driverId = Integer.parseInt(decoded.substring(PREFIX.length()));
+                if (driverId >= 0) {
+                    return driverId;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below as any other invalid cursor
+        }
+        throw new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+    }
+}
@@ -0,0 +1,57 @@
+package com.thefloow.driver.controller;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.thefloow.driver.model.Driver;
+
+/**
+ * Outcome of one driver of a bulk import, identified by its position in the request.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DriverImportResult {
+
+    public enum Status {
+        CREATED, INVALID
+    }
+
+    private final int index;
+    private final Status status;
+    private final Driver driver;
+    private final String code;
+    private final String message;
+
+    private DriverImportResult(int index, Status status, Driver driver, String code, String message) {
+        this.index = index;
+        this.status = status;
+        this.driver = driver;
+        this.code = code;
+        this.message = message;
+    }
+
+    public static DriverImportResult created(int index, Driver driver) {
+        return new DriverImportResult(index, Status.CREATED, driver, null, null);
+    }
+
+    public static DriverImportResult invalid(int index, String message) {
+        return new DriverImportResult(index, Status.INVALID, null, "bad.request", message);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Driver getDriver() {
+        return driver;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
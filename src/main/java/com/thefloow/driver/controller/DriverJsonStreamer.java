@@ -0,0 +1,68 @@
+package com.thefloow.driver.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thefloow.driver.model.Driver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes drivers to the response one at a time as they are read from the repository, so the memory
+ * used by a response does not depend on the number of drivers returned.
+ */
+@Component
+public class DriverJsonStreamer {
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public DriverJsonStreamer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return response body writing the drivers as a JSON array, closing the stream once written
+     */
+    public StreamingResponseBody jsonArray(Stream<Driver> drivers) {
+        return outputStream -> {
+            try (Stream<Driver> closeableDrivers = drivers;
+                 JsonGenerator generator = createGenerator(outputStream)) {
+                generator.writeStartArray();
+                Iterator<Driver> iterator = closeableDrivers.iterator();
+                while (iterator.hasNext()) {
+                    generator.writeObject(iterator.next());
+                }
+                generator.writeEndArray();
+            }
+        };
+    }
+
+    /**
+     * @return response body writing one JSON driver per line, closing the stream once written
+     */
+    public StreamingResponseBody ndjson(Stream<Driver> drivers) {
+        return outputStream -> {
+            try (Stream<Driver> closeableDrivers = drivers;
+                 JsonGenerator generator = createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                Iterator<Driver> iterator = closeableDrivers.iterator();
+                while (iterator.hasNext()) {
+                    generator.writeObject(iterator.next());
+                    generator.writeRaw('\n');
+                }
+            }
+        };
+    }
+
+    private JsonGenerator createGenerator(OutputStream outputStream) throws IOException {
+        return objectMapper.getFactory()
+                .createGenerator(outputStream)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+}
@@ -0,0 +1,115 @@
+package com.thefloow.driver.controller;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.List;
+
+/**
+ * Builds the parts of the driver list responses shared by the servlet and the reactive controllers.
+ */
+final class DriverListResponses {
+
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
+    private static final int MAX_PAGE_LIMIT = 1000;
+    private static final int MAX_SEARCH_LIMIT = 100;
+
+    private DriverListResponses() {
+    }
+
+    /**
+     * Negotiates NDJSON against the other type a response can be written as: the accepted types are gone through
+     * by quality, and the first one including either type decides, the other type winning a wildcard.
+     *
+     * @param otherType type the drivers are written as otherwise, such as a JSON array
+     * @return whether the drivers are written as NDJSON rather than as the other type
+     */
+    static boolean acceptsNdjson(String accept, MediaType otherType) {
+        if (accept == null) {
+            return false;
+        }
+        List<MediaType> acceptedTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortByQualityValue(acceptedTypes);
+        for (MediaType acceptedType : acceptedTypes) {
+            if (acceptedType.getQualityValue() == 0) {
+                continue;
+            }
+            if (acceptedType.includes(otherType)) {
+                return false;
+            }
+            if (acceptedType.includes(APPLICATION_NDJSON)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return tag of a list response at the given version of the repository
+     */
+    static String eTag(long version, MediaType contentType) {
+        return "\"" + Long.toHexString(version) + "-" + contentType.getSubtype() + "\"";
+    }
+
+    /**
+     * @return whether the If-None-Match header holds the given tag, compared as a weak tag, or any tag
+     */
+    static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : StringUtils.commaDelimitedListToStringArray(ifNoneMatch)) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(eTag) || trimmed.equals("W/" + eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int validPageLimit(int limit) {
+        if (limit < 1 || limit > MAX_PAGE_LIMIT) {
+            throw new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+        }
+        return limit;
+    }
+
+    static int validSearchLimit(int limit) {
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+        }
+        return limit;
+    }
+
+    /**
+     * @return the searched name, which has to hold more than blanks
+     */
+    static String validSearchName(String name) {
+        if (!StringUtils.hasText(name)) {
+            throw new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+        }
+        return name;
+    }
+
+    /**
+     * Builds the response of a page, linking to the next one when the page is full.
+     */
+    static ResponseEntity<List<Driver>> page(List<Driver> drivers, int limit, UriComponentsBuilder nextPageUri) {
+        if (drivers.size() < limit) {
+            return ResponseEntity.ok(drivers);
+        }
+        String cursor = DriverCursor.encode(drivers.get(drivers.size() - 1).getId());
+        String nextPage = nextPageUri.replaceQueryParam("after", cursor).toUriString();
+        return ResponseEntity.ok()
+                .header(HttpHeaders.LINK, "<" + nextPage + ">; rel=\"next\"")
+                .body(drivers);
+    }
+}
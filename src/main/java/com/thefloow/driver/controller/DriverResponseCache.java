@@ -0,0 +1,135 @@
+package com.thefloow.driver.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small cache of the serialized bodies of list responses, by query and repository version. Bodies are
+ * captured while they are streamed to the client, and only kept when they are small enough, so polling
+ * the same query again neither reads the repository nor serializes the drivers.
+ */
+@Component
+public class DriverResponseCache {
+
+    private final int maxEntries;
+    private final int maxEntryBytes;
+    private final Map<String, CachedBody> entries;
+
+    @Autowired
+    public DriverResponseCache(@Value("${controller.response-cache.max-entries}") int maxEntries,
+                               @Value("${controller.response-cache.max-entry-bytes}") int maxEntryBytes) {
+        this.maxEntries = maxEntries;
+        this.maxEntryBytes = maxEntryBytes;
+        this.entries = new LinkedHashMap<String, CachedBody>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedBody> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return body cached for the query at the given repository version, or null if there is none
+     */
+    public synchronized byte[] get(String query, long version) {
+        CachedBody cached = entries.get(query);
+        return cached != null && cached.version == version ? cached.body : null;
+    }
+
+    /**
+     * @return response body writing the given one and caching what it wrote for the query once completely
+     * written, unless it is larger than the maximum size of an entry
+     */
+    public StreamingResponseBody caching(String query, long version, StreamingResponseBody body) {
+        return outputStream -> {
+            CapturingOutputStream capturing = new CapturingOutputStream(outputStream, maxEntryBytes);
+            body.writeTo(capturing);
+            capturing.flush();
+            byte[] captured = capturing.getCaptured();
+            if (captured != null) {
+                put(query, version, captured);
+            }
+        };
+    }
+
+    /**
+     * Drops every cached body, when drivers are stored.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private synchronized void put(String query, long version, byte[] body) {
+        CachedBody cached = entries.get(query);
+        if (cached == null || cached.version <= version) {
+            entries.put(query, new CachedBody(version, body));
+        }
+    }
+
+    private static class CachedBody {
+        private final long version;
+        private final byte[] body;
+
+        private CachedBody(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Writes to the response while keeping a copy of what is written, until it exceeds the given size.
+     */
+    private static class CapturingOutputStream extends FilterOutputStream {
+        private final int maxBytes;
+        private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        private CapturingOutputStream(OutputStream out, int maxBytes) {
+            super(out);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            capture(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            if (captured == null) {
+                return;
+            }
+            if (captured.size() + len > maxBytes) {
+                captured = null;
+                return;
+            }
+            captured.write(b, off, len);
+        }
+
+        /**
+         * @return the bytes written, or null if they exceeded the maximum size
+         */
+        private byte[] getCaptured() {
+            return captured == null ? null : captured.toByteArray();
+        }
+    }
+}
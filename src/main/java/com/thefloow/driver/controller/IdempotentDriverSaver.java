@@ -0,0 +1,113 @@
+package com.thefloow.driver.controller;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.DriverRepository;
+import com.thefloow.driver.repository.IdempotencyKeys;
+import com.thefloow.driver.repository.RepositoryMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Stores the drivers created with an idempotency key once per key: a creation retried with the key of a driver
+ * already stored gets that driver back, whatever the driver sent, rather than storing a new one. A creation
+ * retried while the first one is still being stored waits for it.
+ * <p>
+ * The keys are journaled by an executor of their own once their drivers are stored, rather than on the thread
+ * of the repository completing the saves, so journal writes never hold back the writes of the repository. A key
+ * the executor rejects is journaled on the completing thread anyway, as its driver is already stored.
+ */
+@Component
+public class IdempotentDriverSaver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdempotentDriverSaver.class);
+
+    private final DriverRepository driverRepository;
+    private final IdempotencyKeys idempotencyKeys;
+    private final Executor keyWriteExecutor;
+    private final RepositoryMetrics metrics;
+    private final ConcurrentMap<String, CompletableFuture<Driver>> pendingSaves = new ConcurrentHashMap<>();
+
+    @Autowired
+    public IdempotentDriverSaver(DriverRepository driverRepository,
+                                 IdempotencyKeys idempotencyKeys,
+                                 @Qualifier("idempotencyKeyWriteExecutor") Executor keyWriteExecutor,
+                                 RepositoryMetrics metrics) {
+        this.driverRepository = driverRepository;
+        this.idempotencyKeys = idempotencyKeys;
+        this.keyWriteExecutor = keyWriteExecutor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param idempotencyKey key the client sent with the driver, if any
+     * @return future completed with the driver stored, or with the one stored before with the same key
+     */
+    public CompletableFuture<Driver> save(Driver driver, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return driverRepository.save(driver);
+        }
+        if (!IdempotencyKeys.isValid(idempotencyKey)) {
+            throw new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data");
+        }
+        CompletableFuture<Driver> result = new CompletableFuture<>();
+        CompletableFuture<Driver> pending = pendingSaves.putIfAbsent(idempotencyKey, result);
+        if (pending != null) {
+            return pending;
+        }
+        try {
+            int storedId = idempotencyKeys.find(idempotencyKey);
+            CompletableFuture<Driver> stored = storedId == 0
+                    ? saveWithKey(driver, idempotencyKey)
+                    : driverRepository.findById(storedId).thenCompose(found -> found
+                            .map(CompletableFuture::completedFuture)
+                            // the keys were kept but the repository file was replaced since
+                            .orElseGet(() -> saveWithKey(driver, idempotencyKey)));
+            stored.whenComplete((savedDriver, failure) -> {
+                pendingSaves.remove(idempotencyKey, result);
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(savedDriver);
+                }
+            });
+        } catch (RuntimeException e) {
+            // such as a repository rejecting the read or the save, which a retry with the key starts again
+            pendingSaves.remove(idempotencyKey, result);
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private CompletableFuture<Driver> saveWithKey(Driver driver, String idempotencyKey) {
+        return driverRepository.save(driver).thenCompose(stored -> {
+            try {
+                return CompletableFuture.supplyAsync(() -> putKey(idempotencyKey, stored), keyWriteExecutor);
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.completedFuture(putKey(idempotencyKey, stored));
+            }
+        });
+    }
+
+    private Driver putKey(String idempotencyKey, Driver stored) {
+        try {
+            idempotencyKeys.put(idempotencyKey, stored.getId());
+        } catch (UncheckedIOException e) {
+            // the driver is stored and the key still kept, it is only forgotten on restart
+            metrics.recordIdempotencyKeyWriteFailure();
+            LOGGER.warn("Idempotency key of driver {} not journaled, it is forgotten on restart", stored.getId(), e);
+        }
+        return stored;
+    }
+}
@@ -0,0 +1,23 @@
+package com.thefloow.driver.controller;
+
+/**
+ * Number of drivers created in one day, written as yyyy-MM-dd, or in one month, written as yyyy-MM.
+ */
+public class PeriodCount {
+
+    private final String period;
+    private final long count;
+
+    public PeriodCount(String period, long count) {
+        this.period = period;
+        this.count = count;
+    }
+
+    public String getPeriod() {
+        return period;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
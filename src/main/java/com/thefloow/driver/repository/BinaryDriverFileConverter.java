@@ -0,0 +1,65 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Converts a text repository file into the binary format described by {@link BinaryDriverFormat}.
+ * Every driver is written to the slot of its id, so ids missing from the text file are left as empty slots.
+ */
+public final class BinaryDriverFileConverter {
+
+    private BinaryDriverFileConverter() {
+    }
+
+    /**
+     * Converts a text repository file. The binary file is written next to its final location and only
+     * replaces it once complete.
+     *
+     * @param args text repository file and binary repository file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BinaryDriverFileConverter <text repository file> <binary repository file>");
+            System.exit(1);
+        }
+        convert(Paths.get(args[0]), Paths.get(args[1]));
+    }
+
+    public static void convert(Path textRepositoryPath, Path binaryRepositoryPath) throws IOException {
+        Path temporaryPath = binaryRepositoryPath.resolveSibling(binaryRepositoryPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Stream<String> lines = Files.lines(textRepositoryPath)) {
+            BinaryDriverFormat.writeHeader(channel);
+            Iterator<String> records = lines.filter(line -> !line.isEmpty()).iterator();
+            while (records.hasNext()) {
+                Driver driver = FileDriverRepository.mapToDriver(records.next());
+                if (driver.getId() < 1 || !BinaryDriverFormat.fits(driver)) {
+                    throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                            "technical.failure",
+                            "Error converting repository file record");
+                }
+                ByteBuffer slot = ByteBuffer.wrap(BinaryDriverFormat.encode(driver.getId(), driver));
+                long offset = BinaryDriverFormat.slotOffset(driver.getId());
+                while (slot.hasRemaining()) {
+                    channel.write(slot, offset + slot.position());
+                }
+            }
+            channel.force(true);
+        }
+        Files.move(temporaryPath, binaryRepositoryPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,143 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Layout of the binary repository file: a fixed size header followed by one fixed size slot per driver id,
+ * so the record of a driver is found at a position computed from its id.
+ * <pre>
+ * header: magic "DRVB" | int version | int slot size | int reserved
+ * slot:   int id (0 for an empty slot) | int date of birth epoch day | int creation date epoch day |
+ *         short first name length | first name UTF-8 bytes | short last name length | last name UTF-8 bytes
+ * </pre>
+ */
+public final class BinaryDriverFormat {
+
+    public static final int HEADER_SIZE = 16;
+    public static final int SLOT_SIZE = 128;
+    public static final int MAX_NAME_LENGTH = 56;
+
+    private static final int MAGIC = 0x44525642;
+    private static final int VERSION = 1;
+    private static final int DATE_OF_BIRTH_POSITION = 4;
+    private static final int CREATION_DATE_POSITION = 8;
+    private static final int FIRST_NAME_POSITION = 12;
+    private static final int LAST_NAME_POSITION = FIRST_NAME_POSITION + 2 + MAX_NAME_LENGTH;
+
+    private BinaryDriverFormat() {
+    }
+
+    /**
+     * @return position in the binary file of the slot of the given driver id
+     */
+    public static long slotOffset(int driverId) {
+        return HEADER_SIZE + (long) (driverId - 1) * SLOT_SIZE;
+    }
+
+    /**
+     * @return number of complete slots stored in a binary file of the given size
+     */
+    public static int slotCount(long fileSize) {
+        return fileSize <= HEADER_SIZE ? 0 : (int) ((fileSize - HEADER_SIZE) / SLOT_SIZE);
+    }
+
+    /**
+     * @return whether the names of the driver fit in a slot
+     */
+    public static boolean fits(Driver driver) {
+        return utf8Length(driver.getFirstName()) <= MAX_NAME_LENGTH
+                && utf8Length(driver.getLastName()) <= MAX_NAME_LENGTH;
+    }
+
+    public static byte[] encode(int driverId, Driver driver) {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        slot.putInt(driverId);
+        slot.putInt((int) driver.getDateOfBirth().toEpochDay());
+        slot.putInt((int) driver.getCreationDate().toEpochDay());
+        putName(slot, FIRST_NAME_POSITION, driver.getFirstName());
+        putName(slot, LAST_NAME_POSITION, driver.getLastName());
+        return slot.array();
+    }
+
+    /**
+     * @return id stored in the slot starting at the given position, 0 for an empty slot
+     */
+    public static int id(ByteBuffer buffer, int slotPosition) {
+        return buffer.getInt(slotPosition);
+    }
+
+    /**
+     * @return creation date, as an epoch day, stored in the slot starting at the given position
+     */
+    public static int creationEpochDay(ByteBuffer buffer, int slotPosition) {
+        return buffer.getInt(slotPosition + CREATION_DATE_POSITION);
+    }
+
+    public static Driver decode(ByteBuffer buffer, int slotPosition) {
+        return new Driver(
+                buffer.getInt(slotPosition),
+                getName(buffer, slotPosition + FIRST_NAME_POSITION),
+                getName(buffer, slotPosition + LAST_NAME_POSITION),
+                LocalDate.ofEpochDay(buffer.getInt(slotPosition + DATE_OF_BIRTH_POSITION)),
+                LocalDate.ofEpochDay(buffer.getInt(slotPosition + CREATION_DATE_POSITION))
+        );
+    }
+
+    public static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(SLOT_SIZE).putInt(0);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    public static void checkHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) != -1) {
+            // keep reading until the header is complete
+        }
+        if (header.hasRemaining()
+                || header.getInt(0) != MAGIC
+                || header.getInt(4) != VERSION
+                || header.getInt(8) != SLOT_SIZE) {
+            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error reading repository file header");
+        }
+    }
+
+    private static void putName(ByteBuffer slot, int position, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        slot.putShort(position, (short) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            slot.put(position + 2 + i, bytes[i]);
+        }
+    }
+
+    private static String getName(ByteBuffer buffer, int position) {
+        int length = buffer.getShort(position);
+        if (length < 0 || length > MAX_NAME_LENGTH) {
+            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error reading repository file record");
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,448 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.springframework.http.HttpStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Repository storing drivers in the fixed size slots of {@link BinaryDriverFormat}. The record of a driver is
+ * found at a position computed from its id, and date filters only read one int per slot, decoding the names
+ * of the matching drivers alone.
+ */
+public class BinaryDriverRepository implements DriverRepository, Closeable {
+
+    private static final int SLOTS_PER_READ = 512;
+
+    private final Path repositoryPath;
+    private final DriverFileWriter writer;
+    private final Executor readExecutor;
+    private final RepositoryMetrics metrics;
+    private final CreatedAfterCache createdAfterCache;
+    private final DriverNameIndex nameIndex = new DriverNameIndex();
+    private final DriverCounters counters = new DriverCounters();
+
+    /**
+     * @param repositoryPath     binary repository file
+     * @param textRepositoryPath text repository file converted into the binary one when the latter does not exist
+     */
+    public BinaryDriverRepository(Path repositoryPath, Path textRepositoryPath, WriterSettings writerSettings) {
+        this(repositoryPath, textRepositoryPath, writerSettings, ForkJoinPool.commonPool(), RepositoryMetrics.noop(),
+                CacheSettings.defaults());
+    }
+
+    /**
+     * @param repositoryPath     binary repository file
+     * @param textRepositoryPath text repository file converted into the binary one when the latter does not exist
+     * @param readExecutor       executor running the reads of the repository file, which may reject them when busy
+     */
+    public BinaryDriverRepository(Path repositoryPath,
+                                  Path textRepositoryPath,
+                                  WriterSettings writerSettings,
+                                  Executor readExecutor,
+                                  RepositoryMetrics metrics,
+                                  CacheSettings cacheSettings) {
+        this.repositoryPath = repositoryPath;
+        this.readExecutor = readExecutor;
+        this.metrics = metrics;
+        this.createdAfterCache = new CreatedAfterCache(cacheSettings, Comparator.comparing(Driver::getId), metrics);
+        try {
+            initializeRepositoryFile(textRepositoryPath);
+            this.writer = new DriverFileWriter(repositoryPath,
+                    recoverSlotCount(),
+                    BinaryDriverFormat::encode,
+                    writerSettings);
+            indexDrivers();
+            this.writer.addCommitListener(batch -> batch.getDrivers().forEach(this::index));
+            this.writer.addCommitListener(metrics::recordBatch);
+            this.writer.addCommitListener(batch -> createdAfterCache.add(batch.getDrivers()),
+                    createdAfterCache::clear);
+            metrics.monitorWriter(writer);
+            metrics.monitorFile(repositoryPath);
+        } catch (IOException e) {
+            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error initializing repository file");
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<Driver>> findAll() {
+        return metrics.timed("findAll", () -> CompletableFuture.supplyAsync(() ->
+                collect(streamSlots("findAll", 0, Integer.MIN_VALUE)), readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<List<Driver>> findCreatedAfter(LocalDate creationDate) {
+        return metrics.timed("findCreatedAfter", () -> {
+            List<Driver> cached = createdAfterCache.get(creationDate);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+            long generation = createdAfterCache.generation();
+            return CompletableFuture.supplyAsync(() -> createdAfterCache.put(creationDate,
+                    collect(streamSlots("findCreatedAfter", 0, minCreationEpochDay(creationDate))),
+                    generation), readExecutor);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<Driver>> findById(int driverId) {
+        return metrics.timed("findById", () -> CompletableFuture.supplyAsync(() -> {
+            ScanStats stats = new ScanStats();
+            Optional<Driver> driver = readSlot(driverId, stats);
+            metrics.record("findById", stats, driver.isPresent() ? 1 : 0);
+            return driver;
+        }, readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<List<Driver>> findAll(int afterId, int limit) {
+        return metrics.timed("findAllPage", () -> CompletableFuture.supplyAsync(() ->
+                collect(streamSlots("findAllPage", afterId, Integer.MIN_VALUE).limit(limit)), readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<List<Driver>> findCreatedAfter(LocalDate creationDate, int afterId, int limit) {
+        return metrics.timed("findCreatedAfterPage", () -> CompletableFuture.supplyAsync(() ->
+                collect(streamSlots("findCreatedAfterPage", afterId, minCreationEpochDay(creationDate)).limit(limit)),
+                readExecutor));
+    }
+
+    /**
+     * Finds the ids of the drivers in the name index and reads their slots as {@link #findById(int)} does.
+     */
+    @Override
+    public CompletableFuture<List<Driver>> findByName(String namePrefix, int limit) {
+        return metrics.timed("findByName", () -> CompletableFuture.supplyAsync(() -> {
+            ScanStats stats = new ScanStats();
+            List<Driver> drivers = new ArrayList<>();
+            for (int driverId : nameIndex.findIds(namePrefix, limit)) {
+                readSlot(driverId, stats).ifPresent(drivers::add);
+            }
+            metrics.record("findByName", stats, drivers.size());
+            return drivers;
+        }, readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<Long> countCreatedAfter(LocalDate creationDate) {
+        return metrics.timed("countCreatedAfter", () -> CompletableFuture.supplyAsync(() ->
+                counters.countCreatedAfter(creationDate), readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<SortedMap<LocalDate, Long>> countCreatedByPeriod(LocalDate creationDate,
+                                                                              CreationPeriod period) {
+        return metrics.timed("countCreatedByPeriod", () -> CompletableFuture.supplyAsync(() ->
+                counters.countCreatedByPeriod(creationDate, period), readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<long[]> countByAge(LocalDate date, int... ageBoundaries) {
+        return metrics.timed("countByAge", () -> CompletableFuture.supplyAsync(() ->
+                counters.countByAge(date, ageBoundaries), readExecutor));
+    }
+
+    @Override
+    public Stream<Driver> streamAll() {
+        return metrics.timedStream("streamAll", () -> streamSlots("streamAll", 0, Integer.MIN_VALUE));
+    }
+
+    /**
+     * Streams the drivers created after the given date from the results cache, or reads them from the
+     * repository and caches them once they are all read.
+     */
+    @Override
+    public Stream<Driver> streamCreatedAfter(LocalDate creationDate) {
+        return metrics.timedStream("streamCreatedAfter", () -> {
+            List<Driver> cached = createdAfterCache.get(creationDate);
+            return cached != null
+                    ? cached.stream()
+                    : createdAfterCache.caching(creationDate, () ->
+                            streamSlots("streamCreatedAfter", 0, minCreationEpochDay(creationDate)));
+        });
+    }
+
+    /**
+     * @return length of the repository file once the last stored drivers can be read
+     */
+    @Override
+    public long getVersion() {
+        return writer.getPublishedLength();
+    }
+
+    @Override
+    public CompletableFuture<Driver> save(Driver driver) {
+        return metrics.timed("save", () -> BinaryDriverFormat.fits(driver)
+                ? writer.append(driver)
+                : rejectedInvalidInput());
+    }
+
+    @Override
+    public CompletableFuture<List<Driver>> saveAll(List<Driver> drivers) {
+        return metrics.timed("saveAll", () -> drivers.stream().allMatch(BinaryDriverFormat::fits)
+                ? writer.appendAll(drivers)
+                : rejectedInvalidInput());
+    }
+
+    @Override
+    public Optional<String> checkStorable(Driver driver) {
+        return BinaryDriverFormat.fits(driver)
+                ? Optional.empty()
+                : Optional.of("Names must be at most " + BinaryDriverFormat.MAX_NAME_LENGTH + " bytes long");
+    }
+
+    @Override
+    public void addSaveListener(Consumer<List<Driver>> saveListener) {
+        writer.addCommitListener(batch -> saveListener.accept(batch.getDrivers()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private static <T> CompletableFuture<T> rejectedInvalidInput() {
+        CompletableFuture<T> rejected = new CompletableFuture<>();
+        rejected.completeExceptionally(new ServiceException(HttpStatus.BAD_REQUEST,
+                "bad.request",
+                "Invalid input data"));
+        return rejected;
+    }
+
+    private void initializeRepositoryFile(Path textRepositoryPath) throws IOException {
+        if (Files.exists(repositoryPath)) {
+            return;
+        }
+        if (textRepositoryPath != null && Files.exists(textRepositoryPath) && Files.size(textRepositoryPath) > 0) {
+            BinaryDriverFileConverter.convert(textRepositoryPath, repositoryPath);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(repositoryPath,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            BinaryDriverFormat.writeHeader(channel);
+        }
+    }
+
+    /**
+     * Checks the header of the repository file and drops an incomplete slot left at its end by an interrupted
+     * write, so the next slot is appended at the position of its id.
+     *
+     * @return number of slots of the repository file, which is also the last driver id stored
+     */
+    private int recoverSlotCount() throws IOException {
+        try (FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            BinaryDriverFormat.checkHeader(channel);
+            int slotCount = BinaryDriverFormat.slotCount(channel.size());
+            long slotsEnd = BinaryDriverFormat.slotOffset(slotCount + 1);
+            if (channel.size() > slotsEnd) {
+                channel.truncate(slotsEnd);
+            }
+            return slotCount;
+        }
+    }
+
+    /**
+     * Reads all the slots of the repository file into the name index and the counters.
+     */
+    private void indexDrivers() throws IOException {
+        SlotCursor cursor = new SlotCursor(FileChannel.open(repositoryPath, StandardOpenOption.READ),
+                writer.getCommittedLength(),
+                0,
+                Integer.MIN_VALUE,
+                new ScanStats());
+        try {
+            cursor.forEachRemaining(this::index);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void index(Driver driver) {
+        nameIndex.add(driver);
+        counters.add(driver);
+    }
+
+    /**
+     * Reads the slot of the given driver id with a single positioned read.
+     */
+    private Optional<Driver> readSlot(int driverId, ScanStats stats) {
+        try (FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ)) {
+            if (driverId < 1 || driverId > BinaryDriverFormat.slotCount(writer.getCommittedLength())) {
+                return Optional.empty();
+            }
+            ByteBuffer slot = ByteBuffer.allocate(BinaryDriverFormat.SLOT_SIZE);
+            long offset = BinaryDriverFormat.slotOffset(driverId);
+            while (slot.hasRemaining() && channel.read(slot, offset + slot.position()) != -1) {
+                // keep reading until the slot is complete
+            }
+            stats.recordScanned();
+            stats.bytesRead(slot.position());
+            return BinaryDriverFormat.id(slot, 0) == 0
+                    ? Optional.empty()
+                    : Optional.of(BinaryDriverFormat.decode(slot, 0));
+        } catch (IOException e) {
+            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error reading repository file");
+        }
+    }
+
+    /**
+     * Opens a lazy scan of the slots following the given driver id, which has to be closed once consumed.
+     */
+    private Stream<Driver> streamSlots(String operation, int afterId, int minCreationEpochDay) {
+        ScanStats stats = new ScanStats();
+        SlotCursor cursor;
+        try {
+            cursor = new SlotCursor(FileChannel.open(repositoryPath, StandardOpenOption.READ),
+                    writer.getCommittedLength(),
+                    afterId,
+                    minCreationEpochDay,
+                    stats);
+        } catch (IOException e) {
+            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error reading repository file");
+        }
+        return metrics.counted(operation,
+                StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                        .onClose(cursor::close),
+                stats);
+    }
+
+    private static int minCreationEpochDay(LocalDate creationDate) {
+        return (int) creationDate.toEpochDay() + 1;
+    }
+
+    private static List<Driver> collect(Stream<Driver> drivers) {
+        try (Stream<Driver> closeableDrivers = drivers) {
+            return closeableDrivers.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads the slots in blocks, only decoding the drivers of non empty slots created on or after the given day.
+     */
+    private static class SlotCursor implements Iterator<Driver> {
+        private final FileChannel channel;
+        private final int slotCount;
+        private final int minCreationEpochDay;
+        private final ScanStats stats;
+        private final ByteBuffer block = ByteBuffer.allocate(SLOTS_PER_READ * BinaryDriverFormat.SLOT_SIZE);
+        private int nextSlot;
+        private int blockSlots;
+        private int blockPosition;
+        private Driver next;
+
+        /**
+         * @param committedLength length of the repository file up to the last slot completely written
+         */
+        private SlotCursor(FileChannel channel,
+                           long committedLength,
+                           int afterId,
+                           int minCreationEpochDay,
+                           ScanStats stats) {
+            this.channel = channel;
+            this.slotCount = BinaryDriverFormat.slotCount(committedLength);
+            this.minCreationEpochDay = minCreationEpochDay;
+            this.stats = stats;
+            this.nextSlot = Math.max(afterId, 0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Driver next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Driver driver = next;
+            next = null;
+            return driver;
+        }
+
+        private Driver advance() {
+            while (true) {
+                while (blockPosition < blockSlots) {
+                    int slotPosition = blockPosition++ * BinaryDriverFormat.SLOT_SIZE;
+                    if (BinaryDriverFormat.id(block, slotPosition) == 0) {
+                        continue;
+                    }
+                    stats.recordScanned();
+                    if (BinaryDriverFormat.creationEpochDay(block, slotPosition) >= minCreationEpochDay) {
+                        return BinaryDriverFormat.decode(block, slotPosition);
+                    }
+                }
+                if (nextSlot >= slotCount) {
+                    return null;
+                }
+                readBlock();
+            }
+        }
+
+        private void readBlock() {
+            blockSlots = Math.min(SLOTS_PER_READ, slotCount - nextSlot);
+            blockPosition = 0;
+            block.clear().limit(blockSlots * BinaryDriverFormat.SLOT_SIZE);
+            long offset = BinaryDriverFormat.slotOffset(nextSlot + 1);
+            try {
+                while (block.hasRemaining()) {
+                    if (channel.read(block, offset + block.position()) == -1) {
+                        throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                                "technical.failure",
+                                "Error reading repository file");
+                    }
+                }
+            } catch (IOException e) {
+                throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                        "technical.failure",
+                        "Error reading repository file");
+            }
+            nextSlot += blockSlots;
+            stats.bytesRead(block.limit());
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                        "technical.failure",
+                        "Error reading repository file");
+            }
+        }
+    }
+}
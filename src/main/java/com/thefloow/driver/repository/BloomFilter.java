@@ -0,0 +1,76 @@
+package com.thefloow.driver.repository;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of strings: tells without false negatives, and with about 1% of false positives up to the
+ * expected number of strings, whether a string may have been added. It takes about 10 bits per string, and
+ * can be read while strings are added.
+ */
+final class BloomFilter {
+
+    private static final int HASH_COUNT = 7;
+    private static final int BITS_PER_STRING = 10;
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+
+    /**
+     * @param expectedStrings number of strings the rate of false positives is sized for
+     */
+    BloomFilter(int expectedStrings) {
+        int wordCount = (int) Math.max(1, ((long) Math.max(1, expectedStrings) * BITS_PER_STRING + 63) / 64);
+        this.words = new AtomicLongArray(wordCount);
+        this.bitCount = wordCount * 64L;
+    }
+
+    void add(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = bit(hash1 + i * hash2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = words.get(word);
+            } while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    boolean mightContain(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = bit(hash1 + i * hash2);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long bit(int combinedHash) {
+        return (combinedHash & 0xffffffffL) % bitCount;
+    }
+
+    /**
+     * 64 bits FNV-1a hash of the characters of the string, mixed by the finalizer of MurmurHash3 so both of its
+     * halves, which give the positions of the bits of the string, depend on every character.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,44 @@
+package com.thefloow.driver.repository;
+
+/**
+ * Settings of the cache of the drivers created after a date kept by the repositories.
+ */
+public class CacheSettings {
+
+    private static final int DEFAULT_MAX_ENTRIES = 16;
+    private static final long DEFAULT_TTL_MILLIS = 300000;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    /**
+     * @param maxEntries maximum number of dates whose drivers are cached, 0 to disable the cache
+     * @param ttlMillis  time after which the drivers cached for a date are read again from the repository
+     */
+    public CacheSettings(int maxEntries, long ttlMillis) {
+        if (maxEntries < 0 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Invalid repository cache settings");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static CacheSettings defaults() {
+        return new CacheSettings(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @return settings reading every result from the repository
+     */
+    public static CacheSettings disabled() {
+        return new CacheSettings(0, DEFAULT_TTL_MILLIS);
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+}
@@ -0,0 +1,226 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Least recently used cache of the drivers created after a date, whether read at once or streamed, kept up to
+ * date as drivers are written
+ * instead of being cleared: every written driver is inserted, in the order of the repository, into the
+ * cached results of the dates it was created after.
+ * <p>
+ * The last batches written are kept, so a result read while drivers were written is cached with the drivers
+ * of the batches written since it started: the batch written last when it started, which may not have been
+ * visible to the read yet, and every later one. A driver already found in a result is not added again, so a
+ * cached result never misses nor repeats a driver whatever the order of the commit listeners of the writer.
+ * <p>
+ * Written drivers are almost always appended to the results, as they get the highest ids, so a result is kept
+ * in an array only ever appended to: {@link #get} shares the drivers cached so far without copying them.
+ */
+public class CreatedAfterCache {
+
+    private static final int MAX_RECENT_BATCHES = 1024;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Comparator<Driver> order;
+    private final RepositoryMetrics metrics;
+    private final Map<LocalDate, CachedResult> results;
+    private final Deque<List<Driver>> recentBatches = new ArrayDeque<>();
+    private long generation;
+
+    /**
+     * @param order order of the drivers in the results of the repository, which tells drivers apart
+     */
+    public CreatedAfterCache(CacheSettings settings, Comparator<Driver> order, RepositoryMetrics metrics) {
+        this.maxEntries = settings.getMaxEntries();
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(settings.getTtlMillis());
+        this.order = order;
+        this.metrics = metrics;
+        this.results = new LinkedHashMap<LocalDate, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LocalDate, CachedResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        metrics.monitorCache(this);
+    }
+
+    /**
+     * @return unmodifiable drivers cached for the date, or null if they are not cached or have expired
+     */
+    public synchronized List<Driver> get(LocalDate creationDate) {
+        CachedResult cached = results.get(creationDate);
+        if (cached != null && System.nanoTime() - cached.loadedAt > ttlNanos) {
+            results.remove(creationDate);
+            cached = null;
+        }
+        metrics.recordCacheGet(cached != null);
+        return cached == null ? null : cached.snapshot();
+    }
+
+    /**
+     * @return generation of the cache to give to {@link #put} with a result read from then on
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches the drivers read for the date with the drivers written since the given generation, unless so
+     * many batches were written since that they are not kept anymore.
+     *
+     * @return the given drivers
+     */
+    public synchronized List<Driver> put(LocalDate creationDate, List<Driver> drivers, long readGeneration) {
+        long missedBatches = generation - readGeneration;
+        if (maxEntries > 0 && missedBatches <= recentBatches.size()) {
+            CachedResult cached = new CachedResult(drivers.toArray(new Driver[0]), System.nanoTime());
+            long appliedBatches = Math.min(recentBatches.size(), missedBatches + 1);
+            Iterator<List<Driver>> batches = recentBatches.descendingIterator();
+            for (long skipped = recentBatches.size() - appliedBatches; skipped > 0; skipped--) {
+                batches.next();
+            }
+            while (batches.hasNext()) {
+                addCreatedAfter(cached, creationDate, batches.next());
+            }
+            results.put(creationDate, cached);
+        }
+        return drivers;
+    }
+
+    /**
+     * Streams the drivers of the date read by the given stream, caching them as {@link #put} does once the
+     * stream returns its last driver. A stream closed before its end caches nothing.
+     *
+     * @param read opens the stream of the drivers created after the date, once the generation is known
+     */
+    public Stream<Driver> caching(LocalDate creationDate, Supplier<Stream<Driver>> read) {
+        if (maxEntries == 0) {
+            return read.get();
+        }
+        long readGeneration = generation();
+        Stream<Driver> drivers = read.get();
+        Spliterator<Driver> source = drivers.spliterator();
+        List<Driver> returned = new ArrayList<>();
+        Spliterator<Driver> caching = new Spliterators.AbstractSpliterator<Driver>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            private boolean cached;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Driver> action) {
+                if (source.tryAdvance(driver -> {
+                    returned.add(driver);
+                    action.accept(driver);
+                })) {
+                    return true;
+                }
+                if (!cached) {
+                    cached = true;
+                    put(creationDate, returned, readGeneration);
+                }
+                return false;
+            }
+        };
+        return StreamSupport.stream(caching, false).onClose(drivers::close);
+    }
+
+    /**
+     * Adds drivers just written to the results of the dates they were created after.
+     */
+    public synchronized void add(List<Driver> drivers) {
+        generation++;
+        recentBatches.addFirst(drivers);
+        if (recentBatches.size() > MAX_RECENT_BATCHES) {
+            recentBatches.removeLast();
+        }
+        for (Map.Entry<LocalDate, CachedResult> entry : results.entrySet()) {
+            addCreatedAfter(entry.getValue(), entry.getKey(), drivers);
+        }
+    }
+
+    /**
+     * Drops every cached result, and the results being read, once written drivers could not be added to them.
+     */
+    public synchronized void clear() {
+        results.clear();
+        recentBatches.clear();
+        generation++;
+    }
+
+    /**
+     * @return number of dates whose drivers are cached
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    private void addCreatedAfter(CachedResult cached, LocalDate creationDate, List<Driver> drivers) {
+        for (Driver driver : drivers) {
+            if (driver.getCreationDate().isAfter(creationDate)) {
+                cached.insert(driver, order);
+            }
+        }
+    }
+
+    /**
+     * Drivers of a date, of which only the first {@code size} are shared. They are never changed once shared:
+     * a driver is appended after them, and a driver inserted between them goes to a copy of the array.
+     */
+    private static class CachedResult {
+        private final long loadedAt;
+        private Driver[] drivers;
+        private int size;
+
+        private CachedResult(Driver[] drivers, long loadedAt) {
+            this.drivers = drivers;
+            this.size = drivers.length;
+            this.loadedAt = loadedAt;
+        }
+
+        private List<Driver> snapshot() {
+            return Collections.unmodifiableList(Arrays.asList(drivers).subList(0, size));
+        }
+
+        /**
+         * Inserts the driver at its position in the result, unless it is already there.
+         */
+        private void insert(Driver driver, Comparator<Driver> order) {
+            if (size == 0 || order.compare(drivers[size - 1], driver) < 0) {
+                if (size == drivers.length) {
+                    drivers = Arrays.copyOf(drivers, Math.max(16, size + (size >> 1)));
+                }
+                drivers[size++] = driver;
+                return;
+            }
+            int found = Arrays.binarySearch(drivers, 0, size, driver, order);
+            if (found < 0) {
+                int position = -found - 1;
+                Driver[] inserted = new Driver[Math.max(16, size + (size >> 1) + 1)];
+                System.arraycopy(drivers, 0, inserted, 0, position);
+                inserted[position] = driver;
+                System.arraycopy(drivers, position, inserted, position + 1, size - position);
+                drivers = inserted;
+                size++;
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.thefloow.driver.repository;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Manifest splitting the repository file into logical partitions by creation month: it keeps the position of
+ * the first record created in every month. The records stay in one append-only file ordered by id, and a query
+ * of the drivers created after a date starts reading at the first record of its month or of a later month, so
+ * it skips the records of the months before and reads about as many records as it returns.
+ * <p>
+ * A record created in a month earlier than records already stored, such as an imported one, is found as well:
+ * the query starts at the first record of any month at or after the one it asks for. The manifest is persisted
+ * to a sidecar file so a restart only reads the records appended after it was saved.
+ * <p>
+ * A creation date other than yyyy-MM-dd, such as one of a year past 9999, is parsed as a whole. A record whose
+ * creation date cannot be parsed at all is kept after every month, so every query reads it and fails on it as a
+ * scan of the whole file would.
+ * <pre>
+ * sidecar: magic "DRVM" | int version | long indexed repository length | int count | count * (long month | long offset)
+ * </pre>
+ */
+public class CreationMonthManifest {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAGIC = 0x4452564d;
+    private static final int VERSION = 2;
+    private static final int CREATION_DATE_FIELD = 4;
+    private static final int DATE_LENGTH = 10;
+    private static final int MAX_DATE_LENGTH = 16;
+    private static final long UNPARSEABLE_MONTH = Long.MAX_VALUE;
+
+    private final TreeMap<Long, Long> firstOffsets = new TreeMap<>();
+    private long indexedLength;
+
+    /**
+     * Builds the manifest of an existing repository file, reading it once.
+     */
+    public static CreationMonthManifest build(Path repositoryPath) throws IOException {
+        CreationMonthManifest manifest = new CreationMonthManifest();
+        manifest.scan(repositoryPath);
+        return manifest;
+    }
+
+    /**
+     * Loads the manifest saved in the sidecar file and adds the records appended to the repository file since
+     * it was saved. The manifest is built again from the whole repository file when the sidecar file is missing,
+     * unreadable or does not match the repository file.
+     */
+    public static CreationMonthManifest load(Path repositoryPath, Path manifestPath) throws IOException {
+        CreationMonthManifest manifest = readSidecar(manifestPath);
+        if (manifest == null || !manifest.matches(repositoryPath)) {
+            return build(repositoryPath);
+        }
+        manifest.scan(repositoryPath);
+        return manifest;
+    }
+
+    /**
+     * Registers a record appended to the repository file.
+     */
+    public synchronized void add(LocalDate creationDate, long offset) {
+        firstOffsets.putIfAbsent(monthKey(YearMonth.from(creationDate)), offset);
+    }
+
+    /**
+     * Registers the length of the repository file once all its records are in the manifest.
+     */
+    public synchronized void setIndexedLength(long indexedLength) {
+        this.indexedLength = indexedLength;
+    }
+
+    /**
+     * @return position of a record from where reading the file reaches every driver created after the given
+     * date, which is the end of the records in the manifest when none of them was created in a later month
+     */
+    public synchronized long startOffset(LocalDate creationDate) {
+        long startOffset = indexedLength;
+        long fromMonth = creationDate.equals(LocalDate.MAX)
+                ? UNPARSEABLE_MONTH
+                : monthKey(YearMonth.from(creationDate.plusDays(1)));
+        for (long offset : firstOffsets.tailMap(fromMonth).values()) {
+            startOffset = Math.min(startOffset, offset);
+        }
+        return startOffset;
+    }
+
+    /**
+     * @return number of months the stored drivers were created in
+     */
+    public synchronized int size() {
+        return firstOffsets.size();
+    }
+
+    /**
+     * Writes the manifest to the sidecar file, replacing it once completely written.
+     */
+    public synchronized void save(Path manifestPath) throws IOException {
+        Path tempPath = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(tempPath))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(indexedLength);
+            output.writeInt(firstOffsets.size());
+            for (Map.Entry<Long, Long> entry : firstOffsets.entrySet()) {
+                output.writeLong(entry.getKey());
+                output.writeLong(entry.getValue());
+            }
+        }
+        Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static CreationMonthManifest readSidecar(Path manifestPath) {
+        if (Files.notExists(manifestPath)) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(manifestPath))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return null;
+            }
+            CreationMonthManifest manifest = new CreationMonthManifest();
+            manifest.indexedLength = input.readLong();
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                manifest.firstOffsets.put(input.readLong(), input.readLong());
+            }
+            return manifest;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the sidecar was saved from the current repository file: the indexed length and the position of
+     * every month end or start a record within the file.
+     */
+    private boolean matches(Path repositoryPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ)) {
+            long repositoryLength = channel.size();
+            if (indexedLength > repositoryLength || !isRecordStart(channel, indexedLength, repositoryLength)) {
+                return false;
+            }
+            for (long offset : firstOffsets.values()) {
+                if (offset >= indexedLength || !isRecordStart(channel, offset, repositoryLength)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Adds the records of the repository file found after the indexed length.
+     */
+    private void scan(Path repositoryPath) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        byte[] creationDate = new byte[MAX_DATE_LENGTH + 1];
+        try (FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ)) {
+            long position = indexedLength;
+            channel.position(position);
+            long recordOffset = position;
+            int field = 0;
+            int dateLength = 0;
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        addParsed(creationDate, dateLength, recordOffset);
+                        recordOffset = position + 1;
+                        field = 0;
+                        dateLength = 0;
+                    } else if (b == ';') {
+                        field++;
+                    } else if (field == CREATION_DATE_FIELD && dateLength < creationDate.length) {
+                        creationDate[dateLength++] = b;
+                    }
+                    position++;
+                }
+                buffer.clear();
+            }
+            if (recordOffset < position) {
+                addParsed(creationDate, dateLength, recordOffset);
+            }
+            indexedLength = position;
+        }
+    }
+
+    private void addParsed(byte[] creationDate, int dateLength, long recordOffset) {
+        if (dateLength > 0 && creationDate[dateLength - 1] == '\r') {
+            dateLength--;
+        }
+        firstOffsets.putIfAbsent(parseMonthKey(creationDate, dateLength), recordOffset);
+    }
+
+    /**
+     * Reads the month of a yyyy-MM-dd date from its first bytes, and parses any other date as a whole.
+     *
+     * @return key of the month of the date, or a key after every month if the date cannot be parsed
+     */
+    private static long parseMonthKey(byte[] date, int length) {
+        if (length == DATE_LENGTH && date[4] == '-' && date[7] == '-') {
+            int year = 0;
+            int month = 0;
+            boolean digits = true;
+            for (int i = 0; i < 7 && digits; i++) {
+                if (i == 4) {
+                    continue;
+                }
+                digits = date[i] >= '0' && date[i] <= '9';
+                if (i < 4) {
+                    year = year * 10 + date[i] - '0';
+                } else {
+                    month = month * 10 + date[i] - '0';
+                }
+            }
+            if (digits && month >= 1 && month <= 12) {
+                return year * 12L + month - 1;
+            }
+        }
+        try {
+            return monthKey(YearMonth.from(LocalDate.parse(new String(date, 0, length, StandardCharsets.US_ASCII))));
+        } catch (DateTimeParseException e) {
+            return UNPARSEABLE_MONTH;
+        }
+    }
+
+    private static long monthKey(YearMonth month) {
+        return month.getYear() * 12L + month.getMonthValue() - 1;
+    }
+
+    private static boolean isRecordStart(FileChannel channel, long position, long repositoryLength)
+            throws IOException {
+        if (position == 0 || position == repositoryLength) {
+            return true;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        return channel.read(buffer, position - 1) == 1 && buffer.get(0) == '\n';
+    }
+}
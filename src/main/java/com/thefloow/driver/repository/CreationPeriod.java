@@ -0,0 +1,28 @@
+package com.thefloow.driver.repository;
+
+import java.time.LocalDate;
+
+/**
+ * Period the drivers are counted by when grouped by creation date.
+ */
+public enum CreationPeriod {
+
+    DAY {
+        @Override
+        public LocalDate start(LocalDate date) {
+            return date;
+        }
+    },
+
+    MONTH {
+        @Override
+        public LocalDate start(LocalDate date) {
+            return date.withDayOfMonth(1);
+        }
+    };
+
+    /**
+     * @return first day of the period the given date belongs to
+     */
+    public abstract LocalDate start(LocalDate date);
+}
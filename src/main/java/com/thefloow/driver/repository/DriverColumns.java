@@ -0,0 +1,206 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * In-memory copy of the drivers stored in the repository file, kept as columns rather than as drivers: ids,
+ * creation dates and dates of birth in primitive arrays of ints, dates as epoch days, and names encoded in
+ * UTF-8 in a direct buffer outside of the heap. A row takes 16 bytes of heap whatever the length of the names,
+ * against a few hundred bytes for a driver in a {@link DriverIndex}, and the garbage collector has no object
+ * to go through. Queries filter the columns in plain loops and build drivers only for the rows they return.
+ * <p>
+ * Rows are kept in the order drivers are stored, which is the order of their ids. It can be read while
+ * drivers are being added, and adding the same driver twice has no effect.
+ */
+public class DriverColumns {
+
+    private static final int INITIAL_ROWS = 1024;
+    private static final int INITIAL_NAME_BYTES = 16 * INITIAL_ROWS;
+    private static final int MAX_NAME_BYTES = Integer.MAX_VALUE - 8;
+    private static final byte NAME_SEPARATOR = ';';
+
+    /**
+     * Columns the rows are read from. Adding a row past their capacity replaces them with larger copies,
+     * published before the number of rows, so a reader which reads the number of rows first always gets
+     * columns holding them.
+     */
+    private volatile Columns columns = new Columns(INITIAL_ROWS, INITIAL_NAME_BYTES);
+    private volatile int size;
+
+    public synchronized void add(Driver driver) {
+        Columns current = columns;
+        int row = size;
+        if (row > 0 && driver.getId() <= current.ids[row - 1]) {
+            return;
+        }
+        byte[] names = (driver.getFirstName() + (char) NAME_SEPARATOR + driver.getLastName())
+                .getBytes(StandardCharsets.UTF_8);
+        int namesStart = current.nameOffsets[row];
+        if (row == current.ids.length || namesStart + names.length > current.names.capacity()) {
+            current = current.grow(row, (long) namesStart + names.length);
+            columns = current;
+        }
+        current.ids[row] = driver.getId();
+        current.creationDays[row] = (int) driver.getCreationDate().toEpochDay();
+        current.birthDays[row] = (int) driver.getDateOfBirth().toEpochDay();
+        ByteBuffer namesTarget = current.names.duplicate();
+        namesTarget.position(namesStart);
+        namesTarget.put(names);
+        current.nameOffsets[row + 1] = namesStart + names.length;
+        size = row + 1;
+    }
+
+    public Optional<Driver> findById(int driverId) {
+        int rows = size;
+        Columns current = columns;
+        int row = Arrays.binarySearch(current.ids, 0, rows, driverId);
+        return row < 0 ? Optional.empty() : Optional.of(current.driver(row));
+    }
+
+    /**
+     * Reads the drivers created after the given date in one pass over the creation dates.
+     *
+     * @param creationDate date the returned drivers are created after, or null to return all drivers
+     * @return drivers ordered by id
+     */
+    public List<Driver> findCreatedAfter(LocalDate creationDate, ScanStats stats) {
+        int rows = size;
+        Columns current = columns;
+        int afterDay = creationDate == null ? Integer.MIN_VALUE : epochDay(creationDate);
+        List<Driver> drivers = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            if (current.creationDays[row] > afterDay) {
+                drivers.add(current.driver(row));
+            }
+        }
+        stats.recordsScanned(rows);
+        return drivers;
+    }
+
+    /**
+     * Streams the drivers with an id greater than the given one, starting from the first of them.
+     *
+     * @param creationDate date the returned drivers are created after, or null to return all drivers
+     * @return drivers ordered by id
+     */
+    public Stream<Driver> streamAfterId(int driverId, LocalDate creationDate, ScanStats stats) {
+        int rows = size;
+        Columns current = columns;
+        int firstRow = Arrays.binarySearch(current.ids, 0, rows, driverId);
+        firstRow = firstRow < 0 ? -firstRow - 1 : firstRow + 1;
+        int afterDay = creationDate == null ? Integer.MIN_VALUE : epochDay(creationDate);
+        return IntStream.range(firstRow, rows)
+                .peek(row -> stats.recordScanned())
+                .filter(row -> current.creationDays[row] > afterDay)
+                .mapToObj(current::driver);
+    }
+
+    /**
+     * @return number of drivers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes of heap taken by the arrays of the columns
+     */
+    public long heapBytes() {
+        Columns current = columns;
+        return Integer.BYTES * (3L * current.ids.length + current.nameOffsets.length);
+    }
+
+    /**
+     * @return bytes taken outside of the heap by the buffer of the names
+     */
+    public long offHeapBytes() {
+        return columns.names.capacity();
+    }
+
+    /**
+     * Dates too far from the epoch for an int of days are moved to the first or last day an int can hold,
+     * which compares the same against the dates of the drivers.
+     */
+    private static int epochDay(LocalDate date) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, date.toEpochDay()));
+    }
+
+    private static class Columns {
+        private final int[] ids;
+        private final int[] creationDays;
+        private final int[] birthDays;
+        /**
+         * Position of the names of every row in the name buffer, followed by the end of the names of the
+         * last row. The names of a row are its first and last names separated by ';', which a stored name
+         * cannot hold.
+         */
+        private final int[] nameOffsets;
+        private final ByteBuffer names;
+
+        private Columns(int rows, int nameBytes) {
+            this(new int[rows], new int[rows], new int[rows], new int[rows + 1], ByteBuffer.allocateDirect(nameBytes));
+        }
+
+        private Columns(int[] ids, int[] creationDays, int[] birthDays, int[] nameOffsets, ByteBuffer names) {
+            this.ids = ids;
+            this.creationDays = creationDays;
+            this.birthDays = birthDays;
+            this.nameOffsets = nameOffsets;
+            this.names = names;
+        }
+
+        /**
+         * @return columns holding the given rows with room for one more row and the given name bytes, sharing
+         * the arrays that are large enough, as rows past the given ones are not read
+         */
+        private Columns grow(int rows, long nameBytes) {
+            ByteBuffer grownNames = names;
+            if (nameBytes > names.capacity()) {
+                if (nameBytes > MAX_NAME_BYTES) {
+                    throw new IllegalStateException("Driver names exceed " + MAX_NAME_BYTES + " bytes");
+                }
+                grownNames = ByteBuffer.allocateDirect((int) Math.min(MAX_NAME_BYTES,
+                        Math.max(nameBytes, names.capacity() * 2L)));
+                ByteBuffer copied = names.duplicate();
+                copied.position(0).limit(nameOffsets[rows]);
+                grownNames.put(copied);
+            }
+            if (rows < ids.length) {
+                return new Columns(ids, creationDays, birthDays, nameOffsets, grownNames);
+            }
+            int capacity = ids.length * 2;
+            return new Columns(Arrays.copyOf(ids, capacity),
+                    Arrays.copyOf(creationDays, capacity),
+                    Arrays.copyOf(birthDays, capacity),
+                    Arrays.copyOf(nameOffsets, capacity + 1),
+                    grownNames);
+        }
+
+        private Driver driver(int row) {
+            int start = nameOffsets[row];
+            byte[] bytes = new byte[nameOffsets[row + 1] - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = names.get(start + i);
+            }
+            int separator = 0;
+            while (bytes[separator] != NAME_SEPARATOR) {
+                separator++;
+            }
+            return new Driver(ids[row],
+                    new String(bytes, 0, separator, StandardCharsets.UTF_8),
+                    new String(bytes, separator + 1, bytes.length - separator - 1, StandardCharsets.UTF_8),
+                    LocalDate.ofEpochDay(birthDays[row]),
+                    LocalDate.ofEpochDay(creationDays[row]));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Counters of the stored drivers by day of creation and by day of birth, kept in maps sorted by epoch day and
+ * updated as drivers are stored. Counts of drivers created after a date, by creation period or by age band are
+ * sums over a range of the days counted, computed without reading nor building any driver. Only the days some
+ * driver was created or born on are kept, so a date far from the others, which a client may send, takes no
+ * more room than any other.
+ */
+public class DriverCounters {
+
+    private final DayCounts creationDays = new DayCounts();
+    private final DayCounts birthDays = new DayCounts();
+
+    /**
+     * Counts a stored driver, which must not be counted twice.
+     */
+    public synchronized void add(Driver driver) {
+        creationDays.increment(driver.getCreationDate().toEpochDay());
+        birthDays.increment(driver.getDateOfBirth().toEpochDay());
+    }
+
+    /**
+     * @see DriverRepository#countCreatedAfter(LocalDate)
+     */
+    public synchronized long countCreatedAfter(LocalDate creationDate) {
+        return creationDays.sum(creationDate.toEpochDay() + 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * @see DriverRepository#countCreatedByPeriod(LocalDate, CreationPeriod)
+     */
+    public synchronized SortedMap<LocalDate, Long> countCreatedByPeriod(LocalDate creationDate,
+                                                                      CreationPeriod period) {
+        SortedMap<LocalDate, Long> counts = new TreeMap<>();
+        for (Map.Entry<Long, Long> day : creationDays.between(creationDate.toEpochDay() + 1, Long.MAX_VALUE)) {
+            counts.merge(period.start(LocalDate.ofEpochDay(day.getKey())), day.getValue(), Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * @see DriverRepository#countByAge(LocalDate, int...)
+     */
+    public synchronized long[] countByAge(LocalDate date, int... ageBoundaries) {
+        long[] counts = new long[ageBoundaries.length + 1];
+        long youngestBirthDay = Long.MAX_VALUE;
+        for (int band = 0; band <= ageBoundaries.length; band++) {
+            long oldestBirthDay = band < ageBoundaries.length
+                    ? date.minusYears(ageBoundaries[band]).toEpochDay() + 1
+                    : Long.MIN_VALUE;
+            counts[band] = birthDays.sum(oldestBirthDay, youngestBirthDay);
+            youngestBirthDay = oldestBirthDay;
+        }
+        return counts;
+    }
+
+    /**
+     * Number of drivers of every day counted.
+     */
+    private static class DayCounts {
+        private final TreeMap<Long, Long> counts = new TreeMap<>();
+
+        private void increment(long day) {
+            counts.merge(day, 1L, Long::sum);
+        }
+
+        /**
+         * @return counts of the days from the first given one, inclusive, to the second, exclusive
+         */
+        private Set<Map.Entry<Long, Long>> between(long fromDay, long toDay) {
+            return fromDay < toDay ? counts.subMap(fromDay, toDay).entrySet() : Collections.emptySet();
+        }
+
+        /**
+         * @return number of drivers of the days from the first given one, inclusive, to the second, exclusive
+         */
+        private long sum(long fromDay, long toDay) {
+            long sum = 0;
+            for (Map.Entry<Long, Long> day : between(fromDay, toDay)) {
+                sum += day.getValue();
+            }
+            return sum;
+        }
+    }
+}
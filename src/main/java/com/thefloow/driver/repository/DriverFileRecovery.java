@@ -0,0 +1,85 @@
+package com.thefloow.driver.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Repairs the end of the repository file after a write was interrupted, so the drivers stored before it
+ * can still be read and the next driver id is allocated from the last complete record.
+ */
+final class DriverFileRecovery {
+
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private DriverFileRecovery() {
+    }
+
+    /**
+     * Checks the last line of the repository file when it is not terminated. A valid record, whose line
+     * separator was not written, is terminated, while a torn record is dropped by truncating the file
+     * after the last complete line.
+     *
+     * @return number of bytes dropped from the end of the repository file
+     */
+    static long recoverTail(Path repositoryPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long lineStart = lastLineStart(channel, size);
+            if (lineStart == size) {
+                return 0;
+            }
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - lineStart));
+            while (tail.hasRemaining() && channel.read(tail, lineStart + tail.position()) != -1) {
+                // keep reading until the last line is complete
+            }
+            if (isRecord(new String(tail.array(), 0, tail.position(), StandardCharsets.UTF_8))) {
+                ByteBuffer separator = ByteBuffer.wrap(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+                while (separator.hasRemaining()) {
+                    channel.write(separator, size + separator.position());
+                }
+                channel.force(false);
+                return 0;
+            }
+            channel.truncate(lineStart);
+            channel.force(false);
+            return size - lineStart;
+        }
+    }
+
+    /**
+     * @return position following the last line separator of the file, which is its size when the file is
+     * empty or its last line is terminated
+     */
+    private static long lastLineStart(FileChannel channel, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long end = size;
+        while (end > 0) {
+            long start = Math.max(0, end - READ_BUFFER_SIZE);
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) != -1) {
+                // keep reading until the block is complete
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    private static boolean isRecord(String line) {
+        String record = line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+        try {
+            FileDriverRepository.mapToDriver(record);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Single writer of the repository file. New drivers are taken from a bounded queue, get their ids
+ * allocated in order and are appended in batches through one {@link FileChannel} that is kept open,
+ * so every batch costs one write and, if enabled, one {@link FileChannel#force(boolean)}.
+ * <p>
+ * Ids are only allocated by the writer thread, so concurrent appends never get the same id. Once a batch is
+ * written, the writer publishes the new committed length of the file, and readers do not read past it, so
+ * they never block on a write nor see the records of a batch that is still being written.
+ * <p>
+ * A commit listener failing does not stop the writer, as the drivers are already stored: the failure is logged
+ * and counted, and the state the listener keeps up to date is dropped when it tells how.
+ */
+public class DriverFileWriter implements Closeable {
+
+    /**
+     * Encodes a driver record, including its trailing separator, in the format of the repository file.
+     */
+    @FunctionalInterface
+    public interface RecordEncoder {
+        byte[] encode(int driverId, Driver driver);
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DriverFileWriter.class);
+    private static final PendingWrite STOP = new PendingWrite(null, null);
+
+    private final FileChannel channel;
+    private final RecordEncoder encoder;
+    private final WriterSettings settings;
+    private final BlockingQueue<PendingWrite> queue;
+    private final AtomicInteger lastDriverId;
+    private final List<CommitListener> commitListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong commitListenerFailures = new AtomicLong();
+    private final Thread thread;
+    private final Object closeLock = new Object();
+    private volatile long committedLength;
+    private volatile long publishedLength;
+    private volatile boolean closed;
+
+    public DriverFileWriter(Path repositoryPath,
+                            int lastDriverId,
+                            RecordEncoder encoder,
+                            WriterSettings settings) throws IOException {
+        this.channel = FileChannel.open(repositoryPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.encoder = encoder;
+        this.settings = settings;
+        this.queue = new ArrayBlockingQueue<>(settings.getQueueCapacity());
+        this.lastDriverId = new AtomicInteger(lastDriverId);
+        this.committedLength = channel.size();
+        this.publishedLength = committedLength;
+        this.thread = new Thread(this::run, "driver-file-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a driver to be stored.
+     *
+     * @return future completed with the stored driver, including its new id, once its batch is written
+     */
+    public CompletableFuture<Driver> append(Driver driver) {
+        return appendAll(Collections.singletonList(driver)).thenApply(drivers -> drivers.get(0));
+    }
+
+    /**
+     * Queues drivers to be stored together: they get contiguous ids and their records are written to the
+     * file by the same write, so either all of them are stored or none is.
+     *
+     * @return future completed with the stored drivers, including their new ids, once they are written
+     */
+    public CompletableFuture<List<Driver>> appendAll(List<Driver> drivers) {
+        if (drivers.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        PendingWrite pendingWrite = new PendingWrite(drivers, new CompletableFuture<>());
+        boolean queued;
+        synchronized (closeLock) {
+            queued = !closed && queue.offer(pendingWrite);
+        }
+        if (!queued) {
+            pendingWrite.result.completeExceptionally(new ServiceException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "service.unavailable",
+                    "Repository is not accepting new drivers"));
+        }
+        return pendingWrite.result;
+    }
+
+    /**
+     * @return number of drivers waiting to be written
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Registers a listener called on the writer thread with every batch of drivers written to the file,
+     * after their ids are set and before their futures are completed.
+     */
+    public void addCommitListener(Consumer<CommittedBatch> commitListener) {
+        addCommitListener(commitListener, () -> { });
+    }
+
+    /**
+     * Registers a commit listener as {@link #addCommitListener(Consumer)} does.
+     *
+     * @param onFailure drops the state kept up to date by the listener once it fails, so it is built again
+     *                  from the repository file rather than left missing drivers
+     */
+    public void addCommitListener(Consumer<CommittedBatch> commitListener, Runnable onFailure) {
+        commitListeners.add(new CommitListener(commitListener, onFailure));
+    }
+
+    /**
+     * @return number of times a commit listener failed since the writer started
+     */
+    public long getCommitListenerFailures() {
+        return commitListenerFailures.get();
+    }
+
+    /**
+     * @return length of the repository file up to the end of the last batch completely written, which
+     * readers should not read past
+     */
+    public long getCommittedLength() {
+        return committedLength;
+    }
+
+    /**
+     * @return length of the repository file up to the end of the last batch whose commit listeners have run,
+     * which only grows as drivers are written
+     */
+    public long getPublishedLength() {
+        return publishedLength;
+    }
+
+    /**
+     * @return id of the last driver written to the repository file
+     */
+    public int getLastDriverId() {
+        return lastDriverId.get();
+    }
+
+    /**
+     * Stops taking new drivers, writes the ones already queued and closes the file. Drivers are only queued
+     * while holding the same lock as the one marking the writer closed, so none is queued behind the stop
+     * signal, where its future would never be completed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (closeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            queue.put(STOP);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(settings.getBatchSize());
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                stopping = collectBatch(batch);
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        PendingWrite pendingWrite;
+        while ((pendingWrite = queue.poll()) != null) {
+            if (pendingWrite != STOP) {
+                pendingWrite.result.completeExceptionally(new ServiceException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "service.unavailable",
+                        "Repository is not accepting new drivers"));
+            }
+        }
+    }
+
+    /**
+     * Waits for the next pending write and gathers as many others as the batch size allows, lingering
+     * up to the configured time for new ones to arrive. A pending write of several drivers is never split,
+     * even if it holds more drivers than the batch size.
+     *
+     * @return true if the writer has been asked to stop
+     */
+    private boolean collectBatch(List<PendingWrite> batch) throws InterruptedException {
+        PendingWrite next = queue.take();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getMaxLingerMillis());
+        int batchDrivers = 0;
+        while (next != null) {
+            if (next == STOP) {
+                return true;
+            }
+            batch.add(next);
+            batchDrivers += next.drivers.size();
+            if (batchDrivers >= settings.getBatchSize()) {
+                return false;
+            }
+            next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void write(List<PendingWrite> batch) {
+        int firstDriverId = lastDriverId.get() + 1;
+        List<Driver> drivers = new ArrayList<>();
+        for (PendingWrite pendingWrite : batch) {
+            drivers.addAll(pendingWrite.drivers);
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int[] recordOffsets = new int[drivers.size()];
+        long sizeBeforeWrite = -1;
+        try {
+            for (int i = 0; i < drivers.size(); i++) {
+                byte[] record = encoder.encode(firstDriverId + i, drivers.get(i));
+                recordOffsets[i] = records.size();
+                records.write(record, 0, record.length);
+            }
+            sizeBeforeWrite = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (settings.isFsync()) {
+                channel.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            discardPartialWrite(sizeBeforeWrite);
+            for (PendingWrite pendingWrite : batch) {
+                pendingWrite.result.completeExceptionally(new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                        "technical.failure",
+                        "Error writing repository file"));
+            }
+            return;
+        }
+
+        committedLength = sizeBeforeWrite + records.size();
+        lastDriverId.set(firstDriverId + drivers.size() - 1);
+        for (int i = 0; i < drivers.size(); i++) {
+            drivers.get(i).setId(firstDriverId + i);
+        }
+        CommittedBatch committed = new CommittedBatch(drivers, sizeBeforeWrite, recordOffsets, records.size());
+        for (CommitListener commitListener : commitListeners) {
+            try {
+                commitListener.listener.accept(committed);
+            } catch (RuntimeException e) {
+                commitListenerFailures.incrementAndGet();
+                LOGGER.error("Commit listener failed on the drivers {} to {}, dropping the state it keeps",
+                        firstDriverId, firstDriverId + drivers.size() - 1, e);
+                try {
+                    commitListener.onFailure.run();
+                } catch (RuntimeException dropFailure) {
+                    LOGGER.error("Failed to drop the state of a failed commit listener", dropFailure);
+                }
+            }
+        }
+        publishedLength = committedLength;
+        for (PendingWrite pendingWrite : batch) {
+            pendingWrite.result.complete(pendingWrite.drivers);
+        }
+    }
+
+    private void discardPartialWrite(long sizeBeforeWrite) {
+        if (sizeBeforeWrite < 0) {
+            return;
+        }
+        try {
+            channel.truncate(sizeBeforeWrite);
+        } catch (IOException e) {
+            // the file is left as it is, a later write will fail again if the channel is broken
+        }
+    }
+
+    /**
+     * Drivers written to the repository file by one batch, with the position of their records.
+     */
+    public static class CommittedBatch {
+        private final List<Driver> drivers;
+        private final long startOffset;
+        private final int[] recordOffsets;
+        private final int length;
+
+        private CommittedBatch(List<Driver> drivers, long startOffset, int[] recordOffsets, int length) {
+            this.drivers = drivers;
+            this.startOffset = startOffset;
+            this.recordOffsets = recordOffsets;
+            this.length = length;
+        }
+
+        public List<Driver> getDrivers() {
+            return drivers;
+        }
+
+        /**
+         * @return position in the repository file of the record of the i-th driver of the batch
+         */
+        public long getRecordOffset(int i) {
+            return startOffset + recordOffsets[i];
+        }
+
+        /**
+         * @return number of bytes written to the repository file for the batch
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return position in the repository file right after the last record of the batch
+         */
+        public long getEndOffset() {
+            return startOffset + length;
+        }
+    }
+
+    private static class CommitListener {
+        private final Consumer<CommittedBatch> listener;
+        private final Runnable onFailure;
+
+        private CommitListener(Consumer<CommittedBatch> listener, Runnable onFailure) {
+            this.listener = listener;
+            this.onFailure = onFailure;
+        }
+    }
+
+    private static class PendingWrite {
+        private final List<Driver> drivers;
+        private final CompletableFuture<List<Driver>> result;
+
+        private PendingWrite(List<Driver> drivers, CompletableFuture<List<Driver>> result) {
+            this.drivers = drivers;
+            this.result = result;
+        }
+    }
+}
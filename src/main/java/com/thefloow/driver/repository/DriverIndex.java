@@ -0,0 +1,56 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the drivers stored in the repository file, by id and by creation date.
+ * It can be read while drivers are being added, and adding the same driver twice has no effect.
+ */
+public class DriverIndex {
+
+    private final ConcurrentSkipListMap<Integer, Driver> driversById = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<LocalDate, ConcurrentSkipListMap<Integer, Driver>> driversByCreationDate =
+            new ConcurrentSkipListMap<>();
+
+    public void add(Driver driver) {
+        driversByCreationDate.computeIfAbsent(driver.getCreationDate(), date -> new ConcurrentSkipListMap<>())
+                .put(driver.getId(), driver);
+        driversById.put(driver.getId(), driver);
+    }
+
+    public Optional<Driver> findById(int driverId) {
+        return Optional.ofNullable(driversById.get(driverId));
+    }
+
+    /**
+     * @return all drivers, ordered by id
+     */
+    public Stream<Driver> streamAll() {
+        return driversById.values().stream();
+    }
+
+    /**
+     * @return drivers with an id greater than the given one, ordered by id
+     */
+    public Stream<Driver> streamAfterId(int driverId) {
+        return driversById.tailMap(driverId, false).values().stream();
+    }
+
+    /**
+     * Finds the drivers through the creation date index, then sorts them back in the order of the repository
+     * file, which the other scan modes return them in.
+     *
+     * @return drivers created after the given date, ordered by id
+     */
+    public Stream<Driver> streamCreatedAfter(LocalDate creationDate) {
+        return driversByCreationDate.tailMap(creationDate, false).values().stream()
+                .flatMap(createdOnDate -> createdOnDate.values().stream())
+                .sorted(Comparator.comparingInt(Driver::getId));
+    }
+}
@@ -0,0 +1,110 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of the first and last names of the stored drivers, to find drivers by the beginning of their
+ * name. Names are folded to lower case and stripped of accents, and kept in a sorted map, so the names starting
+ * with a prefix are one range of the map, found without going through the other names. Every name holds the ids
+ * of its drivers, in increasing order in a primitive array, and drivers are only read once found.
+ * <p>
+ * It can be read while drivers are being added, and adding the same driver twice has no effect.
+ */
+public class DriverNameIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final ConcurrentSkipListMap<String, DriverIds> driverIdsByName = new ConcurrentSkipListMap<>();
+
+    public void add(Driver driver) {
+        String firstName = normalize(driver.getFirstName());
+        String lastName = normalize(driver.getLastName());
+        add(firstName, driver.getId());
+        if (!lastName.equals(firstName)) {
+            add(lastName, driver.getId());
+        }
+    }
+
+    /**
+     * Finds the drivers whose first or last name starts with the given prefix, regardless of case and accents.
+     * Drivers whose name is the prefix itself come first, then the others by name, and drivers of the same
+     * name by id.
+     *
+     * @return ids of at most the given number of drivers
+     */
+    public List<Integer> findIds(String namePrefix, int limit) {
+        String prefix = normalize(namePrefix);
+        if (prefix.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Set<Integer> ids = new LinkedHashSet<>();
+        DriverIds exactMatches = driverIdsByName.get(prefix);
+        if (exactMatches != null) {
+            exactMatches.copyTo(ids, limit);
+        }
+        for (Map.Entry<String, DriverIds> name
+                : driverIdsByName.subMap(prefix, false, prefix + Character.MAX_VALUE, false).entrySet()) {
+            if (ids.size() >= limit) {
+                break;
+            }
+            name.getValue().copyTo(ids, limit);
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * @return number of distinct names indexed
+     */
+    public int size() {
+        return driverIdsByName.size();
+    }
+
+    private void add(String name, int driverId) {
+        if (!name.isEmpty()) {
+            driverIdsByName.computeIfAbsent(name, key -> new DriverIds()).add(driverId);
+        }
+    }
+
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(name.trim(), Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Ids of the drivers of one name, appended in increasing order as drivers are stored ordered by id.
+     */
+    private static class DriverIds {
+        private int[] ids = new int[1];
+        private int size;
+
+        private synchronized void add(int driverId) {
+            if (size > 0 && driverId <= ids[size - 1]) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = driverId;
+        }
+
+        private synchronized void copyTo(Set<Integer> target, int limit) {
+            for (int i = 0; i < size && target.size() < limit; i++) {
+                target.add(ids[i]);
+            }
+        }
+    }
+}
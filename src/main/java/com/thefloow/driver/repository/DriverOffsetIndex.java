@@ -0,0 +1,279 @@
+package com.thefloow.driver.repository;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Index of the position of every record in the repository file, kept in primitive arrays sorted by id as the
+ * records are stored ordered by id. It finds the record of a driver with a binary search and no boxing, and it
+ * is persisted to a sidecar file so a restart only has to read the records appended after it was saved.
+ * A checkpoint only appends the entries added since the sidecar was last written, followed by its header.
+ * <pre>
+ * sidecar: magic "DRVI" | int version | long indexed repository length | int count | count * (int id | long offset)
+ * </pre>
+ */
+public class DriverOffsetIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAGIC = 0x44525649;
+    private static final int VERSION = 1;
+    private static final int MAX_ID_LENGTH = 11;
+    private static final int HEADER_SIZE = 20;
+    private static final int LENGTH_POSITION = 8;
+    private static final int ENTRY_SIZE = 12;
+
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int size;
+    private long indexedLength;
+    private int persistedSize = -1;
+
+    /**
+     * Builds the index of an existing repository file, reading it once. Records whose id cannot be parsed
+     * are left out of the index.
+     */
+    public static DriverOffsetIndex build(Path repositoryPath) throws IOException {
+        DriverOffsetIndex index = new DriverOffsetIndex();
+        index.scan(repositoryPath);
+        return index;
+    }
+
+    /**
+     * Loads the index saved in the sidecar file and indexes the records appended to the repository file since
+     * it was saved. The index is built again from the whole repository file when the sidecar file is missing,
+     * unreadable or does not match the repository file.
+     */
+    public static DriverOffsetIndex load(Path repositoryPath, Path indexPath) throws IOException {
+        DriverOffsetIndex index = readSidecar(indexPath);
+        if (index == null || !index.matches(repositoryPath)) {
+            return build(repositoryPath);
+        }
+        index.scan(repositoryPath);
+        return index;
+    }
+
+    /**
+     * Registers a record appended to the repository file.
+     */
+    public synchronized void add(int id, long offset) {
+        append(id, offset);
+    }
+
+    /**
+     * Registers the length of the repository file once all its records are indexed.
+     */
+    public synchronized void setIndexedLength(long indexedLength) {
+        this.indexedLength = indexedLength;
+    }
+
+    /**
+     * @return position of the record of the given id, or -1 if there is none
+     */
+    public synchronized long offset(int id) {
+        int found = Arrays.binarySearch(ids, 0, size, id);
+        return found >= 0 ? offsets[found] : -1;
+    }
+
+    /**
+     * @return position of a record with an id lower or equal to the given one, from where reading the file
+     * reaches the record of the given id, or 0 if there is none
+     */
+    public synchronized long floorOffset(int id) {
+        int found = Arrays.binarySearch(ids, 0, size, id);
+        int floor = found >= 0 ? found : -found - 2;
+        return floor >= 0 ? offsets[floor] : 0;
+    }
+
+    /**
+     * Writes the index to the sidecar file, replacing it once completely written.
+     */
+    public synchronized void save(Path indexPath) throws IOException {
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(tempPath))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(indexedLength);
+            output.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                output.writeInt(ids[i]);
+                output.writeLong(offsets[i]);
+            }
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        persistedSize = size;
+    }
+
+    /**
+     * Brings the sidecar file up to date with the index. The entries added since the sidecar was written are
+     * appended to it and forced before its header is updated to count them, so an interrupted checkpoint leaves
+     * the previous sidecar valid. The whole sidecar is written again when this index did not write it.
+     */
+    public void checkpoint(Path indexPath) throws IOException {
+        int fromSize;
+        int toSize;
+        long length;
+        ByteBuffer entries;
+        synchronized (this) {
+            if (persistedSize < 0 || Files.notExists(indexPath)) {
+                save(indexPath);
+                return;
+            }
+            fromSize = persistedSize;
+            toSize = size;
+            length = indexedLength;
+            entries = ByteBuffer.allocate((toSize - fromSize) * ENTRY_SIZE);
+            for (int i = fromSize; i < toSize; i++) {
+                entries.putInt(ids[i]).putLong(offsets[i]);
+            }
+        }
+        entries.flip();
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE + (long) fromSize * ENTRY_SIZE;
+            while (entries.hasRemaining()) {
+                channel.write(entries, position + entries.position());
+            }
+            channel.force(false);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE - LENGTH_POSITION).putLong(length).putInt(toSize);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, LENGTH_POSITION + header.position());
+            }
+            channel.force(false);
+        }
+        synchronized (this) {
+            persistedSize = Math.max(persistedSize, toSize);
+        }
+    }
+
+    private static DriverOffsetIndex readSidecar(Path indexPath) {
+        if (Files.notExists(indexPath)) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(indexPath))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return null;
+            }
+            DriverOffsetIndex index = new DriverOffsetIndex();
+            index.indexedLength = input.readLong();
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                index.append(input.readInt(), input.readLong());
+            }
+            index.persistedSize = index.size == count ? count : -1;
+            return index;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the sidecar was saved from the current repository file: the indexed length ends on a record
+     * boundary within the file, and the last indexed record is found where the index says.
+     */
+    private boolean matches(Path repositoryPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ)) {
+            long repositoryLength = channel.size();
+            if (indexedLength > repositoryLength) {
+                return false;
+            }
+            if (indexedLength > 0 && indexedLength < repositoryLength
+                    && readByte(channel, indexedLength - 1) != '\n') {
+                return false;
+            }
+            return size == 0 || readId(channel, offsets[size - 1]) == ids[size - 1];
+        }
+    }
+
+    /**
+     * Indexes the records of the repository file found after the indexed length.
+     */
+    private void scan(Path repositoryPath) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ)) {
+            long position = indexedLength;
+            channel.position(position);
+            boolean lineStart = true;
+            boolean parsingId = false;
+            int id = 0;
+            long recordOffset = 0;
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        lineStart = true;
+                        parsingId = false;
+                    } else if (lineStart && b != '\r') {
+                        lineStart = false;
+                        parsingId = true;
+                        id = 0;
+                        recordOffset = position;
+                    }
+                    if (parsingId && b != '\n') {
+                        if (b == ';') {
+                            append(id, recordOffset);
+                            parsingId = false;
+                        } else if (b >= '0' && b <= '9') {
+                            id = id * 10 + b - '0';
+                        } else {
+                            parsingId = false;
+                        }
+                    }
+                    position++;
+                }
+                buffer.clear();
+            }
+            indexedLength = position;
+        }
+    }
+
+    private synchronized void append(int id, long offset) {
+        if (size > 0 && id <= ids[size - 1]) {
+            return;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        ids[size] = id;
+        offsets[size] = offset;
+        size++;
+    }
+
+    private static byte readByte(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        return channel.read(buffer, position) == 1 ? buffer.get(0) : -1;
+    }
+
+    /**
+     * @return id of the record found at the given position, or -1 if there is no record starting there
+     */
+    private static int readId(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_ID_LENGTH + 1);
+        channel.read(buffer, position);
+        buffer.flip();
+        int id = 0;
+        int digits = 0;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == ';') {
+                return digits > 0 ? id : -1;
+            }
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            id = id * 10 + b - '0';
+            digits++;
+        }
+        return -1;
+    }
+}
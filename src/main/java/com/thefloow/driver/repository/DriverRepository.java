@@ -4,7 +4,11 @@ import com.thefloow.driver.model.Driver;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface DriverRepository {
 
@@ -12,5 +16,100 @@ public interface DriverRepository {
 
     CompletableFuture<List<Driver>> findCreatedAfter(LocalDate creationDate);
 
+    /**
+     * Provides the driver of the given id, or an empty result if there is none.
+     */
+    CompletableFuture<Optional<Driver>> findById(int driverId);
+
+    /**
+     * Provides one page of drivers ordered by id.
+     *
+     * @param afterId id of the last driver of the previous page, or 0 for the first page
+     * @param limit   maximum number of drivers returned
+     */
+    CompletableFuture<List<Driver>> findAll(int afterId, int limit);
+
+    /**
+     * Provides one page of the drivers created after the given date, ordered by id.
+     *
+     * @param afterId id of the last driver of the previous page, or 0 for the first page
+     * @param limit   maximum number of drivers returned
+     */
+    CompletableFuture<List<Driver>> findCreatedAfter(LocalDate creationDate, int afterId, int limit);
+
+    /**
+     * Finds the drivers whose first or last name starts with the given prefix, regardless of case and accents,
+     * without reading the drivers of other names. Drivers whose name is the prefix itself come first, then the
+     * others by name, and drivers of the same name by id.
+     *
+     * @param limit maximum number of drivers returned
+     */
+    CompletableFuture<List<Driver>> findByName(String namePrefix, int limit);
+
+    /**
+     * Counts the drivers created after the given date with counters kept up to date as drivers are stored,
+     * without reading any driver.
+     */
+    CompletableFuture<Long> countCreatedAfter(LocalDate creationDate);
+
+    /**
+     * Counts the drivers created after the given date in every day or month, as {@link #countCreatedAfter}.
+     *
+     * @return number of drivers by first day of every period that has any, in order
+     */
+    CompletableFuture<SortedMap<LocalDate, Long>> countCreatedByPeriod(LocalDate creationDate, CreationPeriod period);
+
+    /**
+     * Counts the drivers of every age band on the given date, as {@link #countCreatedAfter}.
+     *
+     * @param ageBoundaries ages in increasing order from which a band starts, the first band being the ages
+     *                      below the first boundary and the last one the ages from the last boundary
+     * @return number of drivers of every band, from the youngest
+     */
+    CompletableFuture<long[]> countByAge(LocalDate date, int... ageBoundaries);
+
+    /**
+     * Streams all the drivers without loading them all in memory. The stream holds repository resources
+     * and has to be closed once consumed.
+     */
+    Stream<Driver> streamAll();
+
+    /**
+     * Streams the drivers created after the given date, ordered by id, without loading them all in memory.
+     * The stream holds repository resources and has to be closed once consumed.
+     */
+    Stream<Driver> streamCreatedAfter(LocalDate creationDate);
+
+    /**
+     * Provides the version of the stored drivers, which changes whenever drivers are stored and is not
+     * reused after a restart, without reading them.
+     */
+    long getVersion();
+
     CompletableFuture<Driver> save(Driver driver);
+
+    /**
+     * Stores the given drivers at once: they get contiguous ids, in the order given, and either all of them
+     * are stored or none is.
+     *
+     * @return future completed with the stored drivers, including their new ids
+     */
+    CompletableFuture<List<Driver>> saveAll(List<Driver> drivers);
+
+    /**
+     * Checks a valid driver can be stored as it is, so the drivers of a batch that cannot are left out of it
+     * rather than failing the whole batch.
+     *
+     * @return why the driver cannot be stored, or an empty result if it can
+     */
+    default Optional<String> checkStorable(Driver driver) {
+        return Optional.empty();
+    }
+
+    /**
+     * Registers a listener called with the drivers of every batch once stored, in the order of their ids and
+     * once the reads of the repository return them. It is called on the thread storing the drivers, which
+     * waits for it, so it must not block.
+     */
+    void addSaveListener(Consumer<List<Driver>> saveListener);
 }
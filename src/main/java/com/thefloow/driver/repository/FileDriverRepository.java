@@ -3,33 +3,199 @@ package com.thefloow.driver.repository;
 import com.thefloow.driver.controller.error.ServiceException;
 import com.thefloow.driver.model.Driver;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Repository;
 
-import java.io.BufferedWriter;
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Repository
-public class FileDriverRepository implements DriverRepository {
+@ConditionalOnProperty(name = "repository.engine", havingValue = "TEXT", matchIfMissing = true)
+public class FileDriverRepository implements DriverRepository, Closeable {
 
     private static final Integer DRIVER_RECORD_SIZE = 5;
+    private static final int CHECKED_DRIVER_RECORD_SIZE = DRIVER_RECORD_SIZE + 1;
+    private static final String OFFSET_INDEX_EXTENSION = ".idx";
+    private static final String MONTH_MANIFEST_EXTENSION = ".months";
+    private static final int RECORD_READ_SIZE = 256;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 60000;
+    private static final long CHECKPOINT_SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final String CHECKPOINT_THREAD_NAME = "driver-offset-index-checkpoint";
 
     private final Path repositoryPath;
+    private final ScanMode scanMode;
+    private final MappedDriverScanner mappedScanner;
+    private final ParallelRangeScanner rangeScanner;
+    private final DriverFileWriter writer;
+    private final CompletableFuture<DriverIndex> driverIndex;
+    private final CompletableFuture<DriverColumns> driverColumns;
+    private final Object secondaryIndexesLock = new Object();
+    private CompletableFuture<SecondaryIndexes> secondaryIndexes;
+    private List<Driver> driversSavedWhileIndexing;
+    private final DriverOffsetIndex offsetIndex;
+    private final Path offsetIndexPath;
+    private final CreationMonthManifest monthManifest;
+    private final Path monthManifestPath;
+    private final Executor readExecutor;
+    private final RepositoryMetrics metrics;
+    private final ScheduledExecutorService checkpointScheduler;
+    private final CreatedAfterCache createdAfterCache;
 
+    public FileDriverRepository(Path repositoryPath) {
+        this(repositoryPath, WriterSettings.defaults(), ScanMode.INDEX);
+    }
+
+    public FileDriverRepository(Path repositoryPath, WriterSettings writerSettings, ScanMode scanMode) {
+        this(repositoryPath, writerSettings, scanMode, ForkJoinPool.commonPool());
+    }
+
+    public FileDriverRepository(Path repositoryPath,
+                                WriterSettings writerSettings,
+                                ScanMode scanMode,
+                                Executor readExecutor) {
+        this(repositoryPath, writerSettings, scanMode, readExecutor, RepositoryMetrics.noop());
+    }
+
+    public FileDriverRepository(Path repositoryPath,
+                                WriterSettings writerSettings,
+                                ScanMode scanMode,
+                                Executor readExecutor,
+                                RepositoryMetrics metrics) {
+        this(repositoryPath, writerSettings, scanMode, readExecutor, metrics, DEFAULT_CHECKPOINT_INTERVAL_MILLIS,
+                CacheSettings.defaults());
+    }
+
+    /**
+     * @param readExecutor             executor running the reads of the repository file, which may reject them
+     *                                 when busy
+     * @param checkpointIntervalMillis time between two checkpoints of the offset index to its sidecar file
+     * @param cacheSettings            settings of the cache of the drivers created after a date
+     */
+    public FileDriverRepository(Path repositoryPath,
+                                WriterSettings writerSettings,
+                                ScanMode scanMode,
+                                Executor readExecutor,
+                                RepositoryMetrics metrics,
+                                long checkpointIntervalMillis,
+                                CacheSettings cacheSettings) {
+        this(repositoryPath, writerSettings, scanMode, readExecutor, metrics, checkpointIntervalMillis,
+                cacheSettings, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param readExecutor             executor running the reads of the repository file, which may reject them
+     *                                 when busy
+     * @param checkpointIntervalMillis time between two checkpoints of the offset index to its sidecar file
+     * @param cacheSettings            settings of the cache of the drivers created after a date
+     * @param scanPool                 pool between whose threads the reads of whole repository files are split
+     */
     @Autowired
-    public FileDriverRepository(@Autowired Path repositoryPath) {
+    public FileDriverRepository(@Autowired Path repositoryPath,
+                                @Autowired WriterSettings writerSettings,
+                                @Value("${repository.scan-mode}") ScanMode scanMode,
+                                @Qualifier("repositoryReadExecutor") Executor readExecutor,
+                                @Autowired RepositoryMetrics metrics,
+                                @Value("${repository.checkpoint-interval-ms}") long checkpointIntervalMillis,
+                                @Autowired CacheSettings cacheSettings,
+                                @Qualifier("repositoryScanPool") ForkJoinPool scanPool) {
         this.repositoryPath = repositoryPath;
+        this.scanMode = scanMode;
+        this.readExecutor = readExecutor;
+        this.metrics = metrics;
+        this.mappedScanner = new MappedDriverScanner(repositoryPath);
+        this.rangeScanner = new ParallelRangeScanner(repositoryPath, scanPool);
+        this.offsetIndexPath = repositoryPath.resolveSibling(repositoryPath.getFileName() + OFFSET_INDEX_EXTENSION);
+        this.monthManifestPath = repositoryPath.resolveSibling(
+                repositoryPath.getFileName() + MONTH_MANIFEST_EXTENSION);
+        this.createdAfterCache = new CreatedAfterCache(cacheSettings, Comparator.comparing(Driver::getId), metrics);
         try {
             initializeRepositoryFile(repositoryPath);
-        } catch (IOException e) {
+            DriverFileRecovery.recoverTail(repositoryPath);
+            this.driverIndex = scanMode == ScanMode.INDEX ? loadRecords(FileDriverRepository::indexDrivers) : null;
+            this.driverColumns = scanMode == ScanMode.COLUMNAR
+                    ? loadRecords(FileDriverRepository::columnDrivers)
+                    : null;
+            if (driverIndex != null) {
+                this.secondaryIndexes = driverIndex.thenApply(index -> SecondaryIndexes.of(index.streamAll()));
+            } else if (driverColumns != null) {
+                this.secondaryIndexes = driverColumns.thenApply(columns ->
+                        SecondaryIndexes.of(columns.streamAfterId(0, null, new ScanStats())));
+            }
+            this.offsetIndex = scanMode.isInMemory()
+                    ? null
+                    : DriverOffsetIndex.load(repositoryPath, offsetIndexPath);
+            this.monthManifest = scanMode.isInMemory()
+                    ? null
+                    : CreationMonthManifest.load(repositoryPath, monthManifestPath);
+            this.writer = new DriverFileWriter(repositoryPath,
+                    readLastDriverId(repositoryPath),
+                    FileDriverRepository::encodeRecord,
+                    writerSettings);
+            if (driverIndex != null) {
+                this.writer.addCommitListener(batch ->
+                        addToLoaded(driverIndex, index -> batch.getDrivers().forEach(index::add)));
+            }
+            if (driverColumns != null) {
+                this.writer.addCommitListener(batch ->
+                        addToLoaded(driverColumns, columns -> batch.getDrivers().forEach(columns::add)));
+                driverColumns.thenAccept(metrics::monitorColumns);
+            }
+            if (offsetIndex != null) {
+                this.writer.addCommitListener(batch -> {
+                    for (int i = 0; i < batch.getDrivers().size(); i++) {
+                        offsetIndex.add(batch.getDrivers().get(i).getId(), batch.getRecordOffset(i));
+                    }
+                    offsetIndex.setIndexedLength(batch.getEndOffset());
+                });
+            }
+            if (monthManifest != null) {
+                this.writer.addCommitListener(batch -> {
+                    for (int i = 0; i < batch.getDrivers().size(); i++) {
+                        monthManifest.add(batch.getDrivers().get(i).getCreationDate(), batch.getRecordOffset(i));
+                    }
+                    monthManifest.setIndexedLength(batch.getEndOffset());
+                });
+            }
+            this.writer.addCommitListener(batch -> addToSecondaryIndexes(batch.getDrivers()),
+                    this::dropSecondaryIndexes);
+            this.writer.addCommitListener(metrics::recordBatch);
+            this.writer.addCommitListener(batch -> createdAfterCache.add(batch.getDrivers()),
+                    createdAfterCache::clear);
+            metrics.monitorWriter(writer);
+            metrics.monitorFile(repositoryPath);
+            this.checkpointScheduler = offsetIndex == null ? null : scheduleCheckpoints(checkpointIntervalMillis);
+        } catch (IOException | NumberFormatException e) {
             throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
                     "technical.failure",
                     "Error initializing repository file");
@@ -38,53 +204,194 @@ public class FileDriverRepository implements DriverRepository {
 
     @Override
     public CompletableFuture<List<Driver>> findAll() {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return Files.lines(repositoryPath)
-                        .map(this::mapToDriver)
-                        .collect(Collectors.toList());
-            } catch (IOException e) {
-                throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
-                        "technical.failure",
-                        "Error reading repository file");
+        return metrics.timed("findAll", () -> CompletableFuture.supplyAsync(() ->
+                scan("findAll", null), readExecutor));
+    }
+
+    /**
+     * Provides the drivers created after the given date from the results cache, or reads them from the
+     * repository and caches them.
+     */
+    @Override
+    public CompletableFuture<List<Driver>> findCreatedAfter(LocalDate creationDate) {
+        return metrics.timed("findCreatedAfter", () -> {
+            List<Driver> cached = createdAfterCache.get(creationDate);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
             }
+            long generation = createdAfterCache.generation();
+            return CompletableFuture.supplyAsync(() -> createdAfterCache.put(creationDate,
+                    scan("findCreatedAfter", creationDate), generation), readExecutor);
         });
     }
 
     @Override
-    public CompletableFuture<List<Driver>> findCreatedAfter(LocalDate creationDate) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return Files.lines(repositoryPath)
-                        .map(this::mapToDriver)
-                        .filter(driver -> driver.getCreationDate().isAfter(creationDate))
-                        .collect(Collectors.toList());
-            } catch (IOException e) {
-                throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
-                        "technical.failure",
-                        "Error reading repository file ");
+    public CompletableFuture<List<Driver>> findAll(int afterId, int limit) {
+        return metrics.timed("findAllPage", () -> CompletableFuture.supplyAsync(() ->
+                collect(counted("findAllPage", stats -> streamAfterId(afterId, null, stats).limit(limit))),
+                readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<List<Driver>> findCreatedAfter(LocalDate creationDate, int afterId, int limit) {
+        return metrics.timed("findCreatedAfterPage", () -> CompletableFuture.supplyAsync(() ->
+                collect(counted("findCreatedAfterPage",
+                        stats -> streamAfterId(afterId, creationDate, stats).limit(limit))),
+                readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Driver>> findById(int driverId) {
+        return metrics.timed("findById", () -> CompletableFuture.supplyAsync(() -> {
+            ScanStats stats = new ScanStats();
+            Optional<Driver> driver = findById(driverId, stats);
+            metrics.record("findById", stats, driver.isPresent() ? 1 : 0);
+            return driver;
+        }, readExecutor));
+    }
+
+    /**
+     * Finds the ids of the drivers in the name index and reads them as {@link #findById(int)} does.
+     */
+    @Override
+    public CompletableFuture<List<Driver>> findByName(String namePrefix, int limit) {
+        return metrics.timed("findByName", () -> secondaryIndexes().thenApplyAsync(indexes -> {
+            ScanStats stats = new ScanStats();
+            List<Driver> drivers = new ArrayList<>();
+            for (int driverId : indexes.names.findIds(namePrefix, limit)) {
+                findById(driverId, stats).ifPresent(drivers::add);
             }
+            metrics.record("findByName", stats, drivers.size());
+            return drivers;
+        }, readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<Long> countCreatedAfter(LocalDate creationDate) {
+        return metrics.timed("countCreatedAfter", () -> secondaryIndexes().thenApplyAsync(indexes ->
+                indexes.counters.countCreatedAfter(creationDate), readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<SortedMap<LocalDate, Long>> countCreatedByPeriod(LocalDate creationDate,
+                                                                              CreationPeriod period) {
+        return metrics.timed("countCreatedByPeriod", () -> secondaryIndexes().thenApplyAsync(indexes ->
+                indexes.counters.countCreatedByPeriod(creationDate, period), readExecutor));
+    }
+
+    @Override
+    public CompletableFuture<long[]> countByAge(LocalDate date, int... ageBoundaries) {
+        return metrics.timed("countByAge", () -> secondaryIndexes().thenApplyAsync(indexes ->
+                indexes.counters.countByAge(date, ageBoundaries), readExecutor));
+    }
+
+    /**
+     * Streams all the drivers, reading the ranges of the repository file in parallel in the scan modes which
+     * read it.
+     */
+    @Override
+    public Stream<Driver> streamAll() {
+        return metrics.timedStream("streamAll", () -> counted("streamAll", stats ->
+                scanMode == ScanMode.LINES || scanMode == ScanMode.MAPPED
+                        ? streamRanges(null, stats)
+                        : streamAfterId(0, null, stats)));
+    }
+
+    /**
+     * Streams the drivers created after the given date from the results cache, or reads them from the
+     * repository and caches them once they are all read.
+     */
+    @Override
+    public Stream<Driver> streamCreatedAfter(LocalDate creationDate) {
+        return metrics.timedStream("streamCreatedAfter", () -> {
+            List<Driver> cached = createdAfterCache.get(creationDate);
+            return cached != null
+                    ? cached.stream()
+                    : createdAfterCache.caching(creationDate, () ->
+                            counted("streamCreatedAfter", stats -> streamCreatedAfter(creationDate, stats)));
         });
     }
 
+    /**
+     * @return length of the repository file once the last stored drivers can be read
+     */
+    @Override
+    public long getVersion() {
+        return writer.getPublishedLength();
+    }
+
+    Path getRepositoryPath() {
+        return repositoryPath;
+    }
+
+    ScanMode getScanMode() {
+        return scanMode;
+    }
+
+    /**
+     * @return length of the repository file up to which records are complete and can be read
+     */
+    long getCommittedLength() {
+        return writer.getCommittedLength();
+    }
+
+    /**
+     * @return position of the repository file from where reading it reaches every driver created after the
+     * given date, skipping the months before the date
+     */
+    long getCreatedAfterOffset(LocalDate creationDate) {
+        return monthManifest == null ? 0 : monthManifest.startOffset(creationDate);
+    }
+
     @Override
     public CompletableFuture<Driver> save(Driver driver) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (BufferedWriter writer = Files.newBufferedWriter(
-                    repositoryPath, StandardCharsets.UTF_8, StandardOpenOption.APPEND)
-            ) {
-                Integer nextDriverId = getNextDriverId();
-                writer.write(mapToString(nextDriverId, driver));
-                writer.newLine();
-                driver.setId(nextDriverId);
-            } catch (IOException e) {
-                throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
-                        "technical.failure",
-                        "Error writing repository file");
+        return metrics.timed("save", () -> writer.append(driver));
+    }
+
+    @Override
+    public CompletableFuture<List<Driver>> saveAll(List<Driver> drivers) {
+        return metrics.timed("saveAll", () -> writer.appendAll(drivers));
+    }
+
+    @Override
+    public void addSaveListener(Consumer<List<Driver>> saveListener) {
+        writer.addCommitListener(batch -> saveListener.accept(batch.getDrivers()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        if (offsetIndex != null) {
+            checkpointScheduler.shutdown();
+            try {
+                checkpointScheduler.awaitTermination(CHECKPOINT_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            offsetIndex.checkpoint(offsetIndexPath);
+            monthManifest.save(monthManifestPath);
+        }
+    }
 
-            return driver;
+    /**
+     * Checkpoints the offset index and the month manifest in the background, so a restart only reads the
+     * records appended since the last checkpoint. A failed checkpoint is retried by the next one.
+     */
+    private ScheduledExecutorService scheduleCheckpoints(long intervalMillis) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, CHECKPOINT_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
         });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                offsetIndex.checkpoint(offsetIndexPath);
+                monthManifest.save(monthManifestPath);
+            } catch (IOException | RuntimeException e) {
+                // the sidecar file is left as it was, the next checkpoint writes the missing entries
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return scheduler;
     }
 
     private void initializeRepositoryFile(Path repositoryPath) throws IOException {
@@ -93,9 +400,434 @@ public class FileDriverRepository implements DriverRepository {
         }
     }
 
-    private Driver mapToDriver(String driverRecord) {
+    private Optional<Driver> findById(int driverId, ScanStats stats) {
+        if (scanMode.isInMemory()) {
+            Optional<Driver> driver = scanMode == ScanMode.INDEX
+                    ? loadedDriverIndex().findById(driverId)
+                    : loaded(driverColumns).findById(driverId);
+            driver.ifPresent(found -> stats.recordScanned());
+            return driver;
+        }
+        long offset = offsetIndex.offset(driverId);
+        return offset < 0 ? Optional.empty() : Optional.of(mapToDriver(readRecord(offset, stats)));
+    }
+
+    /**
+     * Streams the drivers with an id greater than the given one, starting to read the repository file
+     * from the closest position known by the offset index, or from the month of the creation date when
+     * it comes after.
+     *
+     * @param creationDate date the returned drivers are created after, or null to return all drivers
+     */
+    private Stream<Driver> streamAfterId(int afterId, LocalDate creationDate, ScanStats stats) {
+        Stream<Driver> drivers;
+        switch (scanMode) {
+            case INDEX:
+                drivers = loadedDriverIndex().streamAfterId(afterId).peek(driver -> stats.recordScanned());
+                break;
+            case COLUMNAR:
+                return loaded(driverColumns).streamAfterId(afterId, creationDate, stats);
+            case MAPPED:
+                return mappedScanner.stream(creationDate, startOffset(afterId, creationDate),
+                        writer.getCommittedLength(), stats)
+                        .filter(driver -> driver.getId() > afterId);
+            default:
+                drivers = lines(startOffset(afterId, creationDate), stats)
+                        .map(FileDriverRepository::mapToDriver)
+                        .filter(driver -> driver.getId() > afterId);
+        }
+        return creationDate == null
+                ? drivers
+                : drivers.filter(driver -> driver.getCreationDate().isAfter(creationDate));
+    }
+
+    /**
+     * @return position of a record from where reading the repository file reaches the drivers with an id
+     * greater than the given one and, if a date is given, created after it
+     */
+    private long startOffset(int afterId, LocalDate creationDate) {
+        long afterIdOffset = offsetIndex.floorOffset(afterId);
+        return creationDate == null
+                ? afterIdOffset
+                : Math.max(afterIdOffset, monthManifest.startOffset(creationDate));
+    }
+
+    /**
+     * Streams the drivers created after the given date in the order of the repository file, which is only
+     * read from the month of the date.
+     */
+    private Stream<Driver> streamCreatedAfter(LocalDate creationDate, ScanStats stats) {
+        switch (scanMode) {
+            case INDEX:
+                return loadedDriverIndex().streamCreatedAfter(creationDate).peek(driver -> stats.recordScanned());
+            case COLUMNAR:
+                return loaded(driverColumns).streamAfterId(0, creationDate, stats);
+            default:
+                return streamRanges(creationDate, stats);
+        }
+    }
+
+    /**
+     * Streams the drivers created after the given date, or all of them, in the order of the repository file,
+     * whose ranges are read ahead by the threads of the scan pool from the first record of the month of the
+     * date up to its committed length.
+     *
+     * @param creationDate date the returned drivers are created after, or null to return all drivers
+     */
+    private Stream<Driver> streamRanges(LocalDate creationDate, ScanStats stats) {
+        long startOffset = creationDate == null ? 0 : monthManifest.startOffset(creationDate);
+        return rangeScanner.stream(startOffset, writer.getCommittedLength(),
+                (rangeStart, rangeEnd, rangeStats) -> readRange(creationDate, rangeStart, rangeEnd, rangeStats),
+                stats);
+    }
+
+    /**
+     * Reads the drivers created after the given date, or all of them, counting them and the work done to find
+     * them. The columns are filtered in one loop, while the repository file is split between the threads of
+     * the scan pool, from the first record of the month of the date up to its committed length.
+     *
+     * @param creationDate date the returned drivers are created after, or null to return all drivers
+     */
+    private List<Driver> scan(String operation, LocalDate creationDate) {
+        if (scanMode == ScanMode.INDEX) {
+            return collect(counted(operation, stats -> creationDate == null
+                    ? streamAfterId(0, null, stats)
+                    : streamCreatedAfter(creationDate, stats)));
+        }
+        ScanStats stats = new ScanStats();
+        List<Driver> drivers;
+        if (scanMode == ScanMode.COLUMNAR) {
+            drivers = loaded(driverColumns).findCreatedAfter(creationDate, stats);
+        } else {
+            long startOffset = creationDate == null ? 0 : monthManifest.startOffset(creationDate);
+            drivers = rangeScanner.scan(startOffset, writer.getCommittedLength(),
+                    (rangeStart, rangeEnd, rangeStats) -> readRange(creationDate, rangeStart, rangeEnd, rangeStats),
+                    stats);
+        }
+        metrics.record(operation, stats, drivers.size());
+        return drivers;
+    }
+
+    private Stream<Driver> readRange(LocalDate creationDate, long startOffset, long endOffset, ScanStats stats) {
+        if (scanMode == ScanMode.MAPPED) {
+            return mappedScanner.stream(creationDate, startOffset, endOffset, stats);
+        }
+        Stream<Driver> drivers = lines(startOffset, endOffset, stats).map(FileDriverRepository::mapToDriver);
+        return creationDate == null
+                ? drivers
+                : drivers.filter(driver -> driver.getCreationDate().isAfter(creationDate));
+    }
+
+    /**
+     * Opens a read of the repository, counting the drivers it returns and the work done to find them.
+     */
+    private Stream<Driver> counted(String operation, Function<ScanStats, Stream<Driver>> read) {
+        ScanStats stats = new ScanStats();
+        return metrics.counted(operation, read.apply(stats), stats);
+    }
+
+    private static List<Driver> collect(Stream<Driver> drivers) {
+        try (Stream<Driver> closeableDrivers = drivers) {
+            return closeableDrivers.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads the lines of the repository file up to its committed length, so a batch being written is not read.
+     *
+     * @param startOffset position of the first line to read, which has to be the beginning of a record
+     */
+    private Stream<String> lines(long startOffset, ScanStats stats) {
+        return lines(startOffset, writer.getCommittedLength(), stats);
+    }
+
+    /**
+     * Reads the lines of the repository file between two positions.
+     *
+     * @param startOffset position of the first line to read, which has to be the beginning of a record
+     * @param endOffset   position the read ends at, as if it was the end of the file
+     */
+    private Stream<String> lines(long startOffset, long endOffset, ScanStats stats) {
+        try {
+            FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ);
+            channel.position(startOffset);
+            BufferedReader reader = new BufferedReader(Channels.newReader(
+                    new CommittedChannel(channel, endOffset), StandardCharsets.UTF_8.name()));
+            return reader.lines().peek(line -> stats.recordScanned()).onClose(() -> {
+                try {
+                    stats.bytesRead(channel.position() - startOffset);
+                    reader.close();
+                } catch (IOException e) {
+                    throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                            "technical.failure",
+                            "Error reading repository file");
+                }
+            });
+        } catch (IOException e) {
+            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error reading repository file");
+        }
+    }
+
+    /**
+     * Reads the record starting at the given position with positioned reads, without reading the rest of
+     * the repository file.
+     */
+    private String readRecord(long offset, ScanStats stats) {
+        try (FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_READ_SIZE);
+            int searched = 0;
+            while (true) {
+                int read = channel.read(buffer, offset + buffer.position());
+                for (int i = searched; i < buffer.position(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        stats.recordScanned();
+                        stats.bytesRead(i + 1);
+                        return decodeLine(buffer, i);
+                    }
+                }
+                if (read == -1) {
+                    stats.recordScanned();
+                    stats.bytesRead(buffer.position());
+                    return decodeLine(buffer, buffer.position());
+                }
+                searched = buffer.position();
+                if (!buffer.hasRemaining()) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put((ByteBuffer) buffer.flip());
+                }
+            }
+        } catch (IOException e) {
+            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error reading repository file");
+        }
+    }
+
+    /**
+     * Reads a file channel up to a given position, ending there as if it was the end of the file.
+     */
+    private static class CommittedChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private final long endOffset;
+
+        private CommittedChannel(FileChannel channel, long endOffset) {
+            this.channel = channel;
+            this.endOffset = endOffset;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            long remaining = endOffset - channel.position();
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (buffer.remaining() <= remaining) {
+                return channel.read(buffer);
+            }
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + (int) remaining);
+            try {
+                return channel.read(buffer);
+            } finally {
+                buffer.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static String decodeLine(ByteBuffer buffer, int end) {
+        int contentEnd = end > 0 && buffer.get(end - 1) == '\r' ? end - 1 : end;
+        return new String(buffer.array(), 0, contentEnd, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the index of the repository file, or throws the failure that prevented it from being loaded
+     */
+    private DriverIndex loadedDriverIndex() {
+        return loaded(driverIndex);
+    }
+
+    /**
+     * @return the loaded index, or throws the failure that prevented it from being loaded
+     */
+    private static <T> T loaded(CompletableFuture<T> index) {
+        try {
+            return index.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Provides the name index and the counters of the drivers. The scan modes reading the repository file build
+     * them on their first use rather than on start, so a start only reads the tail of the file and a repository
+     * never searched nor counted does not keep them. They are built once on the read executor, timed as any
+     * read, and the reads using them wait for the build without holding a thread. The drivers saved while they
+     * are built are kept aside and added once the file is read, unless the read found them.
+     */
+    private CompletableFuture<SecondaryIndexes> secondaryIndexes() {
+        synchronized (secondaryIndexesLock) {
+            if (secondaryIndexes == null) {
+                CompletableFuture<SecondaryIndexes> building = new CompletableFuture<>();
+                List<Driver> savedWhileBuilding = new ArrayList<>();
+                driversSavedWhileIndexing = savedWhileBuilding;
+                try {
+                    secondaryIndexes = metrics.timed("buildSecondaryIndexes", () -> {
+                        CompletableFuture.runAsync(() -> buildSecondaryIndexes(building, savedWhileBuilding),
+                                readExecutor);
+                        return building;
+                    });
+                } catch (RejectedExecutionException e) {
+                    // built by the next read the executor accepts
+                    driversSavedWhileIndexing = null;
+                    throw e;
+                }
+            }
+            return secondaryIndexes;
+        }
+    }
+
+    /**
+     * Reads the repository file into new indexes, completed along with the drivers saved meanwhile so no
+     * driver saved afterwards is missed.
+     */
+    private void buildSecondaryIndexes(CompletableFuture<SecondaryIndexes> building,
+                                       List<Driver> savedWhileBuilding) {
+        ScanStats stats = new ScanStats();
+        SecondaryIndexes built = null;
+        RuntimeException failure = null;
+        try (Stream<Driver> drivers = lines(0, stats).map(FileDriverRepository::mapToDriver)) {
+            built = SecondaryIndexes.of(drivers);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        metrics.record("buildSecondaryIndexes", stats, stats.getRecordsScanned());
+        synchronized (secondaryIndexesLock) {
+            if (built != null) {
+                for (Driver driver : savedWhileBuilding) {
+                    if (driver.getId() > built.lastDriverId) {
+                        built.add(driver);
+                    }
+                }
+                building.complete(built);
+            } else {
+                building.completeExceptionally(failure);
+            }
+            // unless the indexes were dropped meanwhile and are being built again
+            if (driversSavedWhileIndexing == savedWhileBuilding) {
+                driversSavedWhileIndexing = null;
+            }
+        }
+    }
+
+    /**
+     * Adds drivers just saved to the indexes, on the writer thread so a failure to add them is reported to it.
+     */
+    private void addToSecondaryIndexes(List<Driver> drivers) {
+        synchronized (secondaryIndexesLock) {
+            if (driversSavedWhileIndexing != null) {
+                driversSavedWhileIndexing.addAll(drivers);
+            } else if (secondaryIndexes != null && !secondaryIndexes.isCompletedExceptionally()) {
+                SecondaryIndexes indexes = secondaryIndexes.join();
+                drivers.forEach(indexes::add);
+            }
+        }
+    }
+
+    /**
+     * Drops the indexes once they missed saved drivers, so the next read using them builds them again from the
+     * repository file.
+     */
+    private void dropSecondaryIndexes() {
+        synchronized (secondaryIndexesLock) {
+            secondaryIndexes = null;
+            driversSavedWhileIndexing = null;
+        }
+    }
+
+    /**
+     * Applies a committed batch to an in-memory index on the writer thread, so a failure to apply it is reported
+     * to the writer, unless the index failed to load and every read reports it already.
+     */
+    private static <T> void addToLoaded(CompletableFuture<T> index, Consumer<T> add) {
+        if (!index.isCompletedExceptionally()) {
+            add.accept(index.join());
+        }
+    }
+
+    /**
+     * Reads all the records of the repository file into a new in-memory index. A failure is kept in the
+     * returned future so it is reported by every read instead of preventing the repository from starting.
+     *
+     * @param indexer builds the index of the drivers of the repository file
+     * @return future completed with the index of the repository file
+     */
+    private <T> CompletableFuture<T> loadRecords(Function<Stream<Driver>, T> indexer) {
+        CompletableFuture<T> loaded = new CompletableFuture<>();
+        try (Stream<String> lines = Files.lines(repositoryPath)) {
+            loaded.complete(indexer.apply(lines.map(FileDriverRepository::mapToDriver)));
+        } catch (IOException e) {
+            loaded.completeExceptionally(new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error reading repository file"));
+        } catch (RuntimeException e) {
+            loaded.completeExceptionally(e);
+        }
+        return loaded;
+    }
+
+    private static DriverIndex indexDrivers(Stream<Driver> drivers) {
+        DriverIndex index = new DriverIndex();
+        drivers.forEach(index::add);
+        return index;
+    }
+
+    private static DriverColumns columnDrivers(Stream<Driver> drivers) {
+        DriverColumns columns = new DriverColumns();
+        drivers.forEach(columns::add);
+        return columns;
+    }
+
+    /**
+     * Indexes of the drivers kept in memory in every scan mode: their names, and counters by creation date
+     * and date of birth.
+     */
+    private static class SecondaryIndexes {
+        private final DriverNameIndex names = new DriverNameIndex();
+        private final DriverCounters counters = new DriverCounters();
+        private int lastDriverId;
+
+        private static SecondaryIndexes of(Stream<Driver> drivers) {
+            SecondaryIndexes indexes = new SecondaryIndexes();
+            drivers.forEach(indexes::add);
+            return indexes;
+        }
+
+        private void add(Driver driver) {
+            names.add(driver);
+            counters.add(driver);
+            lastDriverId = Math.max(lastDriverId, driver.getId());
+        }
+    }
+
+    /**
+     * Parses a record of the repository file. Records are stored with a last checksum field, which is
+     * verified, while records stored before checksums were added have none.
+     */
+    static Driver mapToDriver(String driverRecord) {
         String[] splitted = driverRecord.split(";");
-        if (splitted.length != DRIVER_RECORD_SIZE) {
+        if (splitted.length != DRIVER_RECORD_SIZE
+                && (splitted.length != CHECKED_DRIVER_RECORD_SIZE || !checksumMatches(driverRecord, splitted[5]))) {
             throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
                     "technical.failure",
                     "Error reading repository file record");
@@ -109,6 +841,27 @@ public class FileDriverRepository implements DriverRepository {
         );
     }
 
+    /**
+     * @return whether the checksum field matches the fields it follows
+     */
+    private static boolean checksumMatches(String driverRecord, String checksum) {
+        byte[] fields = driverRecord.substring(0, driverRecord.lastIndexOf(';')).getBytes(StandardCharsets.UTF_8);
+        try {
+            return RecordChecksum.parse(checksum) == RecordChecksum.of(fields, 0, fields.length);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] encodeRecord(int driverId, Driver driver) {
+        byte[] fields = mapToString(driverId, driver).getBytes(StandardCharsets.UTF_8);
+        byte[] trailer = (";" + RecordChecksum.format(RecordChecksum.of(fields, 0, fields.length))
+                + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        byte[] record = Arrays.copyOf(fields, fields.length + trailer.length);
+        System.arraycopy(trailer, 0, record, fields.length, trailer.length);
+        return record;
+    }
+
     private static String mapToString(Integer driverId, Driver driver) {
         return new StringBuilder()
                 .append(driverId).append(";")
@@ -119,26 +872,22 @@ public class FileDriverRepository implements DriverRepository {
     }
 
     /**
-     * Reads repository file, gets last driverId stored and increments it by one.
+     * Reads repository file backwards from its end and gets last driverId stored, so the id allocation
+     * does not depend on the size of the repository file.
      *
-     * @return last driverId stored in repository file plus one
+     * @return last driverId stored in repository file, or 0 if it is empty
      */
-    private Integer getNextDriverId() {
-        try {
-            List<String> allLines = Files.readAllLines(repositoryPath);
+    private static int readLastDriverId(Path repositoryPath) throws IOException {
+        try (ReverseLineReader reader = new ReverseLineReader(repositoryPath)) {
+            String lastLine = reader.readLine();
 
-            if (allLines.isEmpty()) {
-                return 1;
+            if (lastLine == null) {
+                return 0;
             }
 
-            String lastLine = allLines.get(allLines.size() - 1);
-            String[] splitted = lastLine.split(";");
+            String[] splitted = lastLine.split(";", 2);
 
-            return Integer.parseInt(splitted[0]) + 1;
-        } catch (IOException e) {
-            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
-                    "technical.failure",
-                    "Error reading repository file");
+            return Integer.parseInt(splitted[0]);
         }
     }
 }
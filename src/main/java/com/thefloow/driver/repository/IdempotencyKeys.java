@@ -0,0 +1,251 @@
+package com.thefloow.driver.repository;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Ids of the drivers created with an idempotency key, so a client retrying a creation gets the driver created
+ * the first time rather than a new one. Keys are kept for a time window and up to a maximum number of keys,
+ * the oldest being forgotten first.
+ * <p>
+ * A Bloom filter of the keys of the window is checked before the keys themselves without locking, so looking
+ * up a new key, which most creations have, neither waits for the other creations nor goes through the keys.
+ * The filter cannot forget a key, so there are two of them, the keys added in the current window and those of
+ * the previous one, and the older is dropped as a new window starts.
+ * <p>
+ * Every key is appended to a journal next to the repository file with the id of its driver, the time it was
+ * added and a checksum, and the keys of the window are loaded from it on start. The journal is rewritten with
+ * the keys kept once it holds twice as many lines.
+ */
+public class IdempotencyKeys implements Closeable {
+
+    private static final Pattern VALID_KEY = Pattern.compile("[\\x21-\\x3a\\x3c-\\x7e]{1,255}");
+    private static final int MIN_JOURNAL_LINES = 1024;
+
+    private final Path journalPath;
+    private final int maxKeys;
+    private final long windowMillis;
+    private final Clock clock;
+    private final Map<String, KeyedDriver> driverIds = new LinkedHashMap<>();
+    private volatile BloomFilter currentFilter;
+    private volatile BloomFilter previousFilter;
+    private long currentWindowStart;
+    private FileChannel journal;
+    private int journalLines;
+
+    /**
+     * @param journalPath  file the keys are kept in between restarts
+     * @param maxKeys      maximum number of keys kept
+     * @param windowMillis time a key is kept for
+     */
+    public IdempotencyKeys(Path journalPath, int maxKeys, long windowMillis) throws IOException {
+        this(journalPath, maxKeys, windowMillis, Clock.systemUTC());
+    }
+
+    IdempotencyKeys(Path journalPath, int maxKeys, long windowMillis, Clock clock) throws IOException {
+        if (maxKeys < 1 || windowMillis < 1) {
+            throw new IllegalArgumentException("Invalid idempotency key settings");
+        }
+        this.journalPath = journalPath;
+        this.maxKeys = maxKeys;
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+        this.currentFilter = new BloomFilter(maxKeys);
+        this.previousFilter = new BloomFilter(1);
+        this.currentWindowStart = clock.millis();
+        load();
+    }
+
+    /**
+     * @return whether the key is made of 1 to 255 visible ASCII characters other than ';'
+     */
+    public static boolean isValid(String key) {
+        return key != null && VALID_KEY.matcher(key).matches();
+    }
+
+    /**
+     * @return id of the driver created with the key within the window, or 0 if there is none
+     */
+    public int find(String key) {
+        if (!currentFilter.mightContain(key) && !previousFilter.mightContain(key)) {
+            return 0;
+        }
+        synchronized (this) {
+            KeyedDriver keyed = driverIds.get(key);
+            return keyed == null || isExpired(keyed, clock.millis()) ? 0 : keyed.driverId;
+        }
+    }
+
+    /**
+     * Keeps the id of the driver created with the key, replacing the one kept for the key if any.
+     */
+    public synchronized void put(String key, int driverId) {
+        if (!isValid(key)) {
+            throw new IllegalArgumentException("Invalid idempotency key");
+        }
+        long now = clock.millis();
+        add(key, new KeyedDriver(driverId, now), now);
+        try {
+            appendToJournal(key, driverIds.get(key));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return number of keys kept, including the ones expired but not removed yet
+     */
+    public synchronized int size() {
+        return driverIds.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Reads the keys of the window from the journal. Lines whose checksum does not match, such as a line
+     * not completely written, are left out.
+     */
+    private void load() throws IOException {
+        long now = clock.millis();
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                journalLines++;
+                String[] fields = line.split(";");
+                if (fields.length != 4 || !checksumMatches(line, fields[3])) {
+                    continue;
+                }
+                try {
+                    KeyedDriver keyed = new KeyedDriver(Integer.parseInt(fields[1]), Long.parseLong(fields[2]));
+                    if (!isExpired(keyed, now)) {
+                        driverIds.remove(fields[0]);
+                        add(fields[0], keyed, now);
+                    }
+                } catch (NumberFormatException e) {
+                    // left out as any other line that does not match its checksum
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // no key was kept yet
+        }
+    }
+
+    private void add(String key, KeyedDriver keyed, long now) {
+        if (now - currentWindowStart >= windowMillis) {
+            previousFilter = currentFilter;
+            currentFilter = new BloomFilter(maxKeys);
+            currentWindowStart = now;
+        }
+        driverIds.put(key, keyed);
+        currentFilter.add(key);
+        Iterator<KeyedDriver> oldest = driverIds.values().iterator();
+        while (oldest.hasNext()) {
+            KeyedDriver next = oldest.next();
+            if (driverIds.size() <= maxKeys && !isExpired(next, now)) {
+                break;
+            }
+            oldest.remove();
+        }
+    }
+
+    private boolean isExpired(KeyedDriver keyed, long now) {
+        return now - keyed.addedAt >= windowMillis;
+    }
+
+    private void appendToJournal(String key, KeyedDriver keyed) throws IOException {
+        if (journalLines >= Math.max(MIN_JOURNAL_LINES, 2 * maxKeys)) {
+            rewriteJournal();
+            return;
+        }
+        if (journal == null) {
+            journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            journal.position(journal.size());
+            endLastLine();
+        }
+        ByteBuffer line = ByteBuffer.wrap(journalLine(key, keyed));
+        while (line.hasRemaining()) {
+            journal.write(line);
+        }
+        journalLines++;
+    }
+
+    /**
+     * Ends the line the journal was left with if it was not completely written, so the next line is not
+     * appended to it.
+     */
+    private void endLastLine() throws IOException {
+        long size = journal.size();
+        ByteBuffer lastByte = ByteBuffer.allocate(1);
+        if (size > 0 && journal.read(lastByte, size - 1) == 1 && lastByte.get(0) != '\n') {
+            journal.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+    }
+
+    /**
+     * Writes the keys kept to a new journal, which replaces the current one once completely written.
+     */
+    private void rewriteJournal() throws IOException {
+        close();
+        Path rewritten = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(rewritten, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, KeyedDriver> entry : driverIds.entrySet()) {
+                ByteBuffer line = ByteBuffer.wrap(journalLine(entry.getKey(), entry.getValue()));
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(rewritten, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journalLines = driverIds.size();
+    }
+
+    private static byte[] journalLine(String key, KeyedDriver keyed) {
+        byte[] fields = (key + ";" + keyed.driverId + ";" + keyed.addedAt).getBytes(StandardCharsets.US_ASCII);
+        return (key + ";" + keyed.driverId + ";" + keyed.addedAt + ";"
+                + RecordChecksum.format(RecordChecksum.of(fields, 0, fields.length)) + "\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static boolean checksumMatches(String line, String checksum) {
+        byte[] fields = line.substring(0, line.lastIndexOf(';')).getBytes(StandardCharsets.US_ASCII);
+        try {
+            return RecordChecksum.parse(checksum) == RecordChecksum.of(fields, 0, fields.length);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static class KeyedDriver {
+        private final int driverId;
+        private final long addedAt;
+
+        private KeyedDriver(int driverId, long addedAt) {
+            this.driverId = driverId;
+            this.addedAt = addedAt;
+        }
+    }
+}
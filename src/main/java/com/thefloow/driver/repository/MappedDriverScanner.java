@@ -0,0 +1,333 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Scans the repository file through memory mapped windows of {@link FileChannel#map}, parsing ids and
+ * dates straight from the mapped bytes. No line strings or split arrays are allocated, and names are
+ * only decoded for the records that pass the filter.
+ */
+public class MappedDriverScanner {
+
+    private static final int MAX_WINDOW_SIZE = 1 << 30;
+    private static final int DRIVER_RECORD_SIZE = 5;
+    private static final int CHECKED_DRIVER_RECORD_SIZE = DRIVER_RECORD_SIZE + 1;
+    private static final int DATE_LENGTH = 10;
+
+    private final Path repositoryPath;
+    private final int windowSize;
+
+    public MappedDriverScanner(Path repositoryPath) {
+        this(repositoryPath, MAX_WINDOW_SIZE);
+    }
+
+    MappedDriverScanner(Path repositoryPath, int windowSize) {
+        this.repositoryPath = repositoryPath;
+        this.windowSize = windowSize;
+    }
+
+    public List<Driver> findAll() {
+        try (Stream<Driver> drivers = stream(null)) {
+            return drivers.collect(Collectors.toList());
+        }
+    }
+
+    public List<Driver> findCreatedAfter(LocalDate creationDate) {
+        try (Stream<Driver> drivers = stream(creationDate)) {
+            return drivers.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Opens a lazy scan of the repository file, which has to be closed once consumed.
+     *
+     * @param creationDate date the returned drivers are created after, or null to return all drivers
+     */
+    public Stream<Driver> stream(LocalDate creationDate) {
+        return stream(creationDate, 0);
+    }
+
+    /**
+     * Opens a lazy scan of the repository file, which has to be closed once consumed.
+     *
+     * @param creationDate date the returned drivers are created after, or null to return all drivers
+     * @param startOffset  position of the first record to read
+     */
+    public Stream<Driver> stream(LocalDate creationDate, long startOffset) {
+        return stream(creationDate, startOffset, Long.MAX_VALUE, new ScanStats());
+    }
+
+    /**
+     * Opens a lazy scan of the repository file, which has to be closed once consumed.
+     *
+     * @param creationDate date the returned drivers are created after, or null to return all drivers
+     * @param startOffset  position of the first record to read
+     * @param endOffset    position the scan stops at, such as the committed length of a file being written
+     * @param stats        updated with the records parsed and the bytes read by the scan
+     */
+    public Stream<Driver> stream(LocalDate creationDate, long startOffset, long endOffset, ScanStats stats) {
+        long minCreationDateKey = creationDate == null ? Long.MIN_VALUE : toDateKey(creationDate) + 1;
+        Cursor cursor;
+        try {
+            cursor = new Cursor(FileChannel.open(repositoryPath, StandardOpenOption.READ),
+                    minCreationDateKey,
+                    startOffset,
+                    endOffset,
+                    stats);
+        } catch (IOException e) {
+            throw readFailure();
+        }
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(cursor::close);
+    }
+
+    /**
+     * Walks the lines of the file one mapped window at a time. A line that does not fit in what is
+     * left of a window is read again from the beginning of the next one.
+     */
+    private class Cursor implements Iterator<Driver> {
+        private final FileChannel channel;
+        private final long size;
+        private final long minCreationDateKey;
+        private final long startOffset;
+        private final ScanStats stats;
+        private final int[] separators = new int[CHECKED_DRIVER_RECORD_SIZE - 1];
+        private MappedByteBuffer window;
+        private long windowStart;
+        private boolean lastWindow;
+        private int position;
+        private Driver next;
+
+        private Cursor(FileChannel channel, long minCreationDateKey, long startOffset, long endOffset, ScanStats stats)
+                throws IOException {
+            this.channel = channel;
+            this.size = Math.min(channel.size(), endOffset);
+            this.minCreationDateKey = minCreationDateKey;
+            this.startOffset = startOffset;
+            this.stats = stats;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Driver next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Driver driver = next;
+            next = null;
+            return driver;
+        }
+
+        private Driver advance() {
+            while (true) {
+                if (window == null || position >= window.limit()) {
+                    long nextWindowStart = window == null ? startOffset : windowStart + position;
+                    if (nextWindowStart >= size) {
+                        return null;
+                    }
+                    map(nextWindowStart);
+                }
+                int lineStart = position;
+                int limit = window.limit();
+                int lineEnd = lineStart;
+                while (lineEnd < limit && window.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                if (lineEnd == limit && !lastWindow) {
+                    if (lineStart == 0) {
+                        throw invalidRecord();
+                    }
+                    map(windowStart + lineStart);
+                    continue;
+                }
+                position = lineEnd + 1;
+                stats.bytesRead(Math.min(position, limit) - lineStart);
+                int contentEnd = lineEnd;
+                if (contentEnd > lineStart && window.get(contentEnd - 1) == '\r') {
+                    contentEnd--;
+                }
+                if (contentEnd > lineStart) {
+                    stats.recordScanned();
+                    Driver driver = parseRecord(window, lineStart, contentEnd, minCreationDateKey, separators);
+                    if (driver != null) {
+                        return driver;
+                    }
+                }
+            }
+        }
+
+        private void map(long start) {
+            long length = Math.min(windowSize, size - start);
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw readFailure();
+            }
+            windowStart = start;
+            lastWindow = start + length == size;
+            position = 0;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw readFailure();
+            }
+        }
+    }
+
+    /**
+     * Parses a record, verifying its checksum field when it has one.
+     *
+     * @return the driver stored in the record, or null if it was created before the given date
+     */
+    private static Driver parseRecord(MappedByteBuffer window,
+                                      int start,
+                                      int end,
+                                      long minCreationDateKey,
+                                      int[] separators) {
+        int found = 0;
+        for (int i = start; i < end; i++) {
+            if (window.get(i) == ';') {
+                if (found == separators.length) {
+                    throw invalidRecord();
+                }
+                separators[found++] = i;
+            }
+        }
+        int fieldsEnd = end;
+        if (found == CHECKED_DRIVER_RECORD_SIZE - 1) {
+            fieldsEnd = separators[DRIVER_RECORD_SIZE - 1];
+            if (parseChecksum(window, fieldsEnd + 1, end) != RecordChecksum.of(window, start, fieldsEnd)) {
+                throw invalidRecord();
+            }
+        } else if (found != DRIVER_RECORD_SIZE - 1) {
+            throw invalidRecord();
+        }
+
+        long creationDateKey = parseDateKey(window, separators[3] + 1, fieldsEnd);
+        if (creationDateKey < minCreationDateKey) {
+            return null;
+        }
+        return new Driver(
+                parseInt(window, start, separators[0]),
+                decode(window, separators[0] + 1, separators[1]),
+                decode(window, separators[1] + 1, separators[2]),
+                toLocalDate(parseDateKey(window, separators[2] + 1, separators[3])),
+                toLocalDate(creationDateKey)
+        );
+    }
+
+    private static int parseInt(MappedByteBuffer window, int start, int end) {
+        if (start == end) {
+            throw invalidRecord();
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + digit(window.get(i));
+        }
+        return value;
+    }
+
+    private static int parseChecksum(MappedByteBuffer window, int start, int end) {
+        if (end - start != RecordChecksum.LENGTH) {
+            throw invalidRecord();
+        }
+        int checksum = 0;
+        try {
+            for (int i = start; i < end; i++) {
+                checksum = checksum << 4 | RecordChecksum.hexValue(window.get(i));
+            }
+        } catch (IllegalArgumentException e) {
+            throw invalidRecord();
+        }
+        return checksum;
+    }
+
+    /**
+     * Parses an ISO date into a yyyyMMdd number, which keeps the ordering of the dates. A date other than
+     * yyyy-MM-dd, such as one of a year past 9999, is decoded and parsed as a whole, as the other scan modes do.
+     */
+    private static long parseDateKey(MappedByteBuffer window, int start, int end) {
+        if (end - start == DATE_LENGTH && window.get(start + 4) == '-' && window.get(start + 7) == '-') {
+            int year = parseInt(window, start, start + 4);
+            int month = parseInt(window, start + 5, start + 7);
+            int day = parseInt(window, start + 8, start + 10);
+            return year * 10000L + month * 100 + day;
+        }
+        try {
+            return toDateKey(LocalDate.parse(decode(window, start, end)));
+        } catch (DateTimeParseException e) {
+            throw invalidRecord();
+        }
+    }
+
+    private static int digit(byte b) {
+        if (b < '0' || b > '9') {
+            throw invalidRecord();
+        }
+        return b - '0';
+    }
+
+    private static String decode(MappedByteBuffer window, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = window.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long toDateKey(LocalDate date) {
+        return date.getYear() * 10000L + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+    private static LocalDate toLocalDate(long dateKey) {
+        try {
+            return LocalDate.of((int) Math.floorDiv(dateKey, 10000L),
+                    (int) Math.floorMod(dateKey, 10000L) / 100,
+                    (int) Math.floorMod(dateKey, 100L));
+        } catch (RuntimeException e) {
+            throw invalidRecord();
+        }
+    }
+
+    private static ServiceException readFailure() {
+        return new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                "technical.failure",
+                "Error reading repository file");
+    }
+
+    private static ServiceException invalidRecord() {
+        return new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                "technical.failure",
+                "Error reading repository file record");
+    }
+}
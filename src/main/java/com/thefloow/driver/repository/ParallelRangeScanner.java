@@ -0,0 +1,279 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Scans a part of the repository file with the threads of a {@link ForkJoinPool}. The part is split into as
+ * many byte ranges as the pool has threads, each one starting right after a line separator so no record is
+ * cut, and the ranges are parsed and filtered in parallel. Records are stored ordered by id, so the drivers
+ * of the ranges joined in the order of the file are ordered by id too.
+ * <p>
+ * Streamed parts are split into ranges of the minimum range size instead, read ahead of the one being
+ * consumed by as many threads as the pool has, so only the drivers of those ranges are held in memory.
+ * <p>
+ * Parts smaller than two ranges of the minimum range size are read by the calling thread alone.
+ */
+public class ParallelRangeScanner {
+
+    /**
+     * Reads the drivers of the records between two positions of the repository file, which both have to be
+     * the beginning of a record or the end of the read.
+     */
+    @FunctionalInterface
+    public interface RangeReader {
+        Stream<Driver> read(long startOffset, long endOffset, ScanStats stats);
+    }
+
+    private static final long MIN_RANGE_SIZE = 1 << 20;
+    private static final int SEPARATOR_READ_SIZE = 256;
+
+    private final Path repositoryPath;
+    private final ForkJoinPool pool;
+    private final long minRangeSize;
+
+    public ParallelRangeScanner(Path repositoryPath, ForkJoinPool pool) {
+        this(repositoryPath, pool, MIN_RANGE_SIZE);
+    }
+
+    ParallelRangeScanner(Path repositoryPath, ForkJoinPool pool, long minRangeSize) {
+        this.repositoryPath = repositoryPath;
+        this.pool = pool;
+        this.minRangeSize = minRangeSize;
+    }
+
+    /**
+     * Reads the drivers between two positions of the repository file, in the order of the file.
+     *
+     * @param startOffset position of the first record to read
+     * @param endOffset   position the scan stops at, such as the committed length of a file being written
+     * @param stats       updated with the work done by all the ranges once they are read
+     */
+    public List<Driver> scan(long startOffset, long endOffset, RangeReader reader, ScanStats stats) {
+        long[] boundaries = split(startOffset, endOffset);
+        if (boundaries.length == 2) {
+            return readRange(reader, startOffset, endOffset, stats);
+        }
+        RangeTask task = new RangeTask(reader, boundaries, 0, boundaries.length - 1);
+        List<Driver> drivers = pool.invoke(task);
+        task.addStats(stats);
+        return drivers;
+    }
+
+    /**
+     * Streams the drivers between two positions of the repository file, in the order of the file.
+     *
+     * @param startOffset position of the first record to read
+     * @param endOffset   position the scan stops at, such as the committed length of a file being written
+     * @param stats       updated with the work done by every range once its drivers are streamed
+     */
+    public Stream<Driver> stream(long startOffset, long endOffset, RangeReader reader, ScanStats stats) {
+        long[] boundaries = split(startOffset, endOffset,
+                (int) Math.min(Integer.MAX_VALUE - 1, (endOffset - startOffset) / minRangeSize));
+        if (boundaries.length == 2) {
+            return reader.read(startOffset, endOffset, stats);
+        }
+        RangesReadAhead ranges = new RangesReadAhead(reader, boundaries, stats);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(ranges,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(ranges::cancel);
+    }
+
+    /**
+     * Splits the part of the file into as many ranges of about the same size as the pool has threads.
+     */
+    long[] split(long startOffset, long endOffset) {
+        return split(startOffset, endOffset,
+                (int) Math.min(pool.getParallelism(), (endOffset - startOffset) / minRangeSize));
+    }
+
+    /**
+     * Splits the part of the file into ranges of about the same size which begin with a record.
+     *
+     * @return positions of the beginning of every range, followed by the end of the part
+     */
+    private long[] split(long startOffset, long endOffset, int maxRangeCount) {
+        long length = endOffset - startOffset;
+        int rangeCount = Math.max(1, maxRangeCount);
+        List<Long> boundaries = new ArrayList<>(rangeCount + 1);
+        boundaries.add(startOffset);
+        if (rangeCount > 1) {
+            try (FileChannel channel = FileChannel.open(repositoryPath, StandardOpenOption.READ)) {
+                for (int i = 1; i < rangeCount; i++) {
+                    long previous = boundaries.get(boundaries.size() - 1);
+                    long boundary = nextRecordStart(channel,
+                            Math.max(previous + 1, startOffset + length * i / rangeCount), endOffset);
+                    if (boundary >= endOffset) {
+                        break;
+                    }
+                    boundaries.add(boundary);
+                }
+            } catch (IOException e) {
+                throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                        "technical.failure",
+                        "Error reading repository file");
+            }
+        }
+        boundaries.add(endOffset);
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * @return position right after the first line separator found at or after the given position minus one,
+     * which is the given position when it already begins a record, or the end offset if there is none
+     */
+    private static long nextRecordStart(FileChannel channel, long position, long endOffset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SEPARATOR_READ_SIZE);
+        long searched = position - 1;
+        while (searched < endOffset) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), endOffset - searched));
+            int read = channel.read(buffer, searched);
+            if (read <= 0) {
+                return endOffset;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return searched + i + 1;
+                }
+            }
+            searched += read;
+        }
+        return endOffset;
+    }
+
+    private static List<Driver> readRange(RangeReader reader, long startOffset, long endOffset, ScanStats stats) {
+        try (Stream<Driver> drivers = reader.read(startOffset, endOffset, stats)) {
+            return drivers.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Iterates over the drivers of the ranges in their order, keeping as many ranges submitted to the pool
+     * as it has threads ahead of the one being iterated over.
+     */
+    private class RangesReadAhead implements Iterator<Driver> {
+        private final RangeReader reader;
+        private final long[] boundaries;
+        private final ScanStats stats;
+        private final Deque<RangeTask> reads = new ArrayDeque<>();
+        private int nextRange;
+        private Iterator<Driver> current = Collections.emptyIterator();
+
+        private RangesReadAhead(RangeReader reader, long[] boundaries, ScanStats stats) {
+            this.reader = reader;
+            this.boundaries = boundaries;
+            this.stats = stats;
+            while (reads.size() < pool.getParallelism() && nextRange < boundaries.length - 1) {
+                submitNext();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                RangeTask read = reads.poll();
+                if (read == null) {
+                    return false;
+                }
+                if (nextRange < boundaries.length - 1) {
+                    submitNext();
+                }
+                current = read.join().iterator();
+                read.addStats(stats);
+            }
+            return true;
+        }
+
+        @Override
+        public Driver next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        private void submitNext() {
+            RangeTask read = new RangeTask(reader, boundaries, nextRange, nextRange + 1);
+            pool.execute(read);
+            reads.add(read);
+            nextRange++;
+        }
+
+        /**
+         * Cancels the reads of the ranges not iterated over yet, when the stream is closed before its end.
+         */
+        private void cancel() {
+            reads.forEach(read -> read.cancel(false));
+            reads.clear();
+        }
+    }
+
+    /**
+     * Reads a sequence of ranges, forking the first half and reading the second one, then appending the
+     * drivers of the second half to those of the first.
+     */
+    private static class RangeTask extends RecursiveTask<List<Driver>> {
+        private final RangeReader reader;
+        private final long[] boundaries;
+        private final int fromRange;
+        private final int toRange;
+        private final ScanStats stats = new ScanStats();
+        private RangeTask first;
+        private RangeTask second;
+
+        private RangeTask(RangeReader reader, long[] boundaries, int fromRange, int toRange) {
+            this.reader = reader;
+            this.boundaries = boundaries;
+            this.fromRange = fromRange;
+            this.toRange = toRange;
+        }
+
+        @Override
+        protected List<Driver> compute() {
+            if (toRange - fromRange == 1) {
+                return readRange(reader, boundaries[fromRange], boundaries[toRange], stats);
+            }
+            int middle = (fromRange + toRange) >>> 1;
+            first = new RangeTask(reader, boundaries, fromRange, middle);
+            second = new RangeTask(reader, boundaries, middle, toRange);
+            first.fork();
+            List<Driver> secondDrivers = second.compute();
+            List<Driver> drivers = first.join();
+            drivers.addAll(secondDrivers);
+            return drivers;
+        }
+
+        /**
+         * Adds the work done by the ranges of the task, once it is completed.
+         */
+        private void addStats(ScanStats total) {
+            total.add(stats);
+            if (first != null) {
+                first.addStats(total);
+                second.addStats(total);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.thefloow.driver.repository;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * CRC32 of the fields of a repository file record, stored as a last field of eight hex digits so a record
+ * that was not completely written or was altered afterwards is detected when it is read.
+ */
+final class RecordChecksum {
+
+    static final int LENGTH = 8;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private RecordChecksum() {
+    }
+
+    static int of(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    static int of(ByteBuffer buffer, int start, int end) {
+        ByteBuffer fields = buffer.duplicate();
+        fields.limit(end).position(start);
+        CRC32 crc = new CRC32();
+        crc.update(fields);
+        return (int) crc.getValue();
+    }
+
+    static String format(int checksum) {
+        char[] digits = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            digits[i] = HEX_DIGITS[checksum & 0xf];
+            checksum >>>= 4;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * @return the checksum written as the given hex digits
+     * @throws IllegalArgumentException if they are not a checksum
+     */
+    static int parse(CharSequence digits) {
+        if (digits.length() != LENGTH) {
+            throw new IllegalArgumentException("Invalid record checksum");
+        }
+        int checksum = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            checksum = checksum << 4 | hexValue(digits.charAt(i));
+        }
+        return checksum;
+    }
+
+    static int hexValue(int digit) {
+        if (digit >= '0' && digit <= '9') {
+            return digit - '0';
+        }
+        if (digit >= 'a' && digit <= 'f') {
+            return digit - 'a' + 10;
+        }
+        throw new IllegalArgumentException("Invalid record checksum");
+    }
+}
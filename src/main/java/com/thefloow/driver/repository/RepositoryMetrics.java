@@ -0,0 +1,240 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Meters of the repositories: latency of every operation, records scanned against records returned,
+ * bytes read and written, batches appended by the writer and failures of its listeners, idempotency keys not
+ * journaled, hits and misses of the results cache, and the sizes of the writer queue, of the results cache and
+ * of the repository file.
+ */
+public class RepositoryMetrics {
+
+    private static final String OPERATION = "operation";
+
+    private final MeterRegistry registry;
+    private final DistributionSummary batchSize;
+    private final Counter bytesWritten;
+
+    public RepositoryMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.batchSize = DistributionSummary.builder("repository.writer.batch.size")
+                .description("Drivers appended to the repository file per write")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.bytesWritten = Counter.builder("repository.bytes.written")
+                .description("Bytes appended to the repository file")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * @return metrics recorded nowhere, for repositories created outside of the application context
+     */
+    public static RepositoryMetrics noop() {
+        return new RepositoryMetrics(new CompositeMeterRegistry());
+    }
+
+    /**
+     * Times an asynchronous operation until its result is completed.
+     */
+    public <T> CompletableFuture<T> timed(String operation, Supplier<CompletableFuture<T>> call) {
+        Timer.Sample sample = Timer.start(registry);
+        try {
+            return call.get().whenComplete((result, failure) -> sample.stop(timer(operation, failure == null)));
+        } catch (RuntimeException e) {
+            sample.stop(timer(operation, false));
+            throw e;
+        }
+    }
+
+    /**
+     * Times a streaming operation until its stream is closed. The operation only succeeds if its stream was
+     * read to its end, so a scan or a consumer throwing while the stream is read, or a stream closed before
+     * its end, is timed as a failure.
+     */
+    public Stream<Driver> timedStream(String operation, Supplier<Stream<Driver>> call) {
+        Timer.Sample sample = Timer.start(registry);
+        Stream<Driver> drivers;
+        try {
+            drivers = call.get();
+        } catch (RuntimeException e) {
+            sample.stop(timer(operation, false));
+            throw e;
+        }
+        OutcomeSpliterator outcome = new OutcomeSpliterator(drivers.spliterator());
+        return StreamSupport.stream(outcome, false)
+                .onClose(drivers::close)
+                .onClose(() -> sample.stop(timer(operation, outcome.succeeded())));
+    }
+
+    /**
+     * Counts the drivers returned by a read and, once its stream is closed, the work it took to find them.
+     */
+    public Stream<Driver> counted(String operation, Stream<Driver> drivers, ScanStats scanStats) {
+        long[] returned = new long[1];
+        return drivers.peek(driver -> returned[0]++)
+                .onClose(() -> record(operation, scanStats, returned[0]));
+    }
+
+    public void record(String operation, ScanStats scanStats, long returned) {
+        counter("repository.rows.scanned", operation, "rows").increment(scanStats.getRecordsScanned());
+        counter("repository.rows.returned", operation, "rows").increment(returned);
+        counter("repository.bytes.read", operation, "bytes").increment(scanStats.getBytesRead());
+    }
+
+    public void recordBatch(DriverFileWriter.CommittedBatch batch) {
+        batchSize.record(batch.getDrivers().size());
+        bytesWritten.increment(batch.getLength());
+    }
+
+    public void monitorWriter(DriverFileWriter writer) {
+        Gauge.builder("repository.writer.queue.size", writer, DriverFileWriter::getQueueSize)
+                .description("Drivers waiting to be written to the repository file")
+                .register(registry);
+        FunctionCounter.builder("repository.writer.listener.failures", writer,
+                DriverFileWriter::getCommitListenerFailures)
+                .description("Batches a commit listener failed on, leaving the state it keeps out of date")
+                .register(registry);
+    }
+
+    public void recordIdempotencyKeyWriteFailure() {
+        Counter.builder("repository.idempotency.write.failures")
+                .description("Idempotency keys of stored drivers that could not be journaled")
+                .register(registry)
+                .increment();
+    }
+
+    public void recordCacheGet(boolean hit) {
+        Counter.builder("repository.cache.gets")
+                .description("Reads of the cached results of the repository")
+                .tag("cache", "findCreatedAfter")
+                .tag("result", hit ? "hit" : "miss")
+                .register(registry)
+                .increment();
+    }
+
+    public void monitorCache(CreatedAfterCache cache) {
+        Gauge.builder("repository.cache.size", cache, CreatedAfterCache::size)
+                .description("Dates whose drivers are cached")
+                .tag("cache", "findCreatedAfter")
+                .register(registry);
+    }
+
+    public void monitorColumns(DriverColumns columns) {
+        Gauge.builder("repository.columns.memory", columns, DriverColumns::heapBytes)
+                .description("Memory taken by the in-memory columns of the drivers")
+                .tag("area", "heap")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("repository.columns.memory", columns, DriverColumns::offHeapBytes)
+                .description("Memory taken by the in-memory columns of the drivers")
+                .tag("area", "nonheap")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public void monitorFile(Path repositoryPath) {
+        Gauge.builder("repository.file.size", repositoryPath, RepositoryMetrics::fileSize)
+                .description("Size of the repository file")
+                .tag("file", String.valueOf(repositoryPath.getFileName()))
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Follows the read of a stream, which succeeded once it reached its end without throwing.
+     */
+    private static class OutcomeSpliterator implements Spliterator<Driver> {
+        private final Spliterator<Driver> drivers;
+        private boolean ended;
+        private boolean failed;
+
+        private OutcomeSpliterator(Spliterator<Driver> drivers) {
+            this.drivers = drivers;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Driver> action) {
+            try {
+                boolean advanced = drivers.tryAdvance(action);
+                ended = !advanced;
+                return advanced;
+            } catch (RuntimeException | Error e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Driver> action) {
+            try {
+                drivers.forEachRemaining(action);
+                ended = true;
+            } catch (RuntimeException | Error e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public Spliterator<Driver> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return drivers.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return drivers.characteristics() & ~(Spliterator.SUBSIZED | Spliterator.CONCURRENT);
+        }
+
+        private boolean succeeded() {
+            return ended && !failed;
+        }
+    }
+
+    private Timer timer(String operation, boolean success) {
+        return Timer.builder("repository.operation")
+                .description("Latency of the repository operations")
+                .tag(OPERATION, operation)
+                .tag("outcome", success ? "success" : "failure")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Counter counter(String name, String operation, String baseUnit) {
+        return Counter.builder(name)
+                .tag(OPERATION, operation)
+                .baseUnit(baseUnit)
+                .register(registry);
+    }
+
+    private static double fileSize(Path repositoryPath) {
+        try {
+            return Files.size(repositoryPath);
+        } catch (IOException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.thefloow.driver.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a file from its end towards its beginning, one chunk at a time, so the
+ * last records of the repository can be inspected without reading the whole file.
+ */
+public class ReverseLineReader implements Closeable {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final SeekableByteChannel channel;
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+    private long position;
+    private int chunkIndex;
+
+    public ReverseLineReader(Path path) throws IOException {
+        this(path, Files.size(path));
+    }
+
+    /**
+     * @param path  file to read
+     * @param limit byte offset the reading starts from, any content after it is ignored
+     */
+    public ReverseLineReader(Path path, long limit) throws IOException {
+        this.channel = Files.newByteChannel(path, StandardOpenOption.READ);
+        this.position = limit;
+        this.chunkIndex = 0;
+        this.chunk.limit(0);
+    }
+
+    /**
+     * Returns the previous non empty line of the file.
+     *
+     * @return previous line without its line separator, or null if the beginning of the file is reached
+     */
+    public String readLine() throws IOException {
+        ByteArrayOutputStream reversedLine = new ByteArrayOutputStream();
+        int b;
+        while ((b = previousByte()) != -1) {
+            if (b == '\n' || b == '\r') {
+                if (reversedLine.size() > 0) {
+                    break;
+                }
+            } else {
+                reversedLine.write(b);
+            }
+        }
+        if (reversedLine.size() == 0) {
+            return null;
+        }
+        byte[] line = reversedLine.toByteArray();
+        for (int i = 0, j = line.length - 1; i < j; i++, j--) {
+            byte tmp = line[i];
+            line[i] = line[j];
+            line[j] = tmp;
+        }
+        return new String(line, StandardCharsets.UTF_8);
+    }
+
+    private int previousByte() throws IOException {
+        if (chunkIndex == 0) {
+            if (position == 0) {
+                return -1;
+            }
+            int length = (int) Math.min(CHUNK_SIZE, position);
+            position -= length;
+            chunk.clear().limit(length);
+            channel.position(position);
+            while (chunk.hasRemaining() && channel.read(chunk) != -1) {
+                // keep reading until the chunk is full
+            }
+            chunkIndex = chunk.position();
+        }
+        return chunk.get(--chunkIndex) & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,37 @@
+package com.thefloow.driver.repository;
+
+/**
+ * How {@link FileDriverRepository} answers queries that need to go through all the stored drivers.
+ */
+public enum ScanMode {
+
+    /**
+     * Drivers are loaded once into an in-memory {@link DriverIndex}, queries do not touch the file.
+     */
+    INDEX,
+
+    /**
+     * Every query reads the repository file line by line.
+     */
+    LINES,
+
+    /**
+     * Every query maps the repository file into memory and parses the records straight from its bytes,
+     * building drivers only for the records that match. Suited for files too big to be kept in memory.
+     */
+    MAPPED,
+
+    /**
+     * Drivers are loaded once into in-memory {@link DriverColumns}, which keep their dates in primitive arrays
+     * and their names outside of the heap, queries do not touch the file and build drivers only for the rows
+     * that match. Suited for large repositories kept in memory without growing the garbage collection pauses.
+     */
+    COLUMNAR;
+
+    /**
+     * @return whether queries are answered from memory rather than from the repository file
+     */
+    public boolean isInMemory() {
+        return this == INDEX || this == COLUMNAR;
+    }
+}
@@ -0,0 +1,40 @@
+package com.thefloow.driver.repository;
+
+/**
+ * Work done by one read of the repository: the records examined, whether they were returned or filtered
+ * out, and the bytes read from the repository file to find them. It is updated by the thread consuming
+ * the read, and a read split between threads keeps one per part.
+ */
+public class ScanStats {
+
+    private long recordsScanned;
+    private long bytesRead;
+
+    public void recordScanned() {
+        recordsScanned++;
+    }
+
+    public void recordsScanned(long records) {
+        recordsScanned += records;
+    }
+
+    public void bytesRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    /**
+     * Adds the work done by another part of the same read.
+     */
+    public void add(ScanStats other) {
+        recordsScanned += other.recordsScanned;
+        bytesRead += other.bytesRead;
+    }
+
+    public long getRecordsScanned() {
+        return recordsScanned;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+}
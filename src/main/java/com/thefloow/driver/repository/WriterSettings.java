@@ -0,0 +1,53 @@
+package com.thefloow.driver.repository;
+
+/**
+ * Settings of the append pipeline used to store new drivers in the repository file.
+ */
+public class WriterSettings {
+
+    private static final int DEFAULT_BATCH_SIZE = 64;
+    private static final long DEFAULT_MAX_LINGER_MILLIS = 0;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final boolean DEFAULT_FSYNC = true;
+
+    private final int batchSize;
+    private final long maxLingerMillis;
+    private final int queueCapacity;
+    private final boolean fsync;
+
+    /**
+     * @param batchSize       maximum number of records written to the file at once
+     * @param maxLingerMillis maximum time to wait for more records before writing an incomplete batch
+     * @param queueCapacity   maximum number of records waiting to be written
+     * @param fsync           whether every batch is forced to the storage device before it is acknowledged
+     */
+    public WriterSettings(int batchSize, long maxLingerMillis, int queueCapacity, boolean fsync) {
+        if (batchSize < 1 || maxLingerMillis < 0 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid repository writer settings");
+        }
+        this.batchSize = batchSize;
+        this.maxLingerMillis = maxLingerMillis;
+        this.queueCapacity = queueCapacity;
+        this.fsync = fsync;
+    }
+
+    public static WriterSettings defaults() {
+        return new WriterSettings(DEFAULT_BATCH_SIZE, DEFAULT_MAX_LINGER_MILLIS, DEFAULT_QUEUE_CAPACITY, DEFAULT_FSYNC);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+}
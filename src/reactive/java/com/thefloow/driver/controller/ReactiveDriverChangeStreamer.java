@@ -0,0 +1,196 @@
+package com.thefloow.driver.controller;
+
+import com.thefloow.driver.controller.DriverChangeFeed.DriverChange;
+import com.thefloow.driver.controller.DriverChangeFeed.Subscription;
+import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.ReactiveDriverRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the change feed to the reactive responses following it, without any thread of their own: the
+ * drivers stored after the id the client resumes from are replayed from the repository, then the changes of
+ * the feed are emitted only as fast as the client reads them, on a worker of the parallel scheduler woken up
+ * by the feed. A client too slow to keep up reads the drivers it missed from the repository the same way.
+ */
+@Component
+public class ReactiveDriverChangeStreamer {
+
+    private static final int REPLAY_PAGE_SIZE = 1000;
+    /**
+     * Written first, so the response headers are sent once subscribed rather than with the first driver.
+     */
+    private static final byte[] COMMIT = new byte[0];
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final ReactiveDriverRepository driverRepository;
+    private final DriverChangeFeed changeFeed;
+    private final long heartbeatMillis;
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    @Autowired
+    public ReactiveDriverChangeStreamer(ReactiveDriverRepository driverRepository,
+                                        DriverChangeFeed changeFeed,
+                                        @Value("${controller.changes.heartbeat-ms}") long heartbeatMillis) {
+        this.driverRepository = driverRepository;
+        this.changeFeed = changeFeed;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    /**
+     * @param afterId id of the last driver the client received, or {@link DriverChangeFeed#LIVE_ONLY}
+     * @param ndjson  whether the drivers are written as NDJSON rather than as server-sent events
+     * @return buffers of the drivers stored after the given one, then of every driver stored from now on
+     */
+    public Flux<DataBuffer> follow(int afterId, boolean ndjson) {
+        return Flux.defer(() -> {
+            LiveChanges live = new LiveChanges(Schedulers.parallel().createWorker(), ndjson);
+            try {
+                live.subscription = changeFeed.subscribe(live::signal);
+            } catch (RuntimeException e) {
+                live.worker.dispose();
+                throw e;
+            }
+            live.subscription.skipTo(afterId);
+            live.start();
+            return Flux.just(COMMIT)
+                    .concatWith(Flux.defer(() -> catchUp(live)).repeat())
+                    .doFinally(signal -> live.close());
+        }).map(bufferFactory::wrap);
+    }
+
+    /**
+     * Replays the drivers stored after the last one received, unless only following new drivers, then emits
+     * the changes of the feed until the subscriber lags behind it.
+     */
+    private Flux<byte[]> catchUp(LiveChanges live) {
+        Subscription subscription = live.subscription;
+        subscription.resume();
+        Flux<byte[]> changes = Flux.create(live::emitTo);
+        return subscription.getLastId() == DriverChangeFeed.LIVE_ONLY
+                ? changes
+                : replay(subscription, live.ndjson).concatWith(changes);
+    }
+
+    /**
+     * Reads the stored drivers after the last one received one page at a time, up to the last one stored,
+     * which the changes pending in the subscription are skipped up to.
+     */
+    private Flux<byte[]> replay(Subscription subscription, boolean ndjson) {
+        return driverRepository.findAll(subscription.getLastId(), REPLAY_PAGE_SIZE)
+                .expand(page -> page.size() == REPLAY_PAGE_SIZE
+                        ? driverRepository.findAll(page.get(page.size() - 1).getId(), REPLAY_PAGE_SIZE)
+                        : Mono.empty())
+                .filter(page -> !page.isEmpty())
+                .map(page -> {
+                    byte[] encoded = encode(page, ndjson);
+                    subscription.skipTo(page.get(page.size() - 1).getId());
+                    return encoded;
+                });
+    }
+
+    private byte[] encode(List<Driver> drivers, boolean ndjson) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (Driver driver : drivers) {
+            DriverChange change = changeFeed.encode(driver);
+            byte[] bytes = ndjson ? change.getNdjson() : change.getEvent();
+            encoded.write(bytes, 0, bytes.length);
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Emits the changes of one subscription as they are requested. The feed and the requests of the client only
+     * signal that changes may be emitted, and a single drain at a time runs on the worker of the subscription.
+     * Once the subscriber lags behind, the changes pending are emitted and the sink is completed, to catch up
+     * from the repository before emitting to the next one.
+     */
+    private class LiveChanges {
+        private final Scheduler.Worker worker;
+        private final boolean ndjson;
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private volatile Subscription subscription;
+        private volatile FluxSink<byte[]> sink;
+        private volatile boolean heartbeatDue;
+
+        private LiveChanges(Scheduler.Worker worker, boolean ndjson) {
+            this.worker = worker;
+            this.ndjson = ndjson;
+        }
+
+        private void start() {
+            if (!ndjson) {
+                worker.schedulePeriodically(() -> {
+                    heartbeatDue = true;
+                    signal();
+                }, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void emitTo(FluxSink<byte[]> sink) {
+            this.sink = sink;
+            sink.onRequest(requested -> signal());
+        }
+
+        private void signal() {
+            if (pendingSignals.getAndIncrement() == 0) {
+                worker.schedule(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                FluxSink<byte[]> target = sink;
+                if (target != null) {
+                    emit(target);
+                }
+                missed = pendingSignals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit(FluxSink<byte[]> target) {
+            boolean sent = false;
+            while (target.requestedFromDownstream() > 0 && !target.isCancelled()) {
+                boolean lagging = subscription.isLagging();
+                DriverChange change = subscription.poll();
+                if (change == null) {
+                    if (lagging) {
+                        sink = null;
+                        target.complete();
+                        return;
+                    }
+                    break;
+                }
+                target.next(ndjson ? change.getNdjson() : change.getEvent());
+                sent = true;
+            }
+            if (heartbeatDue && target.requestedFromDownstream() > 0 && !target.isCancelled()) {
+                if (!sent) {
+                    target.next(HEARTBEAT);
+                }
+                heartbeatDue = false;
+            }
+        }
+
+        private void close() {
+            subscription.close();
+            worker.dispose();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.thefloow.driver.controller;
+
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.CreationPeriod;
+import com.thefloow.driver.repository.ReactiveDriverRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static com.thefloow.driver.controller.DriverListResponses.APPLICATION_NDJSON;
+import static com.thefloow.driver.controller.DriverListResponses.APPLICATION_NDJSON_VALUE;
+
+/**
+ * Serves the routes of the driver service on the reactive web stack, without blocking the event loop
+ * threads: list responses are written as the drivers are read from the repository file, and only as fast
+ * as the client reads them.
+ */
+@RestController
+@RequestMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+public class ReactiveDriverController {
+
+    private static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+
+    private final ReactiveDriverRepository driverRepository;
+    private final ReactiveDriverJsonStreamer driverJsonStreamer;
+    private final DriverBatchReader driverBatchReader;
+    private final DriverBatchImporter driverBatchImporter;
+    private final ReactiveDriverChangeStreamer changeStreamer;
+    private final IdempotentDriverSaver idempotentSaver;
+
+    @Autowired
+    public ReactiveDriverController(ReactiveDriverRepository driverRepository,
+                                    ReactiveDriverJsonStreamer driverJsonStreamer,
+                                    DriverBatchReader driverBatchReader,
+                                    DriverBatchImporter driverBatchImporter,
+                                    ReactiveDriverChangeStreamer changeStreamer,
+                                    IdempotentDriverSaver idempotentSaver) {
+        this.driverRepository = driverRepository;
+        this.driverJsonStreamer = driverJsonStreamer;
+        this.driverBatchReader = driverBatchReader;
+        this.driverBatchImporter = driverBatchImporter;
+        this.changeStreamer = changeStreamer;
+        this.idempotentSaver = idempotentSaver;
+    }
+
+    @GetMapping(value = "/drivers", produces = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<Flux<DataBuffer>> findAll(@RequestHeader(value = HttpHeaders.ACCEPT, required = false)
+                                                            String accept,
+                                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                            required = false) String ifNoneMatch) {
+        return streamDrivers(driverRepository::findAll, accept, ifNoneMatch);
+    }
+
+    @GetMapping(value = "/drivers/byDate", produces = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<Flux<DataBuffer>> findDriversCreatedAfterDate(@RequestParam("date")
+                                                     @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                                     @RequestHeader(value = HttpHeaders.ACCEPT, required = false)
+                                                             String accept,
+                                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                             required = false) String ifNoneMatch) {
+        return streamDrivers(() -> driverRepository.findCreatedAfter(date), accept, ifNoneMatch);
+    }
+
+    @GetMapping(value = "/drivers/changes", produces = {MediaType.TEXT_EVENT_STREAM_VALUE, APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<Flux<DataBuffer>> followChanges(@RequestParam(value = "afterId", required = false)
+                                                                  Integer afterId,
+                                                          @RequestHeader(value = "Last-Event-ID", required = false)
+                                                                  String lastEventId,
+                                                          @RequestHeader(value = HttpHeaders.ACCEPT, required = false)
+                                                                  String accept) {
+        int resumeAfterId = DriverChangeFeed.resumeAfterId(afterId, lastEventId);
+        boolean ndjson = DriverListResponses.acceptsNdjson(accept, MediaType.TEXT_EVENT_STREAM);
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .contentType(ndjson ? APPLICATION_NDJSON : MediaType.TEXT_EVENT_STREAM)
+                .body(changeStreamer.follow(resumeAfterId, ndjson));
+    }
+
+    @GetMapping("/driver/{id}")
+    public Mono<Driver> findById(@PathVariable("id") int id) {
+        return driverRepository.findById(id)
+                .switchIfEmpty(Mono.error(() ->
+                        new ServiceException(HttpStatus.NOT_FOUND, "not.found", "Driver not found")));
+    }
+
+    @GetMapping("/drivers/search")
+    public Mono<List<Driver>> findByName(@RequestParam(value = "name", required = false) String name,
+                                         @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        return driverRepository.findByName(DriverListResponses.validSearchName(name),
+                DriverListResponses.validSearchLimit(limit));
+    }
+
+    @GetMapping("/drivers/count")
+    public Mono<DriverCount> countCreatedAfterDate(@RequestParam(value = "createdAfter", required = false)
+                                                   @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                                                           LocalDate createdAfter) {
+        return driverRepository.countCreatedAfter(createdAfter != null ? createdAfter : LocalDate.MIN)
+                .map(DriverCount::new);
+    }
+
+    @GetMapping("/drivers/count/byCreation")
+    public Mono<List<PeriodCount>> countByCreationPeriod(@RequestParam(value = "period", defaultValue = "DAY")
+                                                                 String period,
+                                                         @RequestParam(value = "createdAfter", required = false)
+                                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                                                                 LocalDate createdAfter) {
+        CreationPeriod creationPeriod = DriverCountResponses.validPeriod(period);
+        return driverRepository.countCreatedByPeriod(createdAfter != null ? createdAfter : LocalDate.MIN,
+                creationPeriod)
+                .map(counts -> DriverCountResponses.periodCounts(counts, creationPeriod));
+    }
+
+    @GetMapping("/drivers/count/byAge")
+    public Mono<List<AgeBandCount>> countByAge(@RequestParam(value = "bands",
+            defaultValue = DriverCountResponses.DEFAULT_AGE_BANDS) int[] bands) {
+        int[] ageBoundaries = DriverCountResponses.validAgeBoundaries(bands);
+        return driverRepository.countByAge(LocalDate.now(), ageBoundaries)
+                .map(counts -> DriverCountResponses.ageBandCounts(ageBoundaries, counts));
+    }
+
+    @GetMapping(value = "/drivers", params = "limit")
+    public Mono<ResponseEntity<List<Driver>>> findPage(@RequestParam("limit") int limit,
+                                                       @RequestParam(value = "after", required = false) String after,
+                                                       ServerHttpRequest request) {
+        int afterId = DriverCursor.decode(after);
+        UriComponentsBuilder nextPageUri = UriComponentsBuilder.fromHttpRequest(request);
+        return driverRepository.findAll(afterId, DriverListResponses.validPageLimit(limit))
+                .map(drivers -> DriverListResponses.page(drivers, limit, nextPageUri));
+    }
+
+    @GetMapping(value = "/drivers/byDate", params = "limit")
+    public Mono<ResponseEntity<List<Driver>>> findPageCreatedAfterDate(@RequestParam("date")
+                                                      @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                                      @RequestParam("limit") int limit,
+                                                      @RequestParam(value = "after", required = false) String after,
+                                                      ServerHttpRequest request) {
+        int afterId = DriverCursor.decode(after);
+        UriComponentsBuilder nextPageUri = UriComponentsBuilder.fromHttpRequest(request);
+        return driverRepository.findCreatedAfter(date, afterId, DriverListResponses.validPageLimit(limit))
+                .map(drivers -> DriverListResponses.page(drivers, limit, nextPageUri));
+    }
+
+    @PostMapping("/driver/create")
+    public Mono<Driver> createDriver(@Valid @RequestBody Driver driver,
+                                     @RequestHeader(value = "Idempotency-Key", required = false)
+                                             String idempotencyKey) {
+        return Mono.fromFuture(() -> idempotentSaver.save(driver, idempotencyKey));
+    }
+
+    /**
+     * Reads the whole body in memory before parsing it, which is bounded by {@link #MAX_BATCH_BYTES}, so the
+     * drivers are parsed without waiting for the client.
+     */
+    @PostMapping(value = "/drivers/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public Mono<List<DriverImportResult>> importDrivers(@RequestBody Flux<DataBuffer> body) {
+        return DataBufferUtils.join(body, MAX_BATCH_BYTES)
+                .onErrorMap(DataBufferLimitException.class, e ->
+                        new ServiceException(HttpStatus.BAD_REQUEST, "bad.request", "Invalid input data"))
+                .map(buffer -> {
+                    try {
+                        return driverBatchReader.read(buffer.asInputStream());
+                    } finally {
+                        DataBufferUtils.release(buffer);
+                    }
+                })
+                .flatMap(drivers -> Mono.fromFuture(() -> driverBatchImporter.importDrivers(drivers)));
+    }
+
+    /**
+     * Builds a list response tagged with the version of the repository. A request whose If-None-Match header
+     * holds the current tag gets a 304 response without reading the repository.
+     *
+     * @param drivers opens the drivers listed, only when the response has a body
+     */
+    private ResponseEntity<Flux<DataBuffer>> streamDrivers(Supplier<Flux<Driver>> drivers,
+                                                           String accept,
+                                                           String ifNoneMatch) {
+        boolean ndjson = DriverListResponses.acceptsNdjson(accept, MediaType.APPLICATION_JSON);
+        MediaType contentType = ndjson ? APPLICATION_NDJSON : MediaType.APPLICATION_JSON;
+        String eTag = DriverListResponses.eTag(driverRepository.getVersion(), contentType);
+        if (DriverListResponses.matchesETag(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .varyBy(HttpHeaders.ACCEPT)
+                .contentType(contentType)
+                .body(ndjson
+                        ? driverJsonStreamer.ndjson(drivers.get())
+                        : driverJsonStreamer.jsonArray(drivers.get()));
+    }
+}
@@ -0,0 +1,86 @@
+package com.thefloow.driver.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Encodes drivers to the response as they are emitted by the repository, a few of them per buffer, so the
+ * memory used by a response does not depend on the number of drivers returned and a slow client only
+ * requests the next drivers once it has read the previous ones.
+ */
+@Component
+public class ReactiveDriverJsonStreamer {
+
+    private static final int DRIVERS_PER_BUFFER = 64;
+
+    private final ObjectMapper objectMapper;
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    @Autowired
+    public ReactiveDriverJsonStreamer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return buffers of the drivers written as a JSON array
+     */
+    public Flux<DataBuffer> jsonArray(Flux<Driver> drivers) {
+        return drivers.buffer(DRIVERS_PER_BUFFER)
+                .index()
+                .map(batch -> encode(batch.getT2(), batch.getT1() == 0 ? "[" : ",", ","))
+                .switchIfEmpty(Mono.fromSupplier(() -> wrap("[")))
+                .concatWith(Mono.fromSupplier(() -> wrap("]")));
+    }
+
+    /**
+     * @return buffers of the drivers written one JSON driver per line
+     */
+    public Flux<DataBuffer> ndjson(Flux<Driver> drivers) {
+        return drivers.buffer(DRIVERS_PER_BUFFER).map(batch -> encode(batch, "", null));
+    }
+
+    /**
+     * @param prefix    written before the drivers
+     * @param separator written between two drivers, or null to end every driver with a new line
+     */
+    private DataBuffer encode(List<Driver> drivers, String prefix, String separator) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.setRootValueSeparator(null);
+            generator.writeRaw(prefix);
+            for (int i = 0; i < drivers.size(); i++) {
+                if (separator != null && i > 0) {
+                    generator.writeRaw(separator);
+                }
+                generator.writeObject(drivers.get(i));
+                if (separator == null) {
+                    generator.writeRaw('\n');
+                }
+            }
+        } catch (IOException e) {
+            throw new ServiceException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "technical.failure",
+                    "Error writing drivers");
+        }
+        return bufferFactory.wrap(outputStream.toByteArray());
+    }
+
+    private DataBuffer wrap(String content) {
+        return bufferFactory.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,21 @@
+package com.thefloow.driver.controller.error;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.server.ServerWebInputException;
+
+/**
+ * Reports the invalid requests detected by WebFlux, such as a malformed body, an invalid driver or a request
+ * parameter of the wrong type, like the servlet stack does.
+ */
+@ControllerAdvice
+public class ReactiveDriverControllerAdvice {
+
+    @ExceptionHandler(ServerWebInputException.class)
+    public ResponseEntity<ErrorMsg> handleServerWebInputException(ServerWebInputException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ErrorMsg("bad.request", "Invalid input data"));
+    }
+}
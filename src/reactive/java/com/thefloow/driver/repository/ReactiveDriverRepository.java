@@ -0,0 +1,189 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Reads and stores drivers without blocking the calling thread, for the reactive web stack.
+ * <p>
+ * The drivers of the text repository file are read with an {@link AsynchronousFileChannel}, one buffer at a
+ * time as the subscriber requests them and up to the committed length of the file, in the order of the file.
+ * Drivers created after a date are read from the first record of the month of the date.
+ * Drivers served from the in-memory index are emitted as they are requested, and the reads of any other
+ * repository run on the repository read executor so they never block an event loop thread.
+ */
+@Repository
+public class ReactiveDriverRepository {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final StringDecoder LINE_DECODER = StringDecoder.textPlainOnly();
+    private static final ResolvableType LINE_TYPE = ResolvableType.forClass(String.class);
+
+    private final DriverRepository driverRepository;
+    private final FileDriverRepository fileRepository;
+    private final Scheduler readScheduler;
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    /**
+     * @param readExecutor executor running the blocking reads of repositories which cannot be read asynchronously
+     */
+    @Autowired
+    public ReactiveDriverRepository(DriverRepository driverRepository,
+                                    @Qualifier("repositoryReadExecutor") Executor readExecutor) {
+        this.driverRepository = driverRepository;
+        this.fileRepository = driverRepository instanceof FileDriverRepository
+                ? (FileDriverRepository) driverRepository
+                : null;
+        this.readScheduler = Schedulers.fromExecutor(readExecutor);
+    }
+
+    public Flux<Driver> findAll() {
+        if (readsFile()) {
+            return readFile(() -> 0).map(FileDriverRepository::mapToDriver);
+        }
+        return stream(driverRepository::streamAll);
+    }
+
+    /**
+     * Provides the drivers created after the given date, in the order of the repository file.
+     */
+    public Flux<Driver> findCreatedAfter(LocalDate creationDate) {
+        if (readsFile()) {
+            return readFile(() -> fileRepository.getCreatedAfterOffset(creationDate))
+                    .map(FileDriverRepository::mapToDriver)
+                    .filter(driver -> driver.getCreationDate().isAfter(creationDate));
+        }
+        return stream(() -> driverRepository.streamCreatedAfter(creationDate));
+    }
+
+    /**
+     * Provides the driver of the given id, or completes empty if there is none.
+     */
+    public Mono<Driver> findById(int driverId) {
+        return Mono.fromFuture(() -> driverRepository.findById(driverId))
+                .flatMap(driver -> Mono.justOrEmpty(driver));
+    }
+
+    /**
+     * Provides one page of drivers ordered by id.
+     *
+     * @param afterId id of the last driver of the previous page, or 0 for the first page
+     * @param limit   maximum number of drivers returned
+     */
+    public Mono<List<Driver>> findAll(int afterId, int limit) {
+        return Mono.fromFuture(() -> driverRepository.findAll(afterId, limit));
+    }
+
+    /**
+     * Provides one page of the drivers created after the given date, ordered by id.
+     *
+     * @param afterId id of the last driver of the previous page, or 0 for the first page
+     * @param limit   maximum number of drivers returned
+     */
+    public Mono<List<Driver>> findCreatedAfter(LocalDate creationDate, int afterId, int limit) {
+        return Mono.fromFuture(() -> driverRepository.findCreatedAfter(creationDate, afterId, limit));
+    }
+
+    /**
+     * @see DriverRepository#findByName(String, int)
+     */
+    public Mono<List<Driver>> findByName(String namePrefix, int limit) {
+        return Mono.fromFuture(() -> driverRepository.findByName(namePrefix, limit));
+    }
+
+    /**
+     * @see DriverRepository#countCreatedAfter(LocalDate)
+     */
+    public Mono<Long> countCreatedAfter(LocalDate creationDate) {
+        return Mono.fromFuture(() -> driverRepository.countCreatedAfter(creationDate));
+    }
+
+    /**
+     * @see DriverRepository#countCreatedByPeriod(LocalDate, CreationPeriod)
+     */
+    public Mono<SortedMap<LocalDate, Long>> countCreatedByPeriod(LocalDate creationDate, CreationPeriod period) {
+        return Mono.fromFuture(() -> driverRepository.countCreatedByPeriod(creationDate, period));
+    }
+
+    /**
+     * @see DriverRepository#countByAge(LocalDate, int...)
+     */
+    public Mono<long[]> countByAge(LocalDate date, int... ageBoundaries) {
+        return Mono.fromFuture(() -> driverRepository.countByAge(date, ageBoundaries));
+    }
+
+    /**
+     * @see DriverRepository#getVersion()
+     */
+    public long getVersion() {
+        return driverRepository.getVersion();
+    }
+
+    public Mono<Driver> save(Driver driver) {
+        return Mono.fromFuture(() -> driverRepository.save(driver));
+    }
+
+    /**
+     * @see DriverRepository#saveAll(List)
+     */
+    public Mono<List<Driver>> saveAll(List<Driver> drivers) {
+        return Mono.fromFuture(() -> driverRepository.saveAll(drivers));
+    }
+
+    /**
+     * @return whether the drivers are read from the text repository file rather than from the repository
+     */
+    private boolean readsFile() {
+        return fileRepository != null && !fileRepository.getScanMode().isInMemory();
+    }
+
+    /**
+     * Reads the records of the repository file asynchronously, up to the length committed when subscribed
+     * to, so a batch being written is not read.
+     *
+     * @param startOffset provides the position of the first record to read when subscribed to
+     */
+    private Flux<String> readFile(LongSupplier startOffset) {
+        return Flux.defer(() -> {
+            long position = startOffset.getAsLong();
+            Flux<DataBuffer> buffers = DataBufferUtils.takeUntilByteCount(
+                    DataBufferUtils.readAsynchronousFileChannel(() -> AsynchronousFileChannel.open(
+                            fileRepository.getRepositoryPath(), StandardOpenOption.READ),
+                            position, bufferFactory, READ_BUFFER_SIZE),
+                    Math.max(0, fileRepository.getCommittedLength() - position));
+            return LINE_DECODER.decode(buffers, LINE_TYPE, null, Collections.emptyMap());
+        });
+    }
+
+    /**
+     * Emits the drivers of a repository stream as they are requested, closing it once they are all emitted
+     * or the subscription is cancelled. Streams of the in-memory index are read on the requesting thread.
+     */
+    private Flux<Driver> stream(Supplier<Stream<Driver>> drivers) {
+        Flux<Driver> emitted = Flux.fromStream(drivers::get);
+        return fileRepository != null ? emitted : emitted.subscribeOn(readScheduler);
+    }
+}
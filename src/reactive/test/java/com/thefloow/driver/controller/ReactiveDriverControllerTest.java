@@ -0,0 +1,348 @@
+package com.thefloow.driver.controller;
+
+import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.DriverRepository;
+import com.thefloow.driver.repository.IdempotencyKeys;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.FluxExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest
+public class ReactiveDriverControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private DriverRepository mockDriverRepository;
+
+    @MockBean
+    private IdempotencyKeys mockIdempotencyKeys;
+
+    @Autowired
+    private DriverChangeFeed driverChangeFeed;
+
+    private List<Driver> driverList = asList(
+            new Driver(1, "Jaime", "Bergas", LocalDate.parse("1984-05-15"), LocalDate.parse("2020-02-08")),
+            new Driver(2, "Jane", "Doe", LocalDate.parse("1980-05-15"), LocalDate.parse("2018-02-08"))
+    );
+
+    private Driver driver = new Driver(3, "John", "Doe", LocalDate.parse("1990-05-15"), LocalDate.parse("2019-02-08"));
+
+    @Test
+    public void findAllDrivers_happyPath() {
+        when(mockDriverRepository.getVersion()).thenReturn(42L);
+        when(mockDriverRepository.streamAll()).thenReturn(driverList.stream());
+
+        webTestClient.get().uri("/drivers").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"2a-json\"")
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$.[0].id").isEqualTo(1)
+                .jsonPath("$.[0].firstName").isEqualTo("Jaime")
+                .jsonPath("$.[0].creationDate").isEqualTo("2020-02-08")
+                .jsonPath("$.[1].id").isEqualTo(2);
+
+        verify(mockDriverRepository, times(1)).streamAll();
+    }
+
+    @Test
+    public void findAllDrivers_noDriver_returnsEmptyArray() {
+        when(mockDriverRepository.streamAll()).thenReturn(Stream.empty());
+
+        webTestClient.get().uri("/drivers").exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("[]");
+    }
+
+    @Test
+    public void findAllDrivers_ndjsonAccepted_returnsOneDriverPerLine() {
+        when(mockDriverRepository.streamAll()).thenReturn(driverList.stream());
+
+        webTestClient.get().uri("/drivers").accept(MediaType.parseMediaType("application/x-ndjson")).exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo(
+                "{\"id\":1,\"firstName\":\"Jaime\",\"lastName\":\"Bergas\",\"dateOfBirth\":\"1984-05-15\",\"creationDate\":\"2020-02-08\"}\n" +
+                "{\"id\":2,\"firstName\":\"Jane\",\"lastName\":\"Doe\",\"dateOfBirth\":\"1980-05-15\",\"creationDate\":\"2018-02-08\"}\n");
+    }
+
+    @Test
+    public void findAllDrivers_ndjsonPreferredByQuality_returnsOneDriverPerLine() {
+        when(mockDriverRepository.streamAll()).thenReturn(driverList.stream());
+
+        webTestClient.get().uri("/drivers")
+                .header(HttpHeaders.ACCEPT, "application/json;q=0.5, application/x-ndjson;charset=UTF-8").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.parseMediaType("application/x-ndjson"))
+                .expectBody(String.class).isEqualTo(
+                "{\"id\":1,\"firstName\":\"Jaime\",\"lastName\":\"Bergas\",\"dateOfBirth\":\"1984-05-15\",\"creationDate\":\"2020-02-08\"}\n" +
+                "{\"id\":2,\"firstName\":\"Jane\",\"lastName\":\"Doe\",\"dateOfBirth\":\"1980-05-15\",\"creationDate\":\"2018-02-08\"}\n");
+    }
+
+    @Test
+    public void findAllDrivers_currentETag_returnsNotModified() {
+        when(mockDriverRepository.getVersion()).thenReturn(42L);
+
+        webTestClient.get().uri("/drivers").header(HttpHeaders.IF_NONE_MATCH, "\"2a-json\"").exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"2a-json\"");
+
+        verify(mockDriverRepository, never()).streamAll();
+    }
+
+    @Test
+    public void findDriversCreatedAfterDate_happyPath() {
+        LocalDate fromDate = LocalDate.parse("2019-01-01");
+
+        when(mockDriverRepository.streamCreatedAfter(fromDate)).thenReturn(asList(driver).stream());
+
+        webTestClient.get().uri("/drivers/byDate?date=2019-01-01").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$.[0].id").isEqualTo(3);
+    }
+
+    @Test
+    public void findDriversCreatedAfterDate_invalidDate_returnsBadRequest() {
+        webTestClient.get().uri("/drivers/byDate?date=yesterday").exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo("bad.request")
+                .jsonPath("$.message").isEqualTo("Invalid input data");
+    }
+
+    @Test
+    public void findDriversPage_fullPage_returnsLinkToNextPage() {
+        when(mockDriverRepository.findAll(0, 2)).thenReturn(completedFuture(driverList));
+
+        webTestClient.get().uri("/drivers?limit=2").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("Link",
+                        "</drivers?limit=2&after=" + DriverCursor.encode(2) + ">; rel=\"next\"")
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2);
+    }
+
+    @Test
+    public void findDriversByName_happyPath() {
+        when(mockDriverRepository.findByName("do", 5)).thenReturn(completedFuture(asList(driverList.get(1), driver)));
+
+        webTestClient.get().uri("/drivers/search?name=do&limit=5").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$.[0].id").isEqualTo(2)
+                .jsonPath("$.[1].id").isEqualTo(3);
+    }
+
+    @Test
+    public void findDriversByName_missingName_returnsBadRequest() {
+        webTestClient.get().uri("/drivers/search").exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo("bad.request");
+    }
+
+    @Test
+    public void countDrivers_createdAfterDate_returnsCount() {
+        when(mockDriverRepository.countCreatedAfter(LocalDate.parse("2019-01-01"))).thenReturn(completedFuture(42L));
+
+        webTestClient.get().uri("/drivers/count?createdAfter=2019-01-01").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(42);
+    }
+
+    @Test
+    public void countDriversByAge_bands_returnsCountsByBand() {
+        when(mockDriverRepository.countByAge(any(), eq(18), eq(30))).thenReturn(completedFuture(new long[]{1, 5, 2}));
+
+        webTestClient.get().uri("/drivers/count/byAge?bands=18,30").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(3)
+                .jsonPath("$.[0].maxAge").isEqualTo(18)
+                .jsonPath("$.[1].count").isEqualTo(5)
+                .jsonPath("$.[2].minAge").isEqualTo(30);
+    }
+
+    @Test
+    public void findDriverById_unknownId_returnsNotFound() {
+        when(mockDriverRepository.findById(4)).thenReturn(completedFuture(Optional.empty()));
+
+        webTestClient.get().uri("/driver/4").exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo("not.found")
+                .jsonPath("$.message").isEqualTo("Driver not found");
+    }
+
+    @Test
+    public void createNewDriver_happyPath() {
+        when(mockDriverRepository.save(any(Driver.class))).thenReturn(completedFuture(driver));
+
+        webTestClient.post().uri("/driver/create").contentType(APPLICATION_JSON)
+                .bodyValue("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(3);
+    }
+
+    @Test
+    public void createNewDriver_idempotencyKeyAlreadyUsed_returnsStoredDriver() {
+        when(mockIdempotencyKeys.find("retry-1")).thenReturn(3);
+        when(mockDriverRepository.findById(3)).thenReturn(completedFuture(Optional.of(driver)));
+
+        webTestClient.post().uri("/driver/create").contentType(APPLICATION_JSON)
+                .header("Idempotency-Key", "retry-1")
+                .bodyValue("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(3)
+                .jsonPath("$.creationDate").isEqualTo("2019-02-08");
+
+        verify(mockDriverRepository, never()).save(any(Driver.class));
+    }
+
+    @Test
+    public void createNewDriver_invalidIdempotencyKey_returnsBadRequest() {
+        webTestClient.post().uri("/driver/create").contentType(APPLICATION_JSON)
+                .header("Idempotency-Key", "retry;1")
+                .bodyValue("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo("bad.request");
+
+        verify(mockDriverRepository, never()).save(any(Driver.class));
+    }
+
+    @Test
+    public void createNewDriver_invalidDriver_returnsBadRequest() {
+        webTestClient.post().uri("/driver/create").contentType(APPLICATION_JSON)
+                .bodyValue("{\"firstName\": \"123\",\"lastName\": \"456\"}")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo("bad.request")
+                .jsonPath("$.message").isEqualTo("Invalid input data");
+
+        verify(mockDriverRepository, never()).save(any(Driver.class));
+    }
+
+    @Test
+    public void followChanges_afterId_replaysStoredDriversThenPushesNewOnes() {
+        when(mockDriverRepository.findAll(0, 1000)).thenReturn(completedFuture(driverList));
+
+        FluxExchangeResult<String> result = webTestClient.get().uri("/drivers/changes?afterId=0").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.TEXT_EVENT_STREAM)
+                .returnResult(String.class);
+
+        StepVerifier.create(result.getResponseBody())
+                .expectNextMatches(data -> data.startsWith("{\"id\":1,"))
+                .expectNextMatches(data -> data.startsWith("{\"id\":2,"))
+                .then(() -> driverChangeFeed.publish(singletonList(driver)))
+                .expectNext("{\"id\":3,\"firstName\":\"John\",\"lastName\":\"Doe\",\"dateOfBirth\":\"1990-05-15\","
+                        + "\"creationDate\":\"2019-02-08\"}")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void followChanges_ndjsonAccepted_pushesOneDriverPerLine() {
+        FluxExchangeResult<String> result = webTestClient.get().uri("/drivers/changes")
+                .accept(MediaType.parseMediaType("application/x-ndjson")).exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class);
+
+        StepVerifier.create(result.getResponseBody())
+                .then(() -> driverChangeFeed.publish(driverList))
+                .expectNextMatches(line -> line.startsWith("{\"id\":1,"))
+                .expectNextMatches(line -> line.startsWith("{\"id\":2,"))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        verify(mockDriverRepository, never()).findAll(anyInt(), anyInt());
+    }
+
+    @Test
+    public void followChanges_subscriberLagging_catchesUpFromRepository() throws Exception {
+        List<Driver> stored = IntStream.rangeClosed(1, 1100)
+                .mapToObj(id -> new Driver(id, "Jane", "Doe", LocalDate.parse("1980-05-15"), LocalDate.parse("2020-01-01")))
+                .collect(Collectors.toList());
+        when(mockDriverRepository.findAll(anyInt(), eq(1000))).thenAnswer(invocation -> completedFuture(
+                stored.subList(Math.min(invocation.getArgument(0), stored.size()), stored.size())));
+
+        FluxExchangeResult<String> result = webTestClient.get().uri("/drivers/changes")
+                .accept(MediaType.parseMediaType("application/x-ndjson")).exchange()
+                .returnResult(String.class);
+
+        StepVerifier.create(result.getResponseBody().filter(line -> !line.isEmpty()))
+                .then(() -> driverChangeFeed.publish(stored))
+                .expectNextCount(1099)
+                .expectNextMatches(line -> line.startsWith("{\"id\":1100,"))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        verify(mockDriverRepository).findAll(1024, 1000);
+    }
+
+
+    @Test
+    public void followChanges_invalidLastEventId_returnsBadRequest() {
+        webTestClient.get().uri("/drivers/changes").header("Last-Event-ID", "seven").exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo("bad.request");
+    }
+
+    @Test
+    public void importDrivers_ndjson_reportsEachDriver() {
+        when(mockDriverRepository.saveAll(anyList())).thenReturn(completedFuture(asList(driver)));
+
+        webTestClient.post().uri("/drivers/batch").contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .bodyValue("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}\n" +
+                        "{\"firstName\": \"Jane\"}\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$.[0].status").isEqualTo("CREATED")
+                .jsonPath("$.[0].driver.id").isEqualTo(3)
+                .jsonPath("$.[1].status").isEqualTo("INVALID");
+    }
+}
@@ -0,0 +1,107 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.rules.TemporaryFolder;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.concurrent.ForkJoinPool;
+
+public class ReactiveDriverRepositoryTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    @DisplayName("Should read the repository file asynchronously and emit all driver records in file order")
+    public void findAll_linesScanMode_emitsAllDriverRecords() throws Exception {
+
+        try (FileDriverRepository fileRepository = new FileDriverRepository(getPathFromTemporaryFolder("drivers_repo.txt"),
+                WriterSettings.defaults(), ScanMode.LINES)) {
+            ReactiveDriverRepository test = new ReactiveDriverRepository(fileRepository, ForkJoinPool.commonPool());
+
+            StepVerifier.create(test.findAll().map(Driver::getId))
+                    .expectNext(1, 2, 3)
+                    .verifyComplete();
+        }
+    }
+
+    @Test
+    @DisplayName("Should emit the drivers created after 2019-01-01 including a driver saved after startup")
+    public void findCreatedAfter_newDriverSaved_emitsFilteredRecords() throws Exception {
+
+        try (FileDriverRepository fileRepository = new FileDriverRepository(getPathFromTemporaryFolder("drivers_repo.txt"),
+                WriterSettings.defaults(), ScanMode.LINES)) {
+            ReactiveDriverRepository test = new ReactiveDriverRepository(fileRepository, ForkJoinPool.commonPool());
+
+            StepVerifier.create(test.save(buildNewDriver()).map(Driver::getId))
+                    .expectNext(4)
+                    .verifyComplete();
+            StepVerifier.create(test.findCreatedAfter(LocalDate.parse("2019-01-01")).map(Driver::getId))
+                    .expectNext(1, 3, 4)
+                    .verifyComplete();
+        }
+    }
+
+    @Test
+    @DisplayName("Should not read bytes appended to the repository file past its committed length")
+    public void findAll_uncommittedBytesAppended_emitsCommittedRecordsOnly() throws Exception {
+
+        Path driversTestRepoFile = getPathFromTemporaryFolder("drivers_repo.txt");
+
+        try (FileDriverRepository fileRepository = new FileDriverRepository(driversTestRepoFile,
+                WriterSettings.defaults(), ScanMode.LINES)) {
+            ReactiveDriverRepository test = new ReactiveDriverRepository(fileRepository, ForkJoinPool.commonPool());
+            Files.write(driversTestRepoFile, "4;Torn;Rec".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            StepVerifier.create(test.findAll().map(Driver::getId))
+                    .expectNext(1, 2, 3)
+                    .verifyComplete();
+        }
+    }
+
+    @Test
+    @DisplayName("Should emit the drivers created after 2019-01-01 from the index ordered by id")
+    public void findCreatedAfter_indexScanMode_emitsRecordsInIdOrder() throws Exception {
+
+        try (FileDriverRepository fileRepository = new FileDriverRepository(getPathFromTemporaryFolder("drivers_repo.txt"))) {
+            ReactiveDriverRepository test = new ReactiveDriverRepository(fileRepository, ForkJoinPool.commonPool());
+
+            StepVerifier.create(test.findCreatedAfter(LocalDate.parse("2019-01-01")).map(Driver::getId))
+                    .expectNext(1, 3)
+                    .verifyComplete();
+        }
+    }
+
+    @Test
+    @DisplayName("Should complete empty when there is no driver of the given id")
+    public void findById_unknownId_completesEmpty() throws Exception {
+
+        try (FileDriverRepository fileRepository = new FileDriverRepository(getPathFromTemporaryFolder("drivers_repo.txt"))) {
+            ReactiveDriverRepository test = new ReactiveDriverRepository(fileRepository, ForkJoinPool.commonPool());
+
+            StepVerifier.create(test.findById(42))
+                    .verifyComplete();
+        }
+    }
+
+    private static Driver buildNewDriver() {
+        return new Driver(null, "New", "Driver", LocalDate.parse("1990-12-12"), LocalDate.now());
+    }
+
+    private Path getPathFromTemporaryFolder(String testFile) throws IOException {
+        Path resourceFilePath = temporaryFolder.getRoot().toPath().resolve("drivers.txt");
+        Files.copy(Paths.get("src", "test", "resources", "repository", testFile), resourceFilePath);
+
+        return resourceFilePath;
+    }
+}
@@ -0,0 +1,57 @@
+package com.thefloow.driver.config;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadExecutorTest {
+
+    @Before
+    public void requireVirtualThreads() {
+        assumeTrue(VirtualThreadExecutor.isSupported());
+    }
+
+    @Test
+    @DisplayName("Should run the task on a named virtual thread")
+    public void execute_happyPath_taskRunOnVirtualThread() throws Exception {
+
+        VirtualThreadExecutor test = new VirtualThreadExecutor("test-");
+
+        String threadName = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), test)
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(threadName).isEqualTo("test-0");
+    }
+
+    @Test
+    @DisplayName("Should reject a task while the maximum number of tasks are running")
+    public void execute_maxTasksRunning_taskRejected() throws Exception {
+
+        VirtualThreadExecutor test = new VirtualThreadExecutor("test-", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        test.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        });
+
+        assertThatThrownBy(() -> test.execute(() -> {
+        })).isInstanceOf(RejectedExecutionException.class);
+        assertThat(test.getActiveCount()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(finished.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,165 @@
+package com.thefloow.driver.controller;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.thefloow.driver.controller.DriverChangeFeed.DriverChange;
+import com.thefloow.driver.controller.DriverChangeFeed.Subscription;
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.DriverRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class DriverChangeFeedTest {
+
+    private DriverRepository driverRepository;
+    private DriverChangeFeed test;
+
+    @Before
+    public void createFeed() {
+        driverRepository = mock(DriverRepository.class);
+        test = new DriverChangeFeed(driverRepository,
+                Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build(),
+                2,
+                3);
+    }
+
+    @Test
+    @DisplayName("Should listen to the drivers saved in the repository")
+    public void new_happyPath_listensToSavedDrivers() {
+
+        verify(driverRepository).addSaveListener(any());
+    }
+
+    @Test
+    @DisplayName("Should hand every published driver to every subscriber, encoded once as an event and as NDJSON")
+    public void publish_happyPath_changesHandedToEverySubscriber() {
+
+        AtomicInteger signals = new AtomicInteger();
+        Subscription first = test.subscribe(signals::incrementAndGet);
+        Subscription second = test.subscribe(signals::incrementAndGet);
+
+        test.publish(asList(driver(1), driver(2)));
+
+        assertThat(signals.get()).isEqualTo(2);
+        DriverChange change = first.poll();
+        assertThat(change.getId()).isEqualTo(1);
+        assertThat(new String(change.getEvent(), StandardCharsets.UTF_8)).isEqualTo("id: 1\nevent: driver\ndata: "
+                + "{\"id\":1,\"firstName\":\"Jane\",\"lastName\":\"Doe\","
+                + "\"dateOfBirth\":\"1980-05-15\",\"creationDate\":\"2020-01-01\"}\n\n");
+        assertThat(new String(change.getNdjson(), StandardCharsets.UTF_8)).isEqualTo(
+                "{\"id\":1,\"firstName\":\"Jane\",\"lastName\":\"Doe\","
+                        + "\"dateOfBirth\":\"1980-05-15\",\"creationDate\":\"2020-01-01\"}\n");
+        assertThat(first.poll().getId()).isEqualTo(2);
+        assertThat(first.poll()).isNull();
+        assertThat(second.poll()).isSameAs(change);
+    }
+
+    @Test
+    @DisplayName("Should skip the changes of the drivers already replayed from the repository")
+    public void poll_skippedTo_replayedDriversSkipped() {
+
+        Subscription subscription = test.subscribe(() -> {
+        });
+        test.publish(asList(driver(1), driver(2), driver(3)));
+
+        subscription.skipTo(2);
+
+        assertThat(subscription.poll().getId()).isEqualTo(3);
+        assertThat(subscription.poll()).isNull();
+    }
+
+    @Test
+    @DisplayName("Should leave out the changes a subscriber has no room for until it resumes, keeping the others")
+    public void publish_subscriberTooSlow_changesLeftOutUntilResumed() {
+
+        AtomicInteger slowSignals = new AtomicInteger();
+        Subscription slow = test.subscribe(slowSignals::incrementAndGet);
+        test.publish(asList(driver(1), driver(2)));
+        Subscription fast = test.subscribe(() -> {
+        });
+
+        test.publish(asList(driver(3), driver(4)));
+        test.publish(asList(driver(5)));
+
+        assertThat(slow.isLagging()).isTrue();
+        assertThat(slowSignals.get()).isEqualTo(3);
+        assertThat(slow.poll().getId()).isEqualTo(1);
+        assertThat(slow.poll().getId()).isEqualTo(2);
+        assertThat(slow.poll().getId()).isEqualTo(3);
+        assertThat(slow.poll()).isNull();
+        assertThat(slow.getLastId()).isEqualTo(3);
+        assertThat(fast.isLagging()).isFalse();
+        assertThat(fast.poll().getId()).isEqualTo(3);
+        assertThat(fast.poll().getId()).isEqualTo(4);
+        assertThat(fast.poll().getId()).isEqualTo(5);
+
+        slow.resume();
+        test.publish(asList(driver(6)));
+
+        assertThat(slow.isLagging()).isFalse();
+        assertThat(slow.poll().getId()).isEqualTo(6);
+    }
+
+    @Test
+    @DisplayName("Should reject a subscriber past the maximum number of subscribers, until one closes")
+    public void subscribe_maxSubscribersReached_rejectedAsUnavailable() {
+
+        Subscription first = test.subscribe(() -> {
+        });
+        test.subscribe(() -> {
+        });
+
+        assertThatThrownBy(() -> test.subscribe(() -> {
+        }))
+                .isInstanceOf(ServiceException.class)
+                .extracting("httpStatus").isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+
+        first.close();
+        assertThat(first.isClosed()).isTrue();
+        assertThatCode(() -> test.subscribe(() -> {
+        })).doesNotThrowAnyException();
+    }
+
+    @Test
+    @DisplayName("Should not encode the published drivers without subscribers")
+    public void publish_noSubscriber_nothingEncoded() {
+
+        Driver driver = mock(Driver.class);
+
+        test.publish(Collections.singletonList(driver));
+
+        verifyZeroInteractions(driver);
+    }
+
+    @Test
+    @DisplayName("Should resume after the last event id rather than the id of the query, or only follow new drivers")
+    public void resumeAfterId_happyPath_lastEventIdFirst() {
+
+        assertThat(DriverChangeFeed.resumeAfterId(5, "7")).isEqualTo(7);
+        assertThat(DriverChangeFeed.resumeAfterId(5, null)).isEqualTo(5);
+        assertThat(DriverChangeFeed.resumeAfterId(null, null)).isEqualTo(DriverChangeFeed.LIVE_ONLY);
+        assertThatThrownBy(() -> DriverChangeFeed.resumeAfterId(null, "seven"))
+                .isInstanceOf(ServiceException.class);
+        assertThatThrownBy(() -> DriverChangeFeed.resumeAfterId(-2, null))
+                .isInstanceOf(ServiceException.class);
+    }
+
+    private static Driver driver(int id) {
+        return new Driver(id, "Jane", "Doe", LocalDate.parse("1980-05-15"), LocalDate.parse("2020-01-01"));
+    }
+}
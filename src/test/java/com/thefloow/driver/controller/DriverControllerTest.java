@@ -1,30 +1,68 @@
 package com.thefloow.driver.controller;
 
 import com.thefloow.driver.model.Driver;
+import com.thefloow.driver.repository.CreationPeriod;
 import com.thefloow.driver.repository.DriverRepository;
+import com.thefloow.driver.repository.FileDriverRepository;
+import com.thefloow.driver.repository.IdempotencyKeys;
+import com.thefloow.driver.repository.RepositoryMetrics;
+import com.thefloow.driver.repository.ScanMode;
+import com.thefloow.driver.repository.WriterSettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -39,6 +77,36 @@ public class DriverControllerTest{
     @MockBean
     private DriverRepository mockDriverRepository;
 
+    @MockBean
+    private IdempotencyKeys mockIdempotencyKeys;
+
+    @Autowired
+    private DriverResponseCache driverResponseCache;
+
+    @Autowired
+    private DriverChangeFeed driverChangeFeed;
+
+    @Autowired
+    private DriverJsonStreamer driverJsonStreamer;
+
+    @Autowired
+    private DriverBatchReader driverBatchReader;
+
+    @Autowired
+    private DriverBatchImporter driverBatchImporter;
+
+    @Autowired
+    private DriverChangeEmitter driverChangeEmitter;
+
+    @Autowired
+    private IdempotentDriverSaver idempotentDriverSaver;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private List<Driver> driverList = asList(
             new Driver(1, "Jaime", "Bergas", LocalDate.parse("1984-05-15"), LocalDate.parse("2020-02-08")),
             new Driver(2, "Jane", "Doe", LocalDate.parse("1980-05-15"), LocalDate.parse("2018-02-08"))
@@ -46,9 +114,14 @@ public class DriverControllerTest{
 
     private Driver driver = new Driver(3, "John", "Doe", LocalDate.parse("1990-05-15"), LocalDate.parse("2019-02-08"));
 
+    @Before
+    public void clearResponseCache() {
+        driverResponseCache.clear();
+    }
+
     @Test
     public void findAllDrivers_happyPath() throws Exception {
-        when(mockDriverRepository.findAll()).thenReturn(completedFuture(driverList));
+        when(mockDriverRepository.streamAll()).thenReturn(driverList.stream());
 
         performAsync(get("/drivers"))
                 .andExpect(status().isOk())
@@ -65,14 +138,96 @@ public class DriverControllerTest{
                 .andExpect(jsonPath("$.[1].dateOfBirth").value("1980-05-15"))
                 .andExpect(jsonPath("$.[1].creationDate").value("2018-02-08"));
 
-        verify(mockDriverRepository, times(1)).findAll();
+        verify(mockDriverRepository, times(1)).streamAll();
+    }
+
+    @Test
+    public void findAllDrivers_ndjsonAccepted_returnsOneDriverPerLine() throws Exception {
+        when(mockDriverRepository.streamAll()).thenReturn(driverList.stream());
+
+        performAsync(get("/drivers").accept("application/x-ndjson"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andExpect(content().string(
+                        "{\"id\":1,\"firstName\":\"Jaime\",\"lastName\":\"Bergas\",\"dateOfBirth\":\"1984-05-15\",\"creationDate\":\"2020-02-08\"}\n" +
+                        "{\"id\":2,\"firstName\":\"Jane\",\"lastName\":\"Doe\",\"dateOfBirth\":\"1980-05-15\",\"creationDate\":\"2018-02-08\"}\n"));
+
+        verify(mockDriverRepository, times(1)).streamAll();
+    }
+
+    @Test
+    public void findAllDrivers_ndjsonPreferredByQuality_returnsOneDriverPerLine() throws Exception {
+        when(mockDriverRepository.streamAll()).thenReturn(driverList.stream());
+
+        performAsync(get("/drivers").header(HttpHeaders.ACCEPT,
+                "application/json;q=0.5, application/x-ndjson;charset=UTF-8"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andExpect(content().string(
+                        "{\"id\":1,\"firstName\":\"Jaime\",\"lastName\":\"Bergas\",\"dateOfBirth\":\"1984-05-15\",\"creationDate\":\"2020-02-08\"}\n" +
+                        "{\"id\":2,\"firstName\":\"Jane\",\"lastName\":\"Doe\",\"dateOfBirth\":\"1980-05-15\",\"creationDate\":\"2018-02-08\"}\n"));
+    }
+
+    @Test
+    public void findAllDrivers_jsonPreferredByQuality_returnsJsonArray() throws Exception {
+        when(mockDriverRepository.streamAll()).thenReturn(driverList.stream());
+
+        performAsync(get("/drivers").header(HttpHeaders.ACCEPT, "application/x-ndjson;q=0.5, */*"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(APPLICATION_JSON))
+                .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    public void findAllDrivers_currentETag_returnsNotModified() throws Exception {
+        when(mockDriverRepository.getVersion()).thenReturn(42L);
+
+        mockMvc.perform(get("/drivers").header(HttpHeaders.IF_NONE_MATCH, "\"2a-json\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2a-json\""))
+                .andExpect(content().string(""));
+
+        verify(mockDriverRepository, never()).streamAll();
+    }
+
+    @Test
+    public void findAllDrivers_repeatedAtSameVersion_returnsCachedBody() throws Exception {
+        when(mockDriverRepository.getVersion()).thenReturn(42L);
+        when(mockDriverRepository.streamAll()).thenReturn(driverList.stream());
+
+        String body = performAsync(get("/drivers"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2a-json\""))
+                .andReturn().getResponse().getContentAsString();
+
+        performAsync(get("/drivers").header(HttpHeaders.IF_NONE_MATCH, "\"29-json\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2a-json\""))
+                .andExpect(content().string(body));
+
+        verify(mockDriverRepository, times(1)).streamAll();
+    }
+
+    @Test
+    public void findAllDrivers_driverCreated_cachedBodyDropped() throws Exception {
+        when(mockDriverRepository.streamAll()).thenReturn(driverList.stream()).thenReturn(asList(driver).stream());
+        when(mockDriverRepository.save(any(Driver.class))).thenReturn(completedFuture(driver));
+
+        performAsync(get("/drivers")).andExpect(jsonPath("$.length()").value(2));
+        performAsync(post("/driver/create")
+                .contentType(APPLICATION_JSON)
+                .content("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}"))
+                .andExpect(status().isOk());
+        performAsync(get("/drivers")).andExpect(jsonPath("$.length()").value(1));
+
+        verify(mockDriverRepository, times(2)).streamAll();
     }
 
     @Test
     public void findDriversCreatedAfterDate_happyPath() throws Exception {
         LocalDate fromDate = LocalDate.parse("2019-01-01");
 
-        when(mockDriverRepository.findCreatedAfter(fromDate)).thenReturn(completedFuture(driverList));
+        when(mockDriverRepository.streamCreatedAfter(fromDate)).thenReturn(driverList.stream());
 
         performAsync(get("/drivers/byDate?date=2019-01-01"))
                 .andExpect(status().isOk())
@@ -89,9 +244,205 @@ public class DriverControllerTest{
                 .andExpect(jsonPath("$.[1].dateOfBirth").value("1980-05-15"))
                 .andExpect(jsonPath("$.[1].creationDate").value("2018-02-08"));
 
-        verify(mockDriverRepository, times(1)).findCreatedAfter(fromDate);
+        verify(mockDriverRepository, times(1)).streamCreatedAfter(fromDate);
+    }
+
+    @Test
+    public void findDriversCreatedAfterDate_repeatedAfterDriverStored_cachedDriversNotScannedAgain() throws Exception {
+        Path repositoryFile = temporaryFolder.getRoot().toPath().resolve("drivers.txt");
+        Files.copy(Paths.get(getClass().getResource("/repository/drivers_repo.txt").toURI()), repositoryFile);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        try (FileDriverRepository repository = new FileDriverRepository(repositoryFile, WriterSettings.defaults(),
+                ScanMode.LINES, ForkJoinPool.commonPool(), new RepositoryMetrics(registry))) {
+            MockMvc controller = MockMvcBuilders.standaloneSetup(new DriverController(repository, driverJsonStreamer,
+                    driverBatchReader, driverBatchImporter, driverResponseCache, driverChangeEmitter,
+                    idempotentDriverSaver)).build();
+
+            performAsync(controller, get("/drivers/byDate?date=2019-01-01"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[*].id").value(contains(1, 3)));
+            double scanned = registry.get("repository.rows.scanned").tag("operation", "streamCreatedAfter")
+                    .counter().count();
+            repository.save(driver).get();
+            performAsync(controller, get("/drivers/byDate?date=2019-01-01"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[*].id").value(contains(1, 3, 4)));
+
+            assertThat(registry.get("repository.rows.scanned").tag("operation", "streamCreatedAfter")
+                    .counter().count()).isEqualTo(scanned);
+            assertThat(registry.get("repository.cache.gets").tag("result", "hit").counter().count()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void findDriversPage_fullPage_returnsLinkToNextPage() throws Exception {
+        when(mockDriverRepository.findAll(0, 2)).thenReturn(completedFuture(driverList));
+
+        performAsync(get("/drivers?limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Link",
+                        "<http://localhost/drivers?limit=2&after=" + DriverCursor.encode(2) + ">; rel=\"next\""))
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$.[0].id").value(1))
+                .andExpect(jsonPath("$.[1].id").value(2));
+
+        verify(mockDriverRepository, times(1)).findAll(0, 2);
+    }
+
+    @Test
+    public void findDriversCreatedAfterDatePage_lastPage_returnsNoLinkToNextPage() throws Exception {
+        LocalDate fromDate = LocalDate.parse("2019-01-01");
+
+        when(mockDriverRepository.findCreatedAfter(fromDate, 1, 5)).thenReturn(completedFuture(asList(driver)));
+
+        performAsync(get("/drivers/byDate?date=2019-01-01&limit=5&after=" + DriverCursor.encode(1)))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Link"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$.[0].id").value(3));
+
+        verify(mockDriverRepository, times(1)).findCreatedAfter(fromDate, 1, 5);
     }
 
+    @Test
+    public void findDriversPage_invalidCursor_returnsBadRequest() throws Exception {
+        mockMvc.perform(get("/drivers?limit=2&after=not-a-cursor"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("bad.request"))
+                .andExpect(jsonPath("$.message").value("Invalid input data"));
+    }
+
+    @Test
+    public void findDriverById_happyPath() throws Exception {
+        when(mockDriverRepository.findById(3)).thenReturn(completedFuture(Optional.of(driver)));
+
+        performAsync(get("/driver/3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(3))
+                .andExpect(jsonPath("$.firstName").value("John"))
+                .andExpect(jsonPath("$.lastName").value("Doe"))
+                .andExpect(jsonPath("$.dateOfBirth").value("1990-05-15"))
+                .andExpect(jsonPath("$.creationDate").value("2019-02-08"));
+
+        verify(mockDriverRepository, times(1)).findById(3);
+    }
+
+    @Test
+    public void findDriverById_unknownId_returnsNotFound() throws Exception {
+        when(mockDriverRepository.findById(4)).thenReturn(completedFuture(Optional.empty()));
+
+        performAsync(get("/driver/4"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.code").value("not.found"))
+                .andExpect(jsonPath("$.message").value("Driver not found"));
+    }
+
+    @Test
+    public void findDriverById_invalidId_returnsBadRequest() throws Exception {
+        mockMvc.perform(get("/driver/abc"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("bad.request"))
+                .andExpect(jsonPath("$.message").value("Invalid input data"));
+    }
+
+    @Test
+    public void findDriversByName_happyPath() throws Exception {
+        when(mockDriverRepository.findByName("do", 20)).thenReturn(completedFuture(asList(driverList.get(1), driver)));
+
+        performAsync(get("/drivers/search?name=do"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$.[0].id").value(2))
+                .andExpect(jsonPath("$.[0].lastName").value("Doe"))
+                .andExpect(jsonPath("$.[1].id").value(3));
+
+        verify(mockDriverRepository, times(1)).findByName("do", 20);
+    }
+
+    @Test
+    public void findDriversByName_blankName_returnsBadRequest() throws Exception {
+        mockMvc.perform(get("/drivers/search").param("name", " "))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("bad.request"))
+                .andExpect(jsonPath("$.message").value("Invalid input data"));
+
+        verify(mockDriverRepository, never()).findByName(any(), anyInt());
+    }
+
+    @Test
+    public void findDriversByName_limitTooHigh_returnsBadRequest() throws Exception {
+        mockMvc.perform(get("/drivers/search?name=do&limit=101"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("bad.request"));
+    }
+
+    @Test
+    public void countDrivers_createdAfterDate_returnsCount() throws Exception {
+        when(mockDriverRepository.countCreatedAfter(LocalDate.parse("2019-01-01"))).thenReturn(completedFuture(42L));
+
+        performAsync(get("/drivers/count?createdAfter=2019-01-01"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(42));
+    }
+
+    @Test
+    public void countDriversByCreation_month_returnsCountsByMonth() throws Exception {
+        SortedMap<LocalDate, Long> counts = new TreeMap<>();
+        counts.put(LocalDate.parse("2019-01-01"), 3L);
+        counts.put(LocalDate.parse("2019-03-01"), 1L);
+        when(mockDriverRepository.countCreatedByPeriod(LocalDate.MIN, CreationPeriod.MONTH)).thenReturn(completedFuture(counts));
+
+        performAsync(get("/drivers/count/byCreation?period=month"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$.[0].period").value("2019-01"))
+                .andExpect(jsonPath("$.[0].count").value(3))
+                .andExpect(jsonPath("$.[1].period").value("2019-03"))
+                .andExpect(jsonPath("$.[1].count").value(1));
+    }
+
+    @Test
+    public void countDriversByCreation_unknownPeriod_returnsBadRequest() throws Exception {
+        mockMvc.perform(get("/drivers/count/byCreation?period=WEEK"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("bad.request"));
+    }
+
+    @Test
+    public void countDriversByAge_bands_returnsCountsByBand() throws Exception {
+        when(mockDriverRepository.countByAge(any(), eq(18), eq(30))).thenReturn(completedFuture(new long[]{1, 5, 2}));
+
+        performAsync(get("/drivers/count/byAge?bands=18,30"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$.[0].minAge").doesNotExist())
+                .andExpect(jsonPath("$.[0].maxAge").value(18))
+                .andExpect(jsonPath("$.[0].count").value(1))
+                .andExpect(jsonPath("$.[1].minAge").value(18))
+                .andExpect(jsonPath("$.[1].maxAge").value(30))
+                .andExpect(jsonPath("$.[1].count").value(5))
+                .andExpect(jsonPath("$.[2].minAge").value(30))
+                .andExpect(jsonPath("$.[2].maxAge").doesNotExist())
+                .andExpect(jsonPath("$.[2].count").value(2));
+    }
+
+    @Test
+    public void countDriversByAge_decreasingBands_returnsBadRequest() throws Exception {
+        mockMvc.perform(get("/drivers/count/byAge?bands=30,18"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("bad.request"));
+    }
+
+    @Test
+    public void findDriversPage_repositoryBusy_returnsServiceUnavailable() throws Exception {
+        when(mockDriverRepository.findAll(0, 2)).thenThrow(new RejectedExecutionException());
+
+        mockMvc.perform(get("/drivers?limit=2"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.code").value("service.unavailable"))
+                .andExpect(jsonPath("$.message").value("Repository is not accepting new requests"));
+    }
 
     @Test
     public void createNewDriver_happyPath() throws Exception {
@@ -114,6 +465,306 @@ public class DriverControllerTest{
         verify(mockDriverRepository, times(1)).save(any(Driver.class));
     }
 
+    @Test
+    public void createNewDriver_newIdempotencyKey_storesDriverAndKey() throws Exception {
+
+        when(mockDriverRepository.save(any(Driver.class))).thenReturn(completedFuture(driver));
+        AtomicReference<String> keyThread = new AtomicReference<>();
+        doAnswer(invocation -> {
+            keyThread.set(Thread.currentThread().getName());
+            return null;
+        }).when(mockIdempotencyKeys).put("retry-1", 3);
+
+        performAsync(
+                post("/driver/create")
+                        .header("Idempotency-Key", "retry-1")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}")
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(3));
+
+        verify(mockIdempotencyKeys).put("retry-1", 3);
+        assertThat(keyThread.get()).startsWith("idempotency-key-writer-");
+    }
+
+    @Test
+    public void createNewDriver_idempotencyKeyNotJournaled_returnsDriverAndCountsFailure() throws Exception {
+
+        when(mockDriverRepository.save(any(Driver.class))).thenReturn(completedFuture(driver));
+        doThrow(new UncheckedIOException(new IOException("Disk full"))).when(mockIdempotencyKeys).put("retry-1", 3);
+        Counter failures = meterRegistry.counter("repository.idempotency.write.failures");
+        double failuresBefore = failures.count();
+
+        performAsync(
+                post("/driver/create")
+                        .header("Idempotency-Key", "retry-1")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}")
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(3));
+
+        assertThat(failures.count()).isEqualTo(failuresBefore + 1);
+    }
+
+    @Test
+    public void createNewDriver_idempotencyKeyAlreadyUsed_returnsStoredDriver() throws Exception {
+
+        when(mockIdempotencyKeys.find("retry-1")).thenReturn(3);
+        when(mockDriverRepository.findById(3)).thenReturn(completedFuture(Optional.of(driver)));
+
+        performAsync(
+                post("/driver/create")
+                        .header("Idempotency-Key", "retry-1")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}")
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(3))
+                .andExpect(jsonPath("$.creationDate").value("2019-02-08"));
+
+        verify(mockDriverRepository, never()).save(any(Driver.class));
+    }
+
+    @Test
+    public void createNewDriver_storedDriverReadRejected_retryWithKeyReadsAgain() throws Exception {
+
+        when(mockIdempotencyKeys.find("retry-1")).thenReturn(3);
+        when(mockDriverRepository.findById(3))
+                .thenThrow(new RejectedExecutionException())
+                .thenReturn(completedFuture(Optional.of(driver)));
+        RequestBuilder retry = post("/driver/create")
+                .header("Idempotency-Key", "retry-1")
+                .contentType(APPLICATION_JSON)
+                .content("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}");
+
+        performAsync(retry)
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.code").value("service.unavailable"));
+        performAsync(retry)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(3));
+
+        verify(mockDriverRepository, times(2)).findById(3);
+    }
+
+    @Test
+    public void createNewDriver_invalidIdempotencyKey_returnsBadRequest() throws Exception {
+
+        mockMvc.perform(
+                post("/driver/create")
+                        .header("Idempotency-Key", "retry;1")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}")
+        )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("bad.request"));
+
+        verify(mockDriverRepository, never()).save(any(Driver.class));
+    }
+
+
+    @Test
+    public void importDrivers_jsonArrayWithInvalidDriver_returnsResultOfEachDriver() throws Exception {
+
+        String batchRequestBody = "[" +
+                "{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}," +
+                "{\"firstName\": \"Jane\",\"lastName\": \"Doe\"}," +
+                "{\"firstName\": \"Jaime\",\"lastName\": \"Bergas\",\"dateOfBirth\": \"1984-05-15\"}" +
+                "]";
+
+        when(mockDriverRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<Driver> drivers = invocation.getArgument(0);
+            for (int i = 0; i < drivers.size(); i++) {
+                drivers.get(i).setId(4 + i);
+            }
+            return completedFuture(drivers);
+        });
+
+        performAsync(
+                post("/drivers/batch")
+                        .contentType(APPLICATION_JSON)
+                        .content(batchRequestBody)
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$.[0].index").value(0))
+                .andExpect(jsonPath("$.[0].status").value("CREATED"))
+                .andExpect(jsonPath("$.[0].driver.id").value(4))
+                .andExpect(jsonPath("$.[0].driver.firstName").value("John"))
+                .andExpect(jsonPath("$.[1].index").value(1))
+                .andExpect(jsonPath("$.[1].status").value("INVALID"))
+                .andExpect(jsonPath("$.[1].code").value("bad.request"))
+                .andExpect(jsonPath("$.[1].message").value("Date of birth is required"))
+                .andExpect(jsonPath("$.[2].index").value(2))
+                .andExpect(jsonPath("$.[2].status").value("CREATED"))
+                .andExpect(jsonPath("$.[2].driver.id").value(5))
+                .andExpect(jsonPath("$.[2].driver.firstName").value("Jaime"));
+
+        verify(mockDriverRepository, times(1)).saveAll(anyList());
+    }
+
+    @Test
+    public void importDrivers_driverNotStorable_returnsResultOfEachDriver() throws Exception {
+
+        String batchRequestBody = "[" +
+                "{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}," +
+                "{\"firstName\": \"Jane\",\"lastName\": \"Unstorable\",\"dateOfBirth\": \"1980-05-15\"}" +
+                "]";
+
+        when(mockDriverRepository.checkStorable(any(Driver.class))).thenAnswer(invocation ->
+                "Unstorable".equals(invocation.<Driver>getArgument(0).getLastName())
+                        ? Optional.of("Names must be at most 56 bytes long")
+                        : Optional.empty());
+        when(mockDriverRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<Driver> drivers = invocation.getArgument(0);
+            drivers.get(0).setId(4);
+            return completedFuture(drivers);
+        });
+
+        performAsync(
+                post("/drivers/batch")
+                        .contentType(APPLICATION_JSON)
+                        .content(batchRequestBody)
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$.[0].status").value("CREATED"))
+                .andExpect(jsonPath("$.[0].driver.id").value(4))
+                .andExpect(jsonPath("$.[1].index").value(1))
+                .andExpect(jsonPath("$.[1].status").value("INVALID"))
+                .andExpect(jsonPath("$.[1].code").value("bad.request"))
+                .andExpect(jsonPath("$.[1].message").value("Names must be at most 56 bytes long"));
+
+        verify(mockDriverRepository, times(1)).saveAll(argThat(drivers -> drivers.size() == 1));
+    }
+
+    @Test
+    public void importDrivers_ndjson_returnsResultOfEachDriver() throws Exception {
+
+        String batchRequestBody =
+                "{\"firstName\": \"John\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1990-05-15\"}\n" +
+                "{\"firstName\": \"Jane\",\"lastName\": \"Doe\",\"dateOfBirth\": \"1980-05-15\"}\n";
+
+        when(mockDriverRepository.saveAll(anyList())).thenReturn(completedFuture(driverList));
+
+        performAsync(
+                post("/drivers/batch")
+                        .contentType("application/x-ndjson")
+                        .content(batchRequestBody)
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$.[0].driver.id").value(1))
+                .andExpect(jsonPath("$.[1].driver.id").value(2));
+    }
+
+    @Test
+    public void followChanges_afterId_replaysStoredDriversThenPushesNewOnes() throws Exception {
+        when(mockDriverRepository.findAll(0, 1000)).thenReturn(completedFuture(driverList));
+
+        MvcResult result = mockMvc.perform(get("/drivers/changes?afterId=0"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andExpect(status().isOk())
+                .andReturn();
+        try {
+            driverChangeFeed.publish(singletonList(driver));
+
+            String events = awaitContent(result, "id: 3\n");
+            assertThat(result.getResponse().getContentType()).isEqualTo("text/event-stream");
+            assertThat(events).isEqualTo(
+                    "id: 1\nevent: driver\ndata: {\"id\":1,\"firstName\":\"Jaime\",\"lastName\":\"Bergas\","
+                            + "\"dateOfBirth\":\"1984-05-15\",\"creationDate\":\"2020-02-08\"}\n\n"
+                            + "id: 2\nevent: driver\ndata: {\"id\":2,\"firstName\":\"Jane\",\"lastName\":\"Doe\","
+                            + "\"dateOfBirth\":\"1980-05-15\",\"creationDate\":\"2018-02-08\"}\n\n"
+                            + "id: 3\nevent: driver\ndata: {\"id\":3,\"firstName\":\"John\",\"lastName\":\"Doe\","
+                            + "\"dateOfBirth\":\"1990-05-15\",\"creationDate\":\"2019-02-08\"}\n\n");
+        } finally {
+            result.getRequest().getAsyncContext().complete();
+        }
+    }
+
+    @Test
+    public void followChanges_lastEventIdAndNdjsonAccepted_resumesAfterLastEventAsNdjson() throws Exception {
+        when(mockDriverRepository.findAll(1, 1000)).thenReturn(completedFuture(singletonList(driverList.get(1))));
+
+        MvcResult result = mockMvc.perform(get("/drivers/changes?afterId=0")
+                .header("Last-Event-ID", "1")
+                .accept("application/x-ndjson"))
+                .andExpect(status().isOk())
+                .andReturn();
+        try {
+            driverChangeFeed.publish(singletonList(driver));
+
+            String lines = awaitContent(result, "\"id\":3");
+            assertThat(result.getResponse().getContentType()).isEqualTo("application/x-ndjson");
+            assertThat(lines.split("\n")).hasSize(2);
+            assertThat(lines).startsWith("{\"id\":2,");
+            verify(mockDriverRepository, never()).findAll(eq(0), anyInt());
+        } finally {
+            result.getRequest().getAsyncContext().complete();
+        }
+    }
+
+    @Test
+    public void followChanges_manySubscribers_writtenFromSharedThreads() throws Exception {
+        List<MvcResult> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < 50; i++) {
+                results.add(mockMvc.perform(get("/drivers/changes").accept("application/x-ndjson")).andReturn());
+            }
+            driverChangeFeed.publish(singletonList(driver));
+
+            for (MvcResult result : results) {
+                assertThat(awaitContent(result, "\"id\":3,")).startsWith("{\"id\":3,");
+            }
+            assertThat(Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> thread.getName().startsWith("driver-changes-"))).hasSizeLessThanOrEqualTo(4);
+        } finally {
+            results.forEach(result -> result.getRequest().getAsyncContext().complete());
+        }
+    }
+
+    @Test
+    public void followChanges_subscriberLagging_catchesUpFromRepository() throws Exception {
+        List<Driver> stored = IntStream.rangeClosed(1, 1100)
+                .mapToObj(id -> new Driver(id, "Jane", "Doe", LocalDate.parse("1980-05-15"), LocalDate.parse("2020-01-01")))
+                .collect(Collectors.toList());
+        when(mockDriverRepository.findAll(anyInt(), eq(1000))).thenAnswer(invocation -> completedFuture(
+                stored.subList(Math.min(invocation.getArgument(0), stored.size()), stored.size())));
+
+        MvcResult result = mockMvc.perform(get("/drivers/changes").accept("application/x-ndjson")).andReturn();
+        try {
+            driverChangeFeed.publish(stored);
+
+            String lines = awaitContent(result, "\"id\":1100,");
+            assertThat(lines.split("\n")).hasSize(1100);
+        } finally {
+            result.getRequest().getAsyncContext().complete();
+        }
+    }
+
+
+    @Test
+    public void followChanges_invalidLastEventId_returnsBadRequest() throws Exception {
+        mockMvc.perform(get("/drivers/changes").header("Last-Event-ID", "seven"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("bad.request"))
+                .andExpect(jsonPath("$.message").value("Invalid input data"));
+    }
+
+    @Test
+    public void importDrivers_malformedBody_returnsBadRequest() throws Exception {
+        mockMvc.perform(
+                post("/drivers/batch")
+                        .contentType(APPLICATION_JSON)
+                        .content("[{\"firstName\": ")
+        )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("bad.request"))
+                .andExpect(jsonPath("$.message").value("Invalid input data"));
+    }
 
     @Test
     public void findDriversCreatedAfterDate_invalidDateParameter_returnsBadRequest() throws Exception {
@@ -153,7 +804,24 @@ public class DriverControllerTest{
                 .andExpect(jsonPath("$.message").value("Invalid input data"));
     }
 
+    /**
+     * Waits for the streamed response to hold the given text, as it is written by another thread.
+     */
+    private String awaitContent(MvcResult result, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String content = result.getResponse().getContentAsString(StandardCharsets.UTF_8);
+        while (!content.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            content = result.getResponse().getContentAsString(StandardCharsets.UTF_8);
+        }
+        return content;
+    }
+
     public ResultActions performAsync(RequestBuilder requestBuilder) throws Exception {
+        return performAsync(mockMvc, requestBuilder);
+    }
+
+    private static ResultActions performAsync(MockMvc mockMvc, RequestBuilder requestBuilder) throws Exception {
         return mockMvc.perform(
                 MockMvcRequestBuilders.asyncDispatch(
                         mockMvc.perform(requestBuilder)
@@ -0,0 +1,187 @@
+package com.thefloow.driver.repository;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.thefloow.driver.controller.error.ServiceException;
+import com.thefloow.driver.model.Driver;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class BinaryDriverRepositoryTest {
+
+    @Test
+    @DisplayName("Should convert the text repository file and return all driver records")
+    public void findAll_textRepositoryConverted_returnsAllDriverRecords() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path textRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            try (BinaryDriverRepository test = new BinaryDriverRepository(
+                    fileSystem.getPath("drivers.bin"), textRepoFile, WriterSettings.defaults())) {
+
+                assertThat(getOrThrow(test.findAll()))
+                        .extracting("id", "firstName", "lastName", "dateOfBirth", "creationDate")
+                        .containsExactly(
+                                tuple(1, "Jaime", "Bergas", LocalDate.parse("1984-05-15"), LocalDate.parse("2020-02-08")),
+                                tuple(2, "Jane", "Doe", LocalDate.parse("1980-05-15"), LocalDate.parse("2018-02-08")),
+                                tuple(3, "John", "Doe", LocalDate.parse("1990-05-15"), LocalDate.parse("2019-02-08"))
+                        );
+                assertThat(getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01"))))
+                        .extracting("id").containsExactly(1, 3);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should store new drivers in the slot of their id and seek to it when paginating")
+    public void addNewDriver_happyPath_driverStoredInItsSlot() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path textRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            Path binaryRepoFile = fileSystem.getPath("drivers.bin");
+
+            try (BinaryDriverRepository test = new BinaryDriverRepository(
+                    binaryRepoFile, textRepoFile, WriterSettings.defaults())) {
+                assertThat(getOrThrow(test.save(buildNewDriver())).getId()).isEqualTo(4);
+            }
+
+            assertThat(Files.size(binaryRepoFile)).isEqualTo(BinaryDriverFormat.slotOffset(5));
+
+            try (BinaryDriverRepository reopened = new BinaryDriverRepository(
+                    binaryRepoFile, textRepoFile, WriterSettings.defaults())) {
+                assertThat(getOrThrow(reopened.findById(4))).map(Driver::getLastName).hasValue("Driver");
+                assertThat(getOrThrow(reopened.findById(5))).isEmpty();
+                assertThat(getOrThrow(reopened.findAll(2, 5)))
+                        .extracting("id", "firstName", "lastName", "dateOfBirth", "creationDate")
+                        .containsExactly(
+                                tuple(3, "John", "Doe", LocalDate.parse("1990-05-15"), LocalDate.parse("2019-02-08")),
+                                tuple(4, "New", "Driver", LocalDate.parse("1990-12-12"), LocalDate.now())
+                        );
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should drop an incomplete slot left at the end of the file by an interrupted write")
+    public void newRepository_incompleteLastSlot_slotDropped() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path textRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            Path binaryRepoFile = fileSystem.getPath("drivers.bin");
+            new BinaryDriverRepository(binaryRepoFile, textRepoFile, WriterSettings.defaults()).close();
+            Files.write(binaryRepoFile, new byte[]{0, 0, 0, 4, 0}, StandardOpenOption.APPEND);
+
+            try (BinaryDriverRepository test = new BinaryDriverRepository(
+                    binaryRepoFile, textRepoFile, WriterSettings.defaults())) {
+                assertThat(getOrThrow(test.save(buildNewDriver())).getId()).isEqualTo(4);
+                assertThat(getOrThrow(test.findAll())).extracting("id").containsExactly(1, 2, 3, 4);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should find converted and new drivers by the beginning of their name")
+    public void findByName_namePrefix_returnsMatchingDrivers() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path textRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            try (BinaryDriverRepository test = new BinaryDriverRepository(
+                    fileSystem.getPath("drivers.bin"), textRepoFile, WriterSettings.defaults())) {
+                getOrThrow(test.save(buildNewDriver()));
+
+                assertThat(getOrThrow(test.findByName("doe", 10))).extracting("id").containsExactly(2, 3);
+                assertThat(getOrThrow(test.findByName("N", 10))).extracting("id", "lastName")
+                        .containsExactly(tuple(4, "Driver"));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should count converted and new drivers by creation date and by age band")
+    public void countByAge_newDriver_countsIncludeNewDriver() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path textRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            try (BinaryDriverRepository test = new BinaryDriverRepository(
+                    fileSystem.getPath("drivers.bin"), textRepoFile, WriterSettings.defaults())) {
+                getOrThrow(test.save(new Driver(null, "New", "Driver", LocalDate.parse("1990-06-02"),
+                        LocalDate.parse("2019-02-20"))));
+
+                assertThat(getOrThrow(test.countCreatedAfter(LocalDate.parse("2018-02-08")))).isEqualTo(3);
+                assertThat(getOrThrow(test.countCreatedByPeriod(LocalDate.MIN, CreationPeriod.MONTH)))
+                        .containsExactly(
+                                entry(LocalDate.parse("2018-02-01"), 1L),
+                                entry(LocalDate.parse("2019-02-01"), 2L),
+                                entry(LocalDate.parse("2020-02-01"), 1L));
+                assertThat(getOrThrow(test.countByAge(LocalDate.parse("2020-06-01"), 30, 38)))
+                        .containsExactly(1, 2, 1);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject drivers whose names do not fit in a slot")
+    public void addNewDriver_nameTooLong_serviceExceptionIsThrown() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             BinaryDriverRepository test = new BinaryDriverRepository(
+                     fileSystem.getPath("drivers.bin"), null, WriterSettings.defaults())) {
+
+            Driver driver = new Driver(null, new String(new char[57]).replace('\0', 'a'), "Driver",
+                    LocalDate.parse("1990-12-12"), LocalDate.now());
+
+            assertThatThrownBy(() -> getOrThrow(test.save(driver)))
+                    .isInstanceOf(ServiceException.class)
+                    .hasFieldOrPropertyWithValue("code", "bad.request");
+        }
+    }
+
+    @Test
+    @DisplayName("Should tell why a driver whose names do not fit in a slot cannot be stored")
+    public void checkStorable_nameTooLong_reasonReturned() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             BinaryDriverRepository test = new BinaryDriverRepository(
+                     fileSystem.getPath("drivers.bin"), null, WriterSettings.defaults())) {
+
+            Driver driver = new Driver(null, "New", new String(new char[57]).replace('\0', 'a'),
+                    LocalDate.parse("1990-12-12"), LocalDate.now());
+
+            assertThat(test.checkStorable(driver)).contains("Names must be at most 56 bytes long");
+            assertThat(test.checkStorable(buildNewDriver())).isEmpty();
+        }
+    }
+
+    private static Driver buildNewDriver() {
+        return new Driver(null, "New", "Driver", LocalDate.parse("1990-12-12"), LocalDate.now());
+    }
+
+    private static Path getPathFromJimfsFilesystem(FileSystem fileSystem, String testFile) throws Exception {
+        Path resourceFilePath = fileSystem.getPath("drivers.txt");
+        Files.copy(Paths.get("src", "test", "resources", "repository", testFile), resourceFilePath);
+
+        return resourceFilePath;
+    }
+
+    private static <T> T getOrThrow(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+        }
+    }
+}
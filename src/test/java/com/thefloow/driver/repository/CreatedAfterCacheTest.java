@@ -0,0 +1,85 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CreatedAfterCacheTest {
+
+    private static final LocalDate DATE = LocalDate.parse("2019-01-01");
+
+    private final CreatedAfterCache test = new CreatedAfterCache(CacheSettings.defaults(),
+            Comparator.comparing(Driver::getId), RepositoryMetrics.noop());
+
+    @Test
+    @DisplayName("Should cache a result read while drivers were written with the drivers it missed, once each")
+    public void put_driversWrittenDuringRead_missedDriversAdded() throws Exception {
+        test.add(singletonList(driver(1, "2020-02-08")));
+        long generation = test.generation();
+        test.add(singletonList(driver(3, "2019-02-08")));
+        test.add(asList(driver(4, "2018-12-12"), driver(5, "2020-03-01")));
+
+        test.put(DATE, asList(driver(1, "2020-02-08"), driver(3, "2019-02-08")), generation);
+
+        assertThat(test.get(DATE)).extracting("id").containsExactly(1, 3, 5);
+    }
+
+    @Test
+    @DisplayName("Should share the cached drivers without changing the ones already returned")
+    public void get_driverAddedAfterwards_returnedDriversUnchanged() throws Exception {
+        test.put(DATE, asList(driver(1, "2020-02-08"), driver(3, "2019-02-08")), test.generation());
+        List<Driver> cached = test.get(DATE);
+
+        test.add(singletonList(driver(4, "2020-03-01")));
+        test.add(singletonList(driver(2, "2020-03-01")));
+
+        assertThat(cached).extracting("id").containsExactly(1, 3);
+        assertThatThrownBy(() -> cached.add(driver(5, "2020-03-01")))
+                .isInstanceOf(UnsupportedOperationException.class);
+        assertThat(test.get(DATE)).extracting("id").containsExactly(1, 2, 3, 4);
+    }
+
+    @Test
+    @DisplayName("Should cache the drivers of a stream once read to its end, and nothing from a stream closed before")
+    public void caching_streamReadToEnd_driversCached() throws Exception {
+        List<Driver> drivers = asList(driver(1, "2020-02-08"), driver(3, "2019-02-08"));
+
+        try (Stream<Driver> partial = test.caching(DATE, drivers::stream)) {
+            assertThat(partial.limit(1)).extracting("id").containsExactly(1);
+        }
+        assertThat(test.get(DATE)).isNull();
+        try (Stream<Driver> whole = test.caching(DATE, drivers::stream)) {
+            test.add(singletonList(driver(4, "2020-03-01")));
+            assertThat(whole).extracting("id").containsExactly(1, 3);
+        }
+
+        assertThat(test.get(DATE)).extracting("id").containsExactly(1, 3, 4);
+    }
+
+    @Test
+    @DisplayName("Should drop the cached results, and not cache the ones read before, once cleared")
+    public void clear_resultBeingRead_notCached() throws Exception {
+        test.put(DATE, singletonList(driver(1, "2020-02-08")), test.generation());
+        long generation = test.generation();
+
+        test.clear();
+        test.put(DATE, singletonList(driver(1, "2020-02-08")), generation);
+
+        assertThat(test.get(DATE)).isNull();
+        assertThat(test.size()).isZero();
+    }
+
+    private static Driver driver(int id, String creationDate) {
+        return new Driver(id, "New", "Driver", LocalDate.parse("1990-12-12"), LocalDate.parse(creationDate));
+    }
+}
@@ -4,27 +4,46 @@ import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import com.thefloow.driver.controller.error.ServiceException;
 import com.thefloow.driver.model.Driver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.*;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 public class FileDriverRepositoryTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     @DisplayName("Should read the content of the file and return all driver records")
     public void findAll_happyPath_returnsAllDriverRecords() throws Exception {
@@ -72,6 +91,659 @@ public class FileDriverRepositoryTest {
     }
 
 
+    @Test
+    @DisplayName("Should return drivers saved after startup ordered by id, as the repository file")
+    public void findCreatedAfter_newDriverSaved_returnsNewDriverInIdOrder() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile);
+            getOrThrow(test.save(buildNewDriver()));
+
+            List<Driver> drivers = getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01")));
+
+            assertThat(drivers).extracting("id").containsExactly(1, 3, 4);
+        }
+    }
+
+
+    @Test
+    @DisplayName("Should return the cached drivers created after a date without scanning the repository again")
+    public void findCreatedAfter_sameDateTwice_secondResultCached() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.LINES, ForkJoinPool.commonPool(), new RepositoryMetrics(registry));
+            getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01")));
+            List<Driver> drivers = getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01")));
+
+            assertThat(drivers).extracting("id").containsExactly(1, 3);
+            assertThat(registry.get("repository.cache.gets").tag("result", "hit").counter().count()).isEqualTo(1);
+            assertThat(registry.get("repository.cache.gets").tag("result", "miss").counter().count()).isEqualTo(1);
+            assertThat(registry.get("repository.rows.scanned").tag("operation", "findCreatedAfter").counter().count())
+                    .isEqualTo(3);
+        }
+    }
+
+
+    @Test
+    @DisplayName("Should add a driver saved after its date was cached to the cached drivers in id order")
+    public void findCreatedAfter_newDriverSavedAfterCaching_cachedResultUpdated() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.INDEX, ForkJoinPool.commonPool(), new RepositoryMetrics(registry));
+            getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01")));
+            getOrThrow(test.save(buildNewDriver()));
+            List<Driver> drivers = getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01")));
+
+            assertThat(drivers).extracting("id").containsExactly(1, 3, 4);
+            assertThat(registry.get("repository.cache.gets").tag("result", "hit").counter().count()).isEqualTo(1);
+        }
+    }
+
+
+    @Test
+    @DisplayName("Should scan the mapped file and return only driver records created after 2019-01-01")
+    public void findCreatedAfter_mappedScanMode_returnsFilteredRecords() throws Exception {
+
+        Path driversTestRepoFile = getPathFromTemporaryFolder("drivers_repo.txt");
+
+        try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                WriterSettings.defaults(), ScanMode.MAPPED)) {
+
+            getOrThrow(test.save(buildNewDriver()));
+
+            List<Driver> drivers = getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01")));
+
+            assertThat(drivers).extracting("id", "firstName", "lastName", "dateOfBirth", "creationDate")
+                    .containsExactly(
+                            tuple(1, "Jaime", "Bergas", LocalDate.parse("1984-05-15"), LocalDate.parse("2020-02-08")),
+                            tuple(3, "John", "Doe", LocalDate.parse("1990-05-15"), LocalDate.parse("2019-02-08")),
+                            tuple(4, "New", "Driver", LocalDate.parse("1990-12-12"), LocalDate.now())
+                    );
+        }
+    }
+
+    @Test
+    @DisplayName("Should filter the columns and return only driver records created after 2019-01-01 ordered by id")
+    public void findCreatedAfter_columnarScanMode_returnsFilteredRecords() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), ScanMode.COLUMNAR)) {
+                getOrThrow(test.save(new Driver(null, "María", "Núñez", LocalDate.parse("1990-12-12"),
+                        LocalDate.parse("2019-06-01"))));
+
+                assertThat(getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01"))))
+                        .extracting("id", "firstName", "lastName", "dateOfBirth", "creationDate")
+                        .containsExactly(
+                                tuple(1, "Jaime", "Bergas", LocalDate.parse("1984-05-15"), LocalDate.parse("2020-02-08")),
+                                tuple(3, "John", "Doe", LocalDate.parse("1990-05-15"), LocalDate.parse("2019-02-08")),
+                                tuple(4, "María", "Núñez", LocalDate.parse("1990-12-12"), LocalDate.parse("2019-06-01"))
+                        );
+                assertThat(getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01"), 1, 1)))
+                        .extracting("id").containsExactly(3);
+                assertThat(getOrThrow(test.findAll(2, 5))).extracting("id").containsExactly(3, 4);
+                assertThat(getOrThrow(test.findById(2))).hasValueSatisfying(driver ->
+                        assertThat(driver.getLastName()).isEqualTo("Doe"));
+                assertThat(getOrThrow(test.findById(5))).isEmpty();
+                try (Stream<Driver> drivers = test.streamCreatedAfter(LocalDate.parse("2019-03-01"))) {
+                    assertThat(drivers).extracting("id").containsExactly(1, 4);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep the driver records in columns growing past their initial capacity")
+    public void findAll_columnarScanModeManyDrivers_allDriverRecordsReturned() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            List<Driver> newDrivers = IntStream.range(0, 3000)
+                    .mapToObj(i -> new Driver(null, "Driver" + i, "Long last name of the driver " + i,
+                            LocalDate.parse("1990-12-12").plusDays(i), LocalDate.parse("2019-06-01")))
+                    .collect(Collectors.toList());
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.COLUMNAR, ForkJoinPool.commonPool(), new RepositoryMetrics(registry))) {
+                getOrThrow(test.saveAll(newDrivers));
+
+                List<Driver> drivers = getOrThrow(test.findAll());
+
+                assertThat(drivers).hasSize(3003);
+                assertThat(drivers.get(2002)).extracting("id", "firstName", "lastName", "dateOfBirth")
+                        .containsExactly(2003, "Driver1999", "Long last name of the driver 1999",
+                                LocalDate.parse("1990-12-12").plusDays(1999));
+                assertThat(registry.get("repository.columns.memory").tag("area", "nonheap").gauge().value())
+                        .isGreaterThan(16 * 1024);
+                assertThat(registry.get("repository.rows.scanned").tag("operation", "findAll").counter().count())
+                        .isEqualTo(3003);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should throw service exception when the mapped file contains invalid records")
+    public void findAll_mappedScanModeAndInvalidRecords_serviceExceptionIsThrown() throws Exception {
+
+        Path driversTestRepoFile = getPathFromTemporaryFolder("drivers_invalid_repo.txt");
+
+        try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                WriterSettings.defaults(), ScanMode.MAPPED)) {
+
+            assertThatThrownBy(() -> getOrThrow(test.findAll()))
+                    .isInstanceOf(ServiceException.class)
+                    .hasFieldOrPropertyWithValue("code", "technical.failure")
+                    .hasMessage("Error reading repository file record");
+        }
+    }
+
+
+    @Test
+    @DisplayName("Should stream the driver records created after 2019-01-01 reading the file line by line")
+    public void streamCreatedAfter_linesScanMode_streamsFilteredRecords() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), ScanMode.LINES);
+
+            try (Stream<Driver> drivers = test.streamCreatedAfter(LocalDate.parse("2019-01-01"))) {
+                assertThat(drivers).extracting("id").containsExactly(1, 3);
+            }
+        }
+    }
+
+
+    @Test
+    @DisplayName("Should return the page of driver records following the given driver id")
+    public void findAllPage_linesScanMode_returnsNextDriverRecords() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), ScanMode.LINES);
+            getOrThrow(test.save(buildNewDriver()));
+
+            assertThat(getOrThrow(test.findAll(1, 2))).extracting("id").containsExactly(2, 3);
+            assertThat(getOrThrow(test.findAll(3, 2))).extracting("id").containsExactly(4);
+            assertThat(getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01"), 1, 5)))
+                    .extracting("id").containsExactly(3, 4);
+        }
+    }
+
+
+    @Test
+    @DisplayName("Should return the driver record of the given id")
+    public void findById_happyPath_returnsDriverRecord() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile);
+
+            assertThat(getOrThrow(test.findById(2))).hasValueSatisfying(driver ->
+                    assertThat(driver).extracting("id", "firstName", "lastName", "dateOfBirth", "creationDate")
+                            .containsExactly(2, "Jane", "Doe", LocalDate.parse("1980-05-15"), LocalDate.parse("2018-02-08")));
+            assertThat(getOrThrow(test.findById(4))).isEmpty();
+        }
+    }
+
+    @Test
+    @DisplayName("Should find driver records through the offset index saved when the repository is closed")
+    public void findById_linesScanModeReopened_returnsDriverRecords() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), ScanMode.LINES)) {
+                getOrThrow(test.save(buildNewDriver()));
+                assertThat(getOrThrow(test.findById(4))).map(Driver::getFirstName).hasValue("New");
+            }
+            assertThat(Files.exists(fileSystem.getPath("drivers.txt.idx"))).isTrue();
+
+            Files.write(driversTestRepoFile, "5;Appended;Driver;1990-12-12;2020-03-01\n".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+
+            try (FileDriverRepository reopened = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), ScanMode.MAPPED)) {
+                assertThat(getOrThrow(reopened.findById(1))).map(Driver::getFirstName).hasValue("Jaime");
+                assertThat(getOrThrow(reopened.findById(4))).map(Driver::getFirstName).hasValue("New");
+                assertThat(getOrThrow(reopened.findById(5))).map(Driver::getFirstName).hasValue("Appended");
+                assertThat(getOrThrow(reopened.findById(6))).isEmpty();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should rebuild the offset index when it does not match the repository file")
+    public void findById_staleOffsetIndex_returnsDriverRecords() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(), ScanMode.LINES).close();
+            Files.write(driversTestRepoFile, "10;Other;Driver;1990-12-12;2020-03-01\n".getBytes(StandardCharsets.UTF_8));
+
+            try (FileDriverRepository reopened = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), ScanMode.LINES)) {
+                assertThat(getOrThrow(reopened.findById(1))).isEmpty();
+                assertThat(getOrThrow(reopened.findById(10))).map(Driver::getFirstName).hasValue("Other");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should store driver records with a checksum of their fields")
+    public void addNewDriver_happyPath_recordStoredWithChecksum() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile)) {
+                getOrThrow(test.save(buildNewDriver()));
+            }
+
+            List<String> records = Files.readAllLines(driversTestRepoFile);
+            String fields = "4;New;Driver;1990-12-12;" + LocalDate.now();
+            byte[] fieldBytes = fields.getBytes(StandardCharsets.UTF_8);
+            assertThat(records.get(records.size() - 1))
+                    .isEqualTo(fields + ";" + RecordChecksum.format(RecordChecksum.of(fieldBytes, 0, fieldBytes.length)));
+        }
+    }
+
+    @Test
+    @DisplayName("Should drop a torn record left at the end of the repository file by an interrupted write")
+    public void newRepository_tornLastRecord_recordDropped() throws Exception {
+
+        Path driversTestRepoFile = getPathFromTemporaryFolder("drivers_repo.txt");
+        Files.write(driversTestRepoFile, "4;Torn;Dri".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        for (ScanMode scanMode : ScanMode.values()) {
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), scanMode)) {
+                assertThat(getOrThrow(test.findAll())).extracting("firstName").doesNotContain("Torn");
+            }
+        }
+        try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile)) {
+            assertThat(getOrThrow(test.save(buildNewDriver())).getId()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep a complete last record whose line separator was not written")
+    public void newRepository_unterminatedLastRecord_recordKept() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            Files.write(driversTestRepoFile, "4;Complete;Driver;1990-12-12;2020-03-01".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), ScanMode.MAPPED)) {
+                assertThat(getOrThrow(test.save(buildNewDriver())).getId()).isEqualTo(5);
+                assertThat(getOrThrow(test.findById(4))).map(Driver::getFirstName).hasValue("Complete");
+                assertThat(getOrThrow(test.findById(5))).map(Driver::getFirstName).hasValue("New");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should throw service exception when a record does not match its checksum")
+    public void findAll_recordChecksumMismatch_serviceExceptionIsThrown() throws Exception {
+
+        Path driversTestRepoFile = getPathFromTemporaryFolder("drivers_repo.txt");
+        Files.write(driversTestRepoFile, "4;Altered;Driver;1990-12-12;2020-03-01;00000000\n"
+                .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        for (ScanMode scanMode : ScanMode.values()) {
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), scanMode)) {
+                assertThatThrownBy(() -> getOrThrow(test.findAll()))
+                        .isInstanceOf(ServiceException.class)
+                        .hasMessage("Error reading repository file record");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject reads when the read executor is busy")
+    public void findAll_readExecutorBusy_readRejected() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), ScanMode.INDEX, command -> {
+                        throw new RejectedExecutionException();
+                    });
+
+            assertThatThrownBy(test::findAll).isInstanceOf(RejectedExecutionException.class);
+            assertThat(getOrThrow(test.save(buildNewDriver())).getId()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    @DisplayName("Should count a failing commit listener and still store the driver and run the other listeners")
+    public void save_saveListenerFails_failureCountedAndDriverStored() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            List<Driver> listened = new ArrayList<>();
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.LINES, ForkJoinPool.commonPool(), new RepositoryMetrics(registry))) {
+                test.addSaveListener(drivers -> {
+                    throw new IllegalStateException("Listener failure");
+                });
+                test.addSaveListener(listened::addAll);
+
+                assertThat(getOrThrow(test.save(buildNewDriver())).getId()).isEqualTo(4);
+                assertThat(listened).extracting("id").containsExactly(4);
+                assertThat(registry.get("repository.writer.listener.failures").functionCounter().count())
+                        .isEqualTo(1);
+                assertThat(getOrThrow(test.findById(4))).isPresent();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should record the records scanned and returned by the repository operations")
+    public void findCreatedAfter_linesScanMode_scannedAndReturnedRecordsMetered() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.LINES, ForkJoinPool.commonPool(), new RepositoryMetrics(registry));
+            long repositorySize = Files.size(driversTestRepoFile);
+            getOrThrow(test.findCreatedAfter(LocalDate.parse("2019-01-01")));
+            getOrThrow(test.save(buildNewDriver()));
+
+            assertThat(registry.get("repository.operation").tag("operation", "findCreatedAfter").timer().count())
+                    .isEqualTo(1);
+            assertThat(registry.get("repository.rows.scanned").tag("operation", "findCreatedAfter").counter().count())
+                    .isEqualTo(3);
+            assertThat(registry.get("repository.rows.returned").tag("operation", "findCreatedAfter").counter().count())
+                    .isEqualTo(2);
+            assertThat(registry.get("repository.bytes.read").tag("operation", "findCreatedAfter").counter().count())
+                    .isEqualTo(repositorySize);
+            assertThat(registry.get("repository.writer.batch.size").summary().totalAmount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Should time a stream whose consumer throws before its end as a failed operation")
+    public void streamAll_consumerThrowsMidStream_timedAsFailure() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.LINES, ForkJoinPool.commonPool(), new RepositoryMetrics(registry))) {
+                try (Stream<Driver> drivers = test.streamAll()) {
+                    assertThat(drivers.count()).isEqualTo(3);
+                }
+                try (Stream<Driver> drivers = test.streamAll()) {
+                    assertThatThrownBy(() -> drivers.forEach(driver -> {
+                        throw new IllegalStateException("Consumer failure");
+                    })).isInstanceOf(IllegalStateException.class);
+                }
+
+                assertThat(registry.get("repository.operation").tags("operation", "streamAll", "outcome", "success")
+                        .timer().count()).isEqualTo(1);
+                assertThat(registry.get("repository.operation").tags("operation", "streamAll", "outcome", "failure")
+                        .timer().count()).isEqualTo(1);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should only scan the driver records of the months at or after the requested date")
+    public void findCreatedAfter_linesScanMode_earlierMonthsSkipped() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = writeMonthlyRecords(fileSystem.getPath("drivers.txt"));
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.LINES, ForkJoinPool.commonPool(), new RepositoryMetrics(registry))) {
+                List<Driver> drivers = getOrThrow(test.findCreatedAfter(LocalDate.parse("2020-03-01")));
+
+                assertThat(drivers).extracting("id").containsExactly(5);
+                assertThat(registry.get("repository.rows.scanned").tag("operation", "findCreatedAfter").counter()
+                        .count()).isEqualTo(2);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should find the drivers of earlier months stored after the month manifest was saved")
+    public void findCreatedAfter_mappedScanModeReopened_earlierMonthRecordsFound() throws Exception {
+
+        Path driversTestRepoFile = writeMonthlyRecords(temporaryFolder.getRoot().toPath().resolve("drivers.txt"));
+
+        try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                WriterSettings.defaults(), ScanMode.MAPPED)) {
+            getOrThrow(test.save(new Driver(null, "Imported", "Driver", LocalDate.parse("1990-12-12"),
+                    LocalDate.parse("2020-02-10"))));
+        }
+        assertThat(Files.exists(driversTestRepoFile.resolveSibling("drivers.txt.months"))).isTrue();
+
+        Files.write(driversTestRepoFile, "7;Appended;Driver;1990-12-12;2020-01-25\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (FileDriverRepository reopened = new FileDriverRepository(driversTestRepoFile,
+                WriterSettings.defaults(), ScanMode.MAPPED)) {
+            assertThat(getOrThrow(reopened.findCreatedAfter(LocalDate.parse("2020-02-28"))))
+                    .extracting("id").containsExactly(4, 5);
+            assertThat(getOrThrow(reopened.findCreatedAfter(LocalDate.parse("2020-01-21"))))
+                    .extracting("id").containsExactly(3, 4, 5, 6, 7);
+            assertThat(getOrThrow(reopened.findCreatedAfter(LocalDate.parse("2020-02-01"), 4, 10)))
+                    .extracting("id").containsExactly(5, 6);
+        }
+    }
+
+    @Test
+    @DisplayName("Should find the drivers created in years past 9999 in every scan mode, before and after a restart")
+    public void findCreatedAfter_creationYearPast9999_foundInEveryScanMode() throws Exception {
+
+        for (ScanMode scanMode : ScanMode.values()) {
+            Path driversTestRepoFile = writeMonthlyRecords(temporaryFolder.newFolder().toPath().resolve("drivers.txt"));
+            Files.write(driversTestRepoFile, asList(
+                    "6;Legacy;Driver;-0001-12-31;+10000-01-01",
+                    "7;March;Driver;1990-12-12;2020-03-20"), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+            for (int run = 0; run < 2; run++) {
+                try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                        WriterSettings.defaults(), scanMode)) {
+                    assertThat(getOrThrow(test.findCreatedAfter(LocalDate.parse("2020-03-16"))))
+                            .as("%s", scanMode).extracting("id", "dateOfBirth", "creationDate")
+                            .containsExactly(
+                                    tuple(6, LocalDate.parse("-0001-12-31"), LocalDate.parse("+10000-01-01")),
+                                    tuple(7, LocalDate.parse("1990-12-12"), LocalDate.parse("2020-03-20")));
+                    assertThat(getOrThrow(test.findCreatedAfter(LocalDate.parse("9999-12-31"))))
+                            .as("%s", scanMode).extracting("id").containsExactly(6);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should find drivers by the beginning of their first or last name regardless of case")
+    public void findByName_namePrefix_returnsExactMatchesFirst() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile);
+            getOrThrow(test.save(new Driver(null, "Joe", "Do", LocalDate.parse("1990-12-12"), LocalDate.now())));
+
+            assertThat(getOrThrow(test.findByName("do", 10))).extracting("id").containsExactly(4, 2, 3);
+            assertThat(getOrThrow(test.findByName("JA", 10))).extracting("id").containsExactly(1, 2);
+            assertThat(getOrThrow(test.findByName("Do", 2))).extracting("id").containsExactly(4, 2);
+            assertThat(getOrThrow(test.findByName("x", 10))).isEmpty();
+        }
+    }
+
+    @Test
+    @DisplayName("Should find drivers by name regardless of accents reading only the records found")
+    public void findByName_linesScanMode_foundRecordsRead() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.LINES, ForkJoinPool.commonPool(), new RepositoryMetrics(registry))) {
+                getOrThrow(test.save(new Driver(null, "María", "García", LocalDate.parse("1990-12-12"),
+                        LocalDate.now())));
+
+                assertThat(getOrThrow(test.findByName("MARIA", 10))).extracting("id", "firstName")
+                        .containsExactly(tuple(4, "María"));
+                assertThat(getOrThrow(test.findByName("gar", 10))).extracting("id").containsExactly(4);
+                assertThat(registry.get("repository.rows.scanned").tag("operation", "findByName").counter().count())
+                        .isEqualTo(2);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should build the name index and the counters of the LINES scan mode on their first use, not on start")
+    public void findByName_linesScanMode_indexesBuiltOnFirstUse() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.LINES)) {
+                getOrThrow(test.save(new Driver(null, "New", "Driver", LocalDate.parse("1990-06-02"),
+                        LocalDate.parse("2019-02-20"))));
+                String renamed = new String(Files.readAllBytes(driversTestRepoFile), StandardCharsets.UTF_8)
+                        .replace("1;Jaime;", "1;Jamie;");
+                Files.write(driversTestRepoFile, renamed.getBytes(StandardCharsets.UTF_8));
+
+                assertThat(getOrThrow(test.findByName("jamie", 10))).extracting("id").containsExactly(1);
+                assertThat(getOrThrow(test.findByName("jaime", 10))).isEmpty();
+                assertCounts(test);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should build the name index and the counters of the LINES scan mode once, on the read executor")
+    public void countCreatedAfter_linesScanModeConcurrentFirstCounts_indexesBuiltOnceOnReadExecutor()
+            throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            List<Runnable> submittedReads = Collections.synchronizedList(new ArrayList<>());
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.LINES, submittedReads::add, new RepositoryMetrics(registry))) {
+                List<CompletableFuture<Long>> counts = IntStream.range(0, 8)
+                        .mapToObj(i -> test.countCreatedAfter(LocalDate.MIN))
+                        .collect(Collectors.toList());
+
+                assertThat(counts).noneMatch(CompletableFuture::isDone);
+                assertThat(registry.find("repository.rows.scanned").counters()).isEmpty();
+                while (!submittedReads.isEmpty()) {
+                    submittedReads.remove(0).run();
+                }
+                for (CompletableFuture<Long> count : counts) {
+                    assertThat(getOrThrow(count)).isEqualTo(3);
+                }
+                assertThat(registry.get("repository.operation").tag("operation", "buildSecondaryIndexes").timer()
+                        .count()).isEqualTo(1);
+                assertThat(registry.get("repository.rows.scanned").tag("operation", "buildSecondaryIndexes")
+                        .counter().count()).isEqualTo(3);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should count stored and new drivers by creation date and by age band")
+    public void countCreatedAfter_newDriver_countsIncludeNewDriver() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile);
+            getOrThrow(test.save(new Driver(null, "New", "Driver", LocalDate.parse("1990-06-02"),
+                    LocalDate.parse("2019-02-20"))));
+
+            assertCounts(test);
+        }
+    }
+
+    @Test
+    @DisplayName("Should count the drivers of the repository file in lines scan mode without scanning it per count")
+    public void countCreatedAfter_linesScanModeReopened_countsReadFromFile() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile)) {
+                getOrThrow(test.save(new Driver(null, "New", "Driver", LocalDate.parse("1990-06-02"),
+                        LocalDate.parse("2019-02-20"))));
+            }
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile, WriterSettings.defaults(),
+                    ScanMode.LINES, ForkJoinPool.commonPool(), new RepositoryMetrics(registry))) {
+
+                assertCounts(test);
+                assertThat(registry.find("repository.rows.scanned").counters())
+                        .extracting(counter -> counter.getId().getTag("operation"), Counter::count)
+                        .containsExactly(tuple("buildSecondaryIndexes", 4.0));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should count drivers of the earliest and latest dates without keeping the days between them")
+    public void countCreatedAfter_extremeDates_driversCounted() throws Exception {
+
+        for (ScanMode scanMode : asList(ScanMode.INDEX, ScanMode.LINES)) {
+            Path driversTestRepoFile = temporaryFolder.newFolder().toPath().resolve("drivers.txt");
+            Files.copy(Paths.get("src", "test", "resources", "repository", "drivers_repo.txt"), driversTestRepoFile);
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    WriterSettings.defaults(), scanMode)) {
+                getOrThrow(test.save(new Driver(null, "Far", "Future", LocalDate.parse("+999999999-12-31"),
+                        LocalDate.parse("+100000-01-01"))));
+                getOrThrow(test.save(new Driver(null, "Far", "Past", LocalDate.parse("-999999999-01-01"),
+                        LocalDate.parse("2019-02-20"))));
+
+                assertThat(getOrThrow(test.countCreatedAfter(LocalDate.parse("2019-01-01")))).isEqualTo(4);
+                assertThat(getOrThrow(test.countCreatedAfter(LocalDate.MAX))).isZero();
+                assertThat(getOrThrow(test.countCreatedByPeriod(LocalDate.parse("2020-01-01"),
+                        CreationPeriod.MONTH))).containsExactly(entry(LocalDate.parse("2020-02-01"), 1L),
+                                entry(LocalDate.parse("+100000-01-01"), 1L));
+                assertThat(getOrThrow(test.countByAge(LocalDate.parse("2020-06-01"), 18, 100)))
+                        .containsExactly(1, 3, 1);
+            }
+        }
+    }
+
     @Test
     @DisplayName("Should add a new driver record to the repository with correct next driver id")
     public void addNewDriver_happyPath_driverRecordAddedToRepository() throws Exception {
@@ -99,6 +771,144 @@ public class FileDriverRepositoryTest {
         }
     }
 
+    @Test
+    @DisplayName("Should allocate consecutive driver ids starting from the last stored record")
+    public void addNewDrivers_happyPath_consecutiveDriverIdsAllocated() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile);
+            getOrThrow(test.save(buildNewDriver()));
+
+            FileDriverRepository reopened = new FileDriverRepository(driversTestRepoFile);
+
+            assertThat(getOrThrow(reopened.save(buildNewDriver())).getId()).isEqualTo(5);
+            assertThat(getOrThrow(reopened.save(buildNewDriver())).getId()).isEqualTo(6);
+        }
+    }
+
+    @Test
+    @DisplayName("Should store drivers saved together with contiguous driver ids")
+    public void addNewDrivers_savedTogether_contiguousDriverIdsAllocated() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    new WriterSettings(2, 0, 1024, true), ScanMode.LINES);
+
+            List<Driver> drivers = getOrThrow(test.saveAll(
+                    asList(buildNewDriver(), buildNewDriver(), buildNewDriver())));
+
+            assertThat(drivers).extracting("id").containsExactly(4, 5, 6);
+            assertThat(getOrThrow(test.findAll())).extracting("id").containsExactly(1, 2, 3, 4, 5, 6);
+            assertThat(getOrThrow(test.findById(6))).map(Driver::getFirstName).hasValue("New");
+        }
+    }
+
+    @Test
+    @DisplayName("Should store concurrent new drivers with unique consecutive driver ids")
+    public void addNewDrivers_concurrentSaves_uniqueDriverIdsAllocated() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = getPathFromJimfsFilesystem(fileSystem, "drivers_repo.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    new WriterSettings(8, 1, 1024, true), ScanMode.INDEX);
+
+            List<CompletableFuture<Driver>> saves = IntStream.range(0, 100)
+                    .parallel()
+                    .mapToObj(i -> test.save(buildNewDriver()))
+                    .collect(Collectors.toList());
+
+            List<Integer> ids = new ArrayList<>();
+            for (CompletableFuture<Driver> save : saves) {
+                ids.add(getOrThrow(save).getId());
+            }
+
+            assertThat(ids).doesNotHaveDuplicates().hasSize(100).allMatch(id -> id > 3 && id <= 103);
+            assertThat(getOrThrow(test.findAll())).extracting("id").doesNotHaveDuplicates().hasSize(103);
+        }
+    }
+
+    @Test
+    @DisplayName("Should store or reject every driver saved while the repository is closed")
+    public void addNewDrivers_savedWhileClosing_everySaveCompleted() throws Exception {
+
+        for (int run = 0; run < 50; run++) {
+            Path driversTestRepoFile = temporaryFolder.newFolder().toPath().resolve("drivers.txt");
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    new WriterSettings(8, 0, 4096, false), ScanMode.LINES);
+            List<CompletableFuture<Driver>> saves = Collections.synchronizedList(new ArrayList<>());
+            CompletableFuture<?>[] savers = IntStream.range(0, 4)
+                    .mapToObj(saver -> CompletableFuture.runAsync(() -> {
+                        CompletableFuture<Driver> save;
+                        do {
+                            save = test.save(buildNewDriver());
+                            saves.add(save);
+                        } while (!save.isCompletedExceptionally());
+                    }))
+                    .toArray(CompletableFuture[]::new);
+
+            Thread.sleep(2);
+            test.close();
+            CompletableFuture.allOf(savers).get(5, TimeUnit.SECONDS);
+
+            CompletableFuture.allOf(saves.toArray(new CompletableFuture[0]))
+                    .handle((ignored, failure) -> null)
+                    .get(5, TimeUnit.SECONDS);
+            assertThat(saves).allMatch(CompletableFuture::isDone);
+        }
+    }
+
+    @Test
+    @DisplayName("Should only read completely written driver records while drivers are saved concurrently")
+    public void findAll_concurrentSaves_committedDriverRecordsRead() throws Exception {
+
+        for (ScanMode scanMode : ScanMode.values()) {
+            Path driversTestRepoFile = temporaryFolder.newFolder().toPath().resolve("drivers.txt");
+            Files.copy(Paths.get("src", "test", "resources", "repository", "drivers_repo.txt"), driversTestRepoFile);
+
+            try (FileDriverRepository test = new FileDriverRepository(driversTestRepoFile,
+                    new WriterSettings(4, 0, 4096, true), scanMode)) {
+                List<CompletableFuture<List<Driver>>> saves = IntStream.range(0, 500)
+                        .parallel()
+                        .mapToObj(i -> i % 5 == 0
+                                ? test.saveAll(asList(buildNewDriver(), buildNewDriver(), buildNewDriver()))
+                                : test.save(buildNewDriver()).thenApply(Collections::singletonList))
+                        .collect(Collectors.toList());
+
+                List<List<Integer>> reads = new ArrayList<>();
+                while (!saves.stream().allMatch(CompletableFuture::isDone)) {
+                    reads.add(getOrThrow(test.findAll()).stream().map(Driver::getId).collect(Collectors.toList()));
+                }
+
+                List<Integer> ids = new ArrayList<>();
+                for (CompletableFuture<List<Driver>> save : saves) {
+                    getOrThrow(save).forEach(driver -> ids.add(driver.getId()));
+                }
+                assertThat(ids).doesNotHaveDuplicates().hasSize(700).allMatch(id -> id > 3 && id <= 703);
+                for (List<Integer> read : reads) {
+                    assertThat(read).isEqualTo(IntStream.rangeClosed(1, read.size()).boxed().collect(Collectors.toList()));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should allocate driver id 1 when the repository is empty")
+    public void addNewDriver_emptyRepository_firstDriverIdAllocated() throws Exception {
+
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path driversTestRepoFile = fileSystem.getPath("drivers.txt");
+
+            FileDriverRepository test = new FileDriverRepository(driversTestRepoFile);
+
+            assertThat(getOrThrow(test.save(buildNewDriver())).getId()).isEqualTo(1);
+        }
+    }
+
     @Test
     @DisplayName("Should create repository file if it does not exist")
     public void newRepository_fileDoesNotExists_repositoryFileIsCreated() throws IOException {
@@ -140,6 +950,40 @@ public class FileDriverRepositoryTest {
     }
 
 
+    /**
+     * Writes two driver records created in January, one in February and two in March 2020.
+     */
+    private static Path writeMonthlyRecords(Path repositoryPath) throws IOException {
+        Files.write(repositoryPath, asList(
+                "1;January;Driver;1990-12-12;2020-01-10",
+                "2;January;Driver;1990-12-12;2020-01-20",
+                "3;February;Driver;1990-12-12;2020-02-05",
+                "4;March;Driver;1990-12-12;2020-03-01",
+                "5;March;Driver;1990-12-12;2020-03-15"), StandardCharsets.UTF_8);
+
+        return repositoryPath;
+    }
+
+
+    /**
+     * Checks the counts of the drivers of the test file and of a driver born on 1990-06-02 created on 2019-02-20.
+     */
+    private static void assertCounts(DriverRepository test) throws Exception {
+        assertThat(getOrThrow(test.countCreatedAfter(LocalDate.MIN))).isEqualTo(4);
+        assertThat(getOrThrow(test.countCreatedAfter(LocalDate.parse("2018-02-08")))).isEqualTo(3);
+        assertThat(getOrThrow(test.countCreatedAfter(LocalDate.parse("2020-02-08")))).isEqualTo(0);
+        assertThat(getOrThrow(test.countCreatedByPeriod(LocalDate.MIN, CreationPeriod.MONTH))).containsExactly(
+                entry(LocalDate.parse("2018-02-01"), 1L),
+                entry(LocalDate.parse("2019-02-01"), 2L),
+                entry(LocalDate.parse("2020-02-01"), 1L));
+        assertThat(getOrThrow(test.countCreatedByPeriod(LocalDate.parse("2019-01-01"), CreationPeriod.DAY)))
+                .containsExactly(
+                        entry(LocalDate.parse("2019-02-08"), 1L),
+                        entry(LocalDate.parse("2019-02-20"), 1L),
+                        entry(LocalDate.parse("2020-02-08"), 1L));
+        assertThat(getOrThrow(test.countByAge(LocalDate.parse("2020-06-01"), 30, 38))).containsExactly(1, 2, 1);
+    }
+
     private static Path getPathFromJimfsFilesystem(FileSystem fileSystem, String testFile) throws IOException {
         Path resourceFilePath = fileSystem.getPath("drivers.txt");
         Files.copy(Paths.get("src", "test", "resources", "repository", testFile), resourceFilePath);
@@ -148,6 +992,14 @@ public class FileDriverRepositoryTest {
     }
 
 
+    private Path getPathFromTemporaryFolder(String testFile) throws IOException {
+        Path resourceFilePath = temporaryFolder.getRoot().toPath().resolve("drivers.txt");
+        Files.copy(Paths.get("src", "test", "resources", "repository", testFile), resourceFilePath);
+
+        return resourceFilePath;
+    }
+
+
     private static <T> T getOrThrow(Future<T> future) throws Exception {
         try {
             return future.get();
@@ -0,0 +1,178 @@
+package com.thefloow.driver.repository;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IdempotencyKeysTest {
+
+    private static final long WINDOW_MILLIS = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    @DisplayName("Should find the id of the driver created with a key, and nothing for another key")
+    public void find_happyPath_returnsDriverIdOfKey() throws Exception {
+        try (IdempotencyKeys test = new IdempotencyKeys(journalPath(), 10, WINDOW_MILLIS, clock)) {
+
+            test.put("retry-1", 7);
+            test.put("retry-2", 8);
+
+            assertThat(test.find("retry-1")).isEqualTo(7);
+            assertThat(test.find("retry-2")).isEqualTo(8);
+            assertThat(test.find("retry-3")).isZero();
+        }
+    }
+
+    @Test
+    @DisplayName("Should forget the keys older than the window, through several windows")
+    public void find_keyOlderThanWindow_returnsNothing() throws Exception {
+        try (IdempotencyKeys test = new IdempotencyKeys(journalPath(), 10, WINDOW_MILLIS, clock)) {
+            test.put("retry-1", 7);
+            clock.advance(WINDOW_MILLIS / 2);
+            test.put("retry-2", 8);
+            clock.advance(WINDOW_MILLIS / 2);
+            test.put("retry-3", 9);
+
+            assertThat(test.find("retry-1")).isZero();
+            assertThat(test.find("retry-2")).isEqualTo(8);
+            assertThat(test.find("retry-3")).isEqualTo(9);
+
+            clock.advance(WINDOW_MILLIS * 3);
+            test.put("retry-4", 10);
+
+            assertThat(test.find("retry-3")).isZero();
+            assertThat(test.find("retry-4")).isEqualTo(10);
+            assertThat(test.size()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Should forget the oldest keys past the maximum number of keys")
+    public void put_maxKeysReached_oldestKeyForgotten() throws Exception {
+        try (IdempotencyKeys test = new IdempotencyKeys(journalPath(), 2, WINDOW_MILLIS, clock)) {
+
+            test.put("retry-1", 7);
+            test.put("retry-2", 8);
+            test.put("retry-3", 9);
+
+            assertThat(test.size()).isEqualTo(2);
+            assertThat(test.find("retry-1")).isZero();
+            assertThat(test.find("retry-2")).isEqualTo(8);
+            assertThat(test.find("retry-3")).isEqualTo(9);
+        }
+    }
+
+    @Test
+    @DisplayName("Should load the keys of the window kept before a restart, leaving out a line not completely written")
+    public void new_journalWritten_keysOfWindowLoaded() throws Exception {
+        Path journal = journalPath();
+        try (IdempotencyKeys before = new IdempotencyKeys(journal, 10, WINDOW_MILLIS, clock)) {
+            before.put("retry-1", 7);
+            clock.advance(WINDOW_MILLIS / 2);
+            before.put("retry-2", 8);
+            before.put("retry-3", 9);
+        }
+        Files.write(journal, "retry-4;10;".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        clock.advance(WINDOW_MILLIS / 2);
+
+        try (IdempotencyKeys test = new IdempotencyKeys(journal, 10, WINDOW_MILLIS, clock)) {
+
+            assertThat(test.find("retry-1")).isZero();
+            assertThat(test.find("retry-2")).isEqualTo(8);
+            assertThat(test.find("retry-3")).isEqualTo(9);
+            assertThat(test.find("retry-4")).isZero();
+
+            test.put("retry-5", 11);
+        }
+
+        try (IdempotencyKeys test = new IdempotencyKeys(journal, 10, WINDOW_MILLIS, clock)) {
+            assertThat(test.find("retry-2")).isEqualTo(8);
+            assertThat(test.find("retry-5")).isEqualTo(11);
+        }
+    }
+
+    @Test
+    @DisplayName("Should rewrite the journal with the keys kept once it holds twice as many lines")
+    public void put_journalTooLong_journalRewritten() throws Exception {
+        Path journal = journalPath();
+        try (IdempotencyKeys test = new IdempotencyKeys(journal, 1000, WINDOW_MILLIS, clock)) {
+            for (int i = 1; i <= 2000; i++) {
+                test.put("retry-" + i, i);
+            }
+            assertThat(Files.readAllLines(journal)).hasSize(2000);
+
+            test.put("retry-2001", 2001);
+
+            assertThat(Files.readAllLines(journal)).hasSize(1000);
+        }
+
+        try (IdempotencyKeys test = new IdempotencyKeys(journal, 1000, WINDOW_MILLIS, clock)) {
+            assertThat(test.find("retry-1001")).isZero();
+            assertThat(test.find("retry-1002")).isEqualTo(1002);
+            assertThat(test.find("retry-2001")).isEqualTo(2001);
+        }
+    }
+
+    @Test
+    @DisplayName("Should only accept keys of visible ASCII characters other than the journal separator")
+    public void isValid_happyPath_visibleAsciiOnly() throws Exception {
+
+        assertThat(IdempotencyKeys.isValid("3f2c9a1e-0b7d-4c55-9e1a-2d4f6b8c0e13")).isTrue();
+        assertThat(IdempotencyKeys.isValid("retry;1")).isFalse();
+        assertThat(IdempotencyKeys.isValid("retry 1")).isFalse();
+        assertThat(IdempotencyKeys.isValid("")).isFalse();
+        assertThat(IdempotencyKeys.isValid(new String(new char[256]).replace('\0', 'a'))).isFalse();
+        try (IdempotencyKeys test = new IdempotencyKeys(journalPath(), 10, WINDOW_MILLIS, clock)) {
+            assertThatThrownBy(() -> test.put("retry\n1", 7)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    private Path journalPath() {
+        return temporaryFolder.getRoot().toPath().resolve("drivers.txt.keys");
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis = 1_600_000_000_000L;
+
+        private void advance(long elapsedMillis) {
+            millis += elapsedMillis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class MappedDriverScannerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    @DisplayName("Should parse records split across mapped windows")
+    public void findAll_recordsSplitAcrossWindows_returnsAllDriverRecords() throws Exception {
+        Path repositoryFile = temporaryFolder.newFile("drivers.txt").toPath();
+        Files.write(repositoryFile, (
+                "1;Jaime;Bergas;1984-05-15;2020-02-08\n" +
+                "2;Jäne;Doe;1980-05-15;2018-02-08\r\n" +
+                "3;John;Doe;1990-05-15;2019-02-08").getBytes(StandardCharsets.UTF_8));
+
+        for (int windowSize = 40; windowSize <= 120; windowSize++) {
+            List<Driver> drivers = new MappedDriverScanner(repositoryFile, windowSize).findAll();
+
+            assertThat(drivers).extracting("id", "firstName", "lastName", "dateOfBirth", "creationDate")
+                    .containsExactly(
+                            tuple(1, "Jaime", "Bergas", LocalDate.parse("1984-05-15"), LocalDate.parse("2020-02-08")),
+                            tuple(2, "Jäne", "Doe", LocalDate.parse("1980-05-15"), LocalDate.parse("2018-02-08")),
+                            tuple(3, "John", "Doe", LocalDate.parse("1990-05-15"), LocalDate.parse("2019-02-08"))
+                    );
+        }
+    }
+
+    @Test
+    @DisplayName("Should only return drivers created after the given date")
+    public void findCreatedAfter_happyPath_returnsFilteredRecords() throws Exception {
+        Path repositoryFile = temporaryFolder.newFile("drivers.txt").toPath();
+        Files.write(repositoryFile, (
+                "1;Jaime;Bergas;1984-05-15;2020-02-08\n" +
+                "2;Jane;Doe;1980-05-15;2018-02-08\n" +
+                "3;John;Doe;1990-05-15;2019-02-08\n").getBytes(StandardCharsets.UTF_8));
+
+        List<Driver> drivers = new MappedDriverScanner(repositoryFile).findCreatedAfter(LocalDate.parse("2019-02-08"));
+
+        assertThat(drivers).extracting("id").containsExactly(1);
+    }
+
+    @Test
+    @DisplayName("Should parse dates other than yyyy-MM-dd as a whole, as the other scan modes do")
+    public void findCreatedAfter_datesOutsideFourDigitYears_returnsFilteredRecords() throws Exception {
+        Path repositoryFile = temporaryFolder.newFile("drivers.txt").toPath();
+        Files.write(repositoryFile, (
+                "1;Jaime;Bergas;1984-05-15;2020-02-08\n" +
+                "2;Jane;Doe;-0001-12-31;+10000-01-01\n" +
+                "3;John;Doe;1990-05-15;2019-02-08\n" +
+                "4;Old;Record;0500-05-15;-0001-12-31\n").getBytes(StandardCharsets.UTF_8));
+
+        List<Driver> drivers = new MappedDriverScanner(repositoryFile).findCreatedAfter(LocalDate.parse("2019-02-08"));
+
+        assertThat(drivers).extracting("id", "dateOfBirth", "creationDate")
+                .containsExactly(
+                        tuple(1, LocalDate.parse("1984-05-15"), LocalDate.parse("2020-02-08")),
+                        tuple(2, LocalDate.parse("-0001-12-31"), LocalDate.parse("+10000-01-01"))
+                );
+        assertThat(new MappedDriverScanner(repositoryFile).findCreatedAfter(LocalDate.parse("-0002-01-01")))
+                .extracting("id").containsExactly(1, 2, 3, 4);
+        assertThat(new MappedDriverScanner(repositoryFile).findCreatedAfter(LocalDate.parse("+10000-01-01")))
+                .isEmpty();
+    }
+}
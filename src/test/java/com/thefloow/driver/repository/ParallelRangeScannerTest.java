@@ -0,0 +1,132 @@
+package com.thefloow.driver.repository;
+
+import com.thefloow.driver.model.Driver;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelRangeScannerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should split the file into ranges beginning with a record")
+    public void split_happyPath_rangesBeginWithRecords() throws Exception {
+        Path repositoryFile = writeRecords(100);
+        byte[] content = Files.readAllBytes(repositoryFile);
+
+        for (long minRangeSize = 1; minRangeSize <= 200; minRangeSize += 7) {
+            long[] boundaries = new ParallelRangeScanner(repositoryFile, pool, minRangeSize)
+                    .split(0, content.length);
+
+            assertThat(boundaries.length).isBetween(2, 5);
+            assertThat(boundaries[0]).isEqualTo(0);
+            assertThat(boundaries[boundaries.length - 1]).isEqualTo(content.length);
+            for (int i = 1; i < boundaries.length - 1; i++) {
+                assertThat(boundaries[i]).isGreaterThan(boundaries[i - 1]);
+                assertThat(content[(int) boundaries[i] - 1]).isEqualTo((byte) '\n');
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should return the drivers of all the ranges in the order of the file")
+    public void scan_severalRanges_returnsDriversOrderedById() throws Exception {
+        Path repositoryFile = writeRecords(1000);
+        long length = Files.size(repositoryFile);
+        MappedDriverScanner mappedScanner = new MappedDriverScanner(repositoryFile);
+        ParallelRangeScanner test = new ParallelRangeScanner(repositoryFile, pool, 64);
+        ScanStats stats = new ScanStats();
+
+        List<Driver> drivers = test.scan(0, length,
+                (start, end, rangeStats) -> mappedScanner.stream(LocalDate.parse("2019-12-31"), start, end, rangeStats),
+                stats);
+
+        assertThat(test.split(0, length)).hasSize(5);
+        assertThat(drivers).extracting("id")
+                .containsExactlyElementsOf(IntStream.rangeClosed(1, 1000).filter(id -> id % 2 == 0).boxed()
+                        .collect(Collectors.toList()));
+        assertThat(stats.getRecordsScanned()).isEqualTo(1000);
+        assertThat(stats.getBytesRead()).isEqualTo(length);
+    }
+
+    @Test
+    @DisplayName("Should stream the drivers of all the ranges in the order of the file")
+    public void stream_severalRanges_streamsDriversOrderedById() throws Exception {
+        Path repositoryFile = writeRecords(1000);
+        long length = Files.size(repositoryFile);
+        MappedDriverScanner mappedScanner = new MappedDriverScanner(repositoryFile);
+        ParallelRangeScanner test = new ParallelRangeScanner(repositoryFile, pool, 64);
+        ScanStats stats = new ScanStats();
+        Set<String> readingThreads = ConcurrentHashMap.newKeySet();
+
+        List<Driver> drivers;
+        try (Stream<Driver> streamed = test.stream(0, length, (start, end, rangeStats) -> {
+            readingThreads.add(Thread.currentThread().getName());
+            return mappedScanner.stream(LocalDate.parse("2019-12-31"), start, end, rangeStats);
+        }, stats)) {
+            drivers = streamed.collect(Collectors.toList());
+        }
+
+        assertThat(drivers).extracting("id")
+                .containsExactlyElementsOf(IntStream.rangeClosed(1, 1000).filter(id -> id % 2 == 0).boxed()
+                        .collect(Collectors.toList()));
+        assertThat(readingThreads).doesNotContain(Thread.currentThread().getName());
+        assertThat(stats.getRecordsScanned()).isEqualTo(1000);
+        assertThat(stats.getBytesRead()).isEqualTo(length);
+    }
+
+    @Test
+    @DisplayName("Should stream a part smaller than two ranges on the calling thread")
+    public void stream_singleRange_readByCallingThread() throws Exception {
+        Path repositoryFile = writeRecords(10);
+        long length = Files.size(repositoryFile);
+        MappedDriverScanner mappedScanner = new MappedDriverScanner(repositoryFile);
+        ParallelRangeScanner test = new ParallelRangeScanner(repositoryFile, pool, length);
+        Set<String> readingThreads = ConcurrentHashMap.newKeySet();
+
+        try (Stream<Driver> streamed = test.stream(0, length, (start, end, rangeStats) -> {
+            readingThreads.add(Thread.currentThread().getName());
+            return mappedScanner.stream(null, start, end, rangeStats);
+        }, new ScanStats())) {
+            assertThat(streamed.count()).isEqualTo(10);
+        }
+
+        assertThat(readingThreads).containsExactly(Thread.currentThread().getName());
+    }
+
+    /**
+     * Writes driver records whose creation date is in 2020 for even ids, and in 2019 for odd ones.
+     */
+    private Path writeRecords(int count) throws Exception {
+        Path repositoryFile = temporaryFolder.newFile("drivers.txt").toPath();
+        Files.write(repositoryFile, IntStream.rangeClosed(1, count)
+                .mapToObj(id -> id + ";First" + id + ";Last;1990-12-12;" + (id % 2 == 0 ? "2020" : "2019") + "-02-08")
+                .collect(Collectors.toList()), StandardCharsets.UTF_8);
+        return repositoryFile;
+    }
+}